@@ -2,6 +2,7 @@ plugins {
     java
     id("org.springframework.boot") version "3.1.1"
     id("io.spring.dependency-management") version "1.1.0"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.example"
@@ -54,4 +55,13 @@ dependencies {
 
 tasks.withType<Test> {
     useJUnitPlatform()
+}
+
+// Микробенчмарки (src/jmh): ./gradlew jmh
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+    // Выбор бенчмарков и профилировщиков: -Pjmh.includes=... -Pjmh.profilers=gc
+    project.findProperty("jmh.includes")?.let { includes.set(listOf(it.toString())) }
+    project.findProperty("jmh.profilers")?.let { profilers.set(listOf(it.toString())) }
 }
\ No newline at end of file
@@ -5,6 +5,8 @@ class TelegramMiniApp {
         this.apiBaseUrl = 'https://luvtok.ru/api/miniapp';
         this.supportedTypes = ['application/pdf', 'application/vnd.openxmlformats-officedocument.wordprocessingml.document', 'text/plain'];
         this.currentTheme = localStorage.getItem('app-theme') || 'light';
+        this.progressSource = null;
+        this.bookStates = {};
         this.init();
     }
 
@@ -260,6 +262,7 @@ class TelegramMiniApp {
             };
             this.updateUI();
             this.renderBooksList(response.books || []);
+            this.connectProgressStream();
         } catch (error) {
             console.error('Ошибка загрузки данных:', error);
 
@@ -312,6 +315,12 @@ class TelegramMiniApp {
                     <div class="book-meta">
                         ${this.formatFileSize(book.fileSize)} • ${this.formatDate(book.uploadDate)}
                     </div>
+                    ${this.renderIndexingState(this.bookStates[book.id] || {
+                        bookId: book.id,
+                        state: book.indexingState || (book.indexingComplete === false ? 'QUEUED' : 'INDEXED'),
+                        chunksDone: book.indexedChunks,
+                        chunksTotal: book.totalChunks
+                    })}
                 </div>
                 <div class="book-actions">
                     <button class="btn-icon delete" onclick="window.miniApp.confirmDelete(${book.id}, '${this.escapeHtml(book.title || book.fileName)}')">
@@ -386,17 +395,12 @@ class TelegramMiniApp {
             formData.append('file', file);
             formData.append('telegramId', this.user.telegramId);
 
-            // Симуляция прогресса загрузки
-            if (uploadPercentage && uploadProgressFill) {
-                await this.simulateProgress(uploadPercentage, uploadProgressFill);
-            }
-
-            const response = await fetch(`${this.apiBaseUrl}/upload`, {
-                method: 'POST',
-                body: formData
+            const response = await this.sendWithProgress(`${this.apiBaseUrl}/upload`, formData, (progress) => {
+                if (uploadPercentage) uploadPercentage.textContent = `${Math.round(progress)}%`;
+                if (uploadProgressFill) uploadProgressFill.style.width = `${progress}%`;
             });
 
-            const result = await response.json();
+            const result = response.body;
 
             // ИСПРАВЛЕНО: Проверяем статус 403 для подписки
             if (response.status === 403 && result.error === 'SUBSCRIPTION_REQUIRED') {
@@ -426,24 +430,97 @@ class TelegramMiniApp {
         }
     }
 
-    async simulateProgress(percentageEl, progressFillEl) {
-        return new Promise(resolve => {
-            let progress = 0;
-            const interval = setInterval(() => {
-                progress += Math.random() * 15;
-                if (progress > 100) progress = 100;
+    /**
+     * Отправка формы через XHR: fetch не сообщает о прогрессе отправки тела запроса
+     */
+    sendWithProgress(url, formData, onProgress) {
+        return new Promise((resolve, reject) => {
+            const xhr = new XMLHttpRequest();
+            xhr.open('POST', url);
 
-                percentageEl.textContent = `${Math.round(progress)}%`;
-                progressFillEl.style.width = `${progress}%`;
+            xhr.upload.onprogress = (e) => {
+                if (e.lengthComputable) onProgress((e.loaded / e.total) * 100);
+            };
 
-                if (progress >= 100) {
-                    clearInterval(interval);
-                    resolve();
+            xhr.onload = () => {
+                let body = {};
+                try {
+                    body = xhr.responseText ? JSON.parse(xhr.responseText) : {};
+                } catch (e) {
+                    body = {};
                 }
-            }, 100);
+                resolve({ status: xhr.status, ok: xhr.status >= 200 && xhr.status < 300, body });
+            };
+            xhr.onerror = () => reject(new Error('Ошибка сети при загрузке файла'));
+
+            xhr.send(formData);
         });
     }
 
+    /**
+     * Подписка на прогресс индексации книг (SSE). EventSource сам переподключается
+     * после обрыва, сервер при подключении присылает текущее состояние всех книг
+     */
+    connectProgressStream() {
+        if (this.progressSource || !window.EventSource || !this.user) return;
+
+        this.progressSource = new EventSource(`${this.apiBaseUrl}/books/${this.user.telegramId}/progress`);
+        this.progressSource.addEventListener('progress', (e) => {
+            try {
+                this.updateBookProgress(JSON.parse(e.data));
+            } catch (error) {
+                console.error('Ошибка обработки прогресса индексации:', error);
+            }
+        });
+    }
+
+    updateBookProgress(progress) {
+        const previous = this.bookStates[progress.bookId];
+        this.bookStates[progress.bookId] = progress;
+
+        const el = document.querySelector(`[data-book-indexing="${progress.bookId}"]`);
+        if (el) el.outerHTML = this.renderIndexingState(progress);
+
+        // Книга стала доступна для вопросов прямо сейчас, а не была такой при открытии
+        if (previous && previous.state !== progress.state) {
+            const title = document.querySelector(`[data-book-id="${progress.bookId}"] .book-title`)?.textContent || 'Книга';
+            if (progress.state === 'INDEXED') {
+                this.showNotification(`«${title}» готова: можно задавать вопросы`, 'success');
+            } else if (progress.state === 'FAILED') {
+                this.showNotification(`Не удалось обработать «${title}»`, 'error');
+            }
+        }
+    }
+
+    renderIndexingState(progress) {
+        const bookId = progress.bookId;
+        const state = progress.state || 'INDEXED';
+        const done = progress.chunksDone || 0;
+        const total = progress.chunksTotal || 0;
+
+        if (state === 'INDEXED') {
+            return `<div class="book-indexing" data-book-indexing="${bookId}">✅ Готова к вопросам</div>`;
+        }
+        if (state === 'FAILED') {
+            return `<div class="book-indexing failed" data-book-indexing="${bookId}">⚠️ Ошибка обработки</div>`;
+        }
+
+        let label = '⏳ В очереди на обработку';
+        if (state === 'EXTRACTING') {
+            label = total ? `📖 Чтение текста: ${total} фрагментов` : '📖 Чтение текста';
+        } else if (state === 'EMBEDDING') {
+            label = `🧠 Индексация: ${done} из ${total}`;
+        }
+        const percent = state === 'EMBEDDING' && total ? Math.min(100, (done / total) * 100) : 0;
+
+        return `
+            <div class="book-indexing" data-book-indexing="${bookId}">
+                ${label}
+                <div class="progress-bar"><div class="progress-fill" style="width: ${percent}%"></div></div>
+            </div>
+        `;
+    }
+
     confirmDelete(bookId, bookTitle) {
         console.log('Confirming delete for book:', bookId, bookTitle);
         this.showModal({
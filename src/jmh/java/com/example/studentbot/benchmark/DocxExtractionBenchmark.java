@@ -0,0 +1,102 @@
+package com.example.studentbot.benchmark;
+
+import com.example.studentbot.service.DocxTextExtractor;
+import org.apache.poi.xwpf.extractor.XWPFWordExtractor;
+import org.apache.poi.xwpf.usermodel.Document;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.util.Units;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Извлечение текста из большого DOCX: потоковый StAX-разбор против XWPFDocument.
+ * Документ с картинками имитирует диссертацию со вставленными рисунками.
+ * Для сравнения памяти запускать с профилировщиком аллокаций:
+ *
+ * ./gradlew jmh -Pjmh.includes=DocxExtractionBenchmark -Pjmh.profilers=gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class DocxExtractionBenchmark {
+
+    private static final int PARAGRAPHS = 20_000;
+    private static final int IMAGE_SIZE = 512 * 1024;
+
+    @Param({"0", "40"})
+    private int images;
+
+    private File docxFile;
+    private DocxTextExtractor extractor;
+
+    @Setup
+    public void setUp() throws Exception {
+        docxFile = Files.createTempFile("docx-benchmark-", ".docx").toFile();
+        Random random = new Random(42);
+
+        try (XWPFDocument document = new XWPFDocument()) {
+            int imageEvery = images > 0 ? PARAGRAPHS / images : Integer.MAX_VALUE;
+            for (int p = 0; p < PARAGRAPHS; p++) {
+                XWPFParagraph paragraph = document.createParagraph();
+                paragraph.createRun().setText(randomSentence(random));
+                if (p % imageEvery == imageEvery - 1) {
+                    // Случайные байты не сжимаются - как у настоящих JPEG/PNG
+                    byte[] image = new byte[IMAGE_SIZE];
+                    random.nextBytes(image);
+                    paragraph.createRun().addPicture(new ByteArrayInputStream(image), Document.PICTURE_TYPE_PNG,
+                            "image" + p + ".png", Units.toEMU(200), Units.toEMU(200));
+                }
+            }
+            try (OutputStream out = Files.newOutputStream(docxFile.toPath())) {
+                document.write(out);
+            }
+        }
+
+        extractor = new DocxTextExtractor();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(docxFile.toPath());
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws Exception {
+        try (InputStream in = Files.newInputStream(docxFile.toPath())) {
+            extractor.extract(in, paragraph -> blackhole.consume(paragraph.length()));
+        }
+    }
+
+    @Benchmark
+    public void xwpf(Blackhole blackhole) throws Exception {
+        try (InputStream in = Files.newInputStream(docxFile.toPath());
+             XWPFDocument document = new XWPFDocument(in);
+             XWPFWordExtractor wordExtractor = new XWPFWordExtractor(document)) {
+            blackhole.consume(wordExtractor.getText());
+        }
+    }
+
+    private static String randomSentence(Random random) {
+        StringBuilder sentence = new StringBuilder();
+        while (sentence.length() < 300) {
+            int length = 2 + random.nextInt(9);
+            for (int i = 0; i < length; i++) {
+                sentence.append((char) ('а' + random.nextInt(32)));
+            }
+            sentence.append(random.nextInt(12) == 0 ? ". " : " ");
+        }
+        return sentence.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.studentbot.benchmark;
+
+import com.example.studentbot.utils.EmbeddingResponseParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение разбора пакетного ответа OpenAI: дерево JsonNode поверх строки (прежний способ)
+ * против потокового JsonParser поверх байтов.
+ *
+ * Запуск: ./gradlew jmh -Pjmh.includes=EmbeddingResponseParserBenchmark
+ * Скорость аллокаций видна с профилировщиком gc (jmh { profilers = ["gc"] }).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddingResponseParserBenchmark {
+
+    @Param({"1", "64"})
+    private int batchSize;
+
+    @Param({"256", "1536"})
+    private int dimensions;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private EmbeddingResponseParser parser;
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        parser = new EmbeddingResponseParser(objectMapper.getFactory());
+
+        Random random = new Random(42);
+        StringBuilder json = new StringBuilder("{\"object\":\"list\",\"data\":[");
+        for (int i = 0; i < batchSize; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"object\":\"embedding\",\"index\":").append(i).append(",\"embedding\":[");
+            for (int d = 0; d < dimensions; d++) {
+                if (d > 0) json.append(',');
+                json.append(random.nextGaussian() * 0.05);
+            }
+            json.append("]}");
+        }
+        json.append("],\"model\":\"text-embedding-3-small\",\"usage\":{\"prompt_tokens\":8,\"total_tokens\":8}}");
+        body = json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void treeModel(Blackhole blackhole) throws Exception {
+        // Как раньше: тело ответа строкой, readTree и обход JsonNode
+        String responseBody = new String(body, StandardCharsets.UTF_8);
+        JsonNode data = objectMapper.readTree(responseBody).get("data");
+        float[][] vectors = new float[data.size()][];
+        for (JsonNode item : data) {
+            JsonNode embeddingNode = item.get("embedding");
+            float[] vector = new float[embeddingNode.size()];
+            for (int i = 0; i < embeddingNode.size(); i++) {
+                vector[i] = embeddingNode.get(i).floatValue();
+            }
+            vectors[item.get("index").asInt()] = vector;
+        }
+        blackhole.consume(vectors);
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws Exception {
+        blackhole.consume(parser.parseOpenAI(body, batchSize));
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.studentbot.benchmark;
+
+import com.example.studentbot.service.PdfTextExtractor;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Масштабирование извлечения текста PDF по числу потоков на книгу.
+ * Одна операция - одна страница, результат в страницах в секунду.
+ *
+ * Запуск: ./gradlew jmh -Pjmh.includes=PdfExtractionBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class PdfExtractionBenchmark {
+
+    private static final int PAGES = 400;
+    private static final int LINES_PER_PAGE = 45;
+
+    @Param({"1", "2", "4", "8"})
+    private int workers;
+
+    private File pdfFile;
+    private PdfTextExtractor extractor;
+
+    @Setup
+    public void setUp() throws Exception {
+        pdfFile = Files.createTempFile("pdf-benchmark-", ".pdf").toFile();
+        Random random = new Random(42);
+
+        try (PDDocument document = new PDDocument()) {
+            for (int p = 0; p < PAGES; p++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.setLeading(14);
+                    content.newLineAtOffset(40, 750);
+                    for (int line = 0; line < LINES_PER_PAGE; line++) {
+                        content.showText(randomLine(random));
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+            }
+            document.save(pdfFile);
+        }
+
+        // workers = 1 - последовательный режим
+        extractor = new PdfTextExtractor(workers > 1, 1, workers, workers, 8);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        extractor.shutdown();
+        Files.deleteIfExists(pdfFile.toPath());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public void extract(Blackhole blackhole) throws Exception {
+        extractor.extract(pdfFile, (text, page) -> blackhole.consume(text));
+    }
+
+    private static String randomLine(Random random) {
+        StringBuilder line = new StringBuilder();
+        while (line.length() < 90) {
+            int length = 2 + random.nextInt(9);
+            for (int i = 0; i < length; i++) {
+                line.append((char) ('a' + random.nextInt(26)));
+            }
+            line.append(random.nextInt(12) == 0 ? ". " : " ");
+        }
+        return line.toString();
+    }
+}
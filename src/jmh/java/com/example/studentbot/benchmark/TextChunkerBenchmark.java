@@ -0,0 +1,180 @@
+package com.example.studentbot.benchmark;
+
+import com.example.studentbot.utils.HeuristicTokenEstimator;
+import com.example.studentbot.utils.TextChunker;
+import com.example.studentbot.utils.TokenEstimator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение разбиения текста на чанки: регулярное выражение с lookbehind по всему тексту,
+ * копии StringBuilder и второй проход по словам (прежний splitTextIntoChunks) против
+ * однопроходного TextChunker со смещениями. TextChunker получает текст страницами,
+ * как при извлечении PDF, и одним куском; chunkerTokens - бюджет в токенах (оценка OpenAI).
+ *
+ * Запуск: ./gradlew jmh -Pjmh.includes=TextChunkerBenchmark -Pjmh.profilers=gc
+ * Профилировщик gc показывает скорость аллокаций (gc.alloc.rate.norm - байт на операцию).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class TextChunkerBenchmark {
+
+    private static final int PAGE_LENGTH = 3000;
+
+    private static final int LEGACY_CHUNK_SIZE = 150;
+    private static final int LEGACY_CHUNK_OVERLAP = 50;
+    private static final int LEGACY_MAX_CHUNK_LENGTH = 600;
+
+    private static final String[] WORDS = {
+            "студент", "лекция", "функция", "интеграл", "матрица", "уравнение", "производная",
+            "теорема", "доказательство", "определение", "пример", "система", "значение", "метод",
+            "алгоритм", "данные", "graph", "vector", "model", "kernel", "и", "в", "на", "по", "для"
+    };
+
+    private static final String[] INSERTS = {
+            "т.е.", "и т.д.", "см. рис. 3", "А. С. Пушкин", "e.g.", "стр. 15", "в 1999 г."
+    };
+
+    @Param({"1", "10", "100"})
+    private int megabytes;
+
+    private final TokenEstimator tokenEstimator = new HeuristicTokenEstimator(4.0, 2.5, 1.5);
+    private String text;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int length = megabytes * 1024 * 1024;
+        StringBuilder builder = new StringBuilder(length + 256);
+        while (builder.length() < length) {
+            int words = 5 + random.nextInt(20);
+            for (int w = 0; w < words; w++) {
+                String word = random.nextInt(12) == 0
+                        ? INSERTS[random.nextInt(INSERTS.length)] : WORDS[random.nextInt(WORDS.length)];
+                if (w == 0) {
+                    builder.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+                } else {
+                    builder.append(' ').append(word);
+                }
+            }
+            switch (random.nextInt(10)) {
+                case 0 -> builder.append('!');
+                case 1 -> builder.append('?');
+                case 2 -> builder.append('…');
+                case 3 -> builder.append("?»");
+                default -> builder.append('.');
+            }
+            builder.append(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        text = builder.toString();
+    }
+
+    @Benchmark
+    public void legacyRegex(Blackhole blackhole) {
+        blackhole.consume(splitTextIntoChunks(text));
+    }
+
+    @Benchmark
+    public void chunkerPaged(Blackhole blackhole) throws Exception {
+        TextChunker chunker = new TextChunker(blackhole::consume);
+        for (int start = 0, page = 1; start < text.length(); start += PAGE_LENGTH, page++) {
+            chunker.append(CharBuffer.wrap(text, start, Math.min(text.length(), start + PAGE_LENGTH)), page);
+        }
+        chunker.finish();
+    }
+
+    @Benchmark
+    public void chunkerWhole(Blackhole blackhole) throws Exception {
+        TextChunker chunker = new TextChunker(blackhole::consume);
+        chunker.append(text, 0);
+        chunker.finish();
+    }
+
+    @Benchmark
+    public void chunkerTokens(Blackhole blackhole) throws Exception {
+        TextChunker chunker = new TextChunker(blackhole::consume, tokenEstimator, 320, 32);
+        for (int start = 0, page = 1; start < text.length(); start += PAGE_LENGTH, page++) {
+            chunker.append(CharBuffer.wrap(text, start, Math.min(text.length(), start + PAGE_LENGTH)), page);
+        }
+        chunker.finish();
+    }
+
+    // Прежняя реализация IndexingService.splitTextIntoChunks без изменений
+
+    private static List<String> splitTextIntoChunks(String text) {
+        List<String> chunks = new ArrayList<>();
+
+        String[] sentences = text.split("(?<=[.!?])\\s+");
+        StringBuilder currentChunk = new StringBuilder();
+        int currentLength = 0;
+
+        for (String sentence : sentences) {
+            if (currentLength + sentence.length() > LEGACY_MAX_CHUNK_LENGTH && currentChunk.length() > 0) {
+                chunks.add(currentChunk.toString().trim());
+
+                String overlap = getLastSentences(currentChunk.toString(), LEGACY_CHUNK_OVERLAP);
+                currentChunk = new StringBuilder(overlap);
+                currentLength = overlap.length();
+            }
+
+            currentChunk.append(sentence).append(" ");
+            currentLength += sentence.length() + 1;
+        }
+
+        if (currentChunk.length() > 0) {
+            chunks.add(currentChunk.toString().trim());
+        }
+
+        if (chunks.size() < 2 && text.length() > LEGACY_MAX_CHUNK_LENGTH) {
+            return splitTextByWords(text);
+        }
+
+        return chunks;
+    }
+
+    private static String getLastSentences(String text, int overlapLength) {
+        if (text.length() <= overlapLength) return text;
+
+        String overlap = text.substring(Math.max(0, text.length() - overlapLength));
+        int lastSentence = Math.max(
+                Math.max(overlap.lastIndexOf('.'), overlap.lastIndexOf('!')),
+                overlap.lastIndexOf('?')
+        );
+
+        if (lastSentence > 0) {
+            return overlap.substring(lastSentence + 1).trim();
+        }
+
+        return overlap;
+    }
+
+    private static List<String> splitTextByWords(String text) {
+        List<String> chunks = new ArrayList<>();
+        String[] words = text.split("\\s+");
+        int start = 0;
+
+        while (start < words.length) {
+            int end = Math.min(start + LEGACY_CHUNK_SIZE, words.length);
+            List<String> chunkWords = new ArrayList<>();
+
+            for (int i = start; i < end; i++) {
+                chunkWords.add(words[i]);
+            }
+
+            chunks.add(String.join(" ", chunkWords));
+            start += (LEGACY_CHUNK_SIZE - LEGACY_CHUNK_OVERLAP);
+        }
+
+        return chunks;
+    }
+}
@@ -2,11 +2,17 @@ package com.example.studentbot.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import java.time.Duration;
 import java.util.concurrent.Executor;
@@ -25,6 +31,47 @@ public class AppConfig {
                 .build();
     }
 
+    /**
+     * Общий пул соединений к провайдерам embedding. Индексация и RAG делят одни
+     * keep-alive соединения, ожидание свободного соединения не занимает потоков
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider embeddingConnectionProvider(
+            @Value("${embedding.http.max-connections:64}") int maxConnections,
+            @Value("${embedding.http.pending-acquire-max-count:1024}") int pendingAcquireMaxCount,
+            @Value("${embedding.http.pending-acquire-timeout-ms:30000}") long pendingAcquireTimeoutMs,
+            @Value("${embedding.http.max-idle-time-ms:30000}") long maxIdleTimeMs,
+            @Value("${embedding.http.max-life-time-ms:300000}") long maxLifeTimeMs) {
+        return ConnectionProvider.builder("embedding")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+                // Провайдеры закрывают простаивающие соединения раньше, чем узнает клиент
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMs))
+                .evictInBackground(Duration.ofSeconds(30))
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public WebClient embeddingWebClient(
+            ConnectionProvider embeddingConnectionProvider,
+            @Value("${embedding.http.connect-timeout-ms:5000}") int connectTimeoutMs,
+            @Value("${embedding.http.response-timeout-ms:60000}") long responseTimeoutMs,
+            @Value("${embedding.http.max-response-size-mb:64}") int maxResponseSizeMb) {
+        HttpClient httpClient = HttpClient.create(embeddingConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(responseTimeoutMs))
+                .compress(true);
+
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                // Пакетный ответ OpenAI на 2048 текстов занимает десятки мегабайт
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(maxResponseSizeMb * 1024 * 1024))
+                .build();
+    }
+
     @Bean
     public ObjectMapper objectMapper() {
         ObjectMapper mapper = new ObjectMapper();
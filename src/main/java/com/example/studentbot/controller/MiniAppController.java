@@ -3,19 +3,24 @@ package com.example.studentbot.controller;
 import com.example.studentbot.dto.MiniAppUserInfoDto;
 import com.example.studentbot.dto.FileUploadResponseDto;
 import com.example.studentbot.dto.UserBooksResponseDto;
+import com.example.studentbot.model.BookMetadata;
 import com.example.studentbot.service.UserService;
 import com.example.studentbot.service.BookService;
+import com.example.studentbot.service.IndexingProgressService;
 import com.example.studentbot.service.TelegramMiniAppAuthService;
 import com.example.studentbot.service.SubscriptionValidationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/api/miniapp")
@@ -24,6 +29,8 @@ public class MiniAppController {
 
     private static final Logger logger = LoggerFactory.getLogger(MiniAppController.class);
 
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
     @Autowired
     private TelegramMiniAppAuthService authService;
 
@@ -36,6 +43,9 @@ public class MiniAppController {
     @Autowired
     private SubscriptionValidationService subscriptionValidationService;
 
+    @Autowired
+    private IndexingProgressService indexingProgressService;
+
     /**
      * Аутентификация пользователя и получение информации
      */
@@ -243,6 +253,116 @@ public class MiniAppController {
         }
     }
 
+    /**
+     * Проверка перед загрузкой: есть ли среди книг пользователя файл с таким SHA-256.
+     * Если есть, книгу можно добавить через /upload/by-hash без передачи файла.
+     * Файлы других пользователей не сообщаются
+     */
+    @GetMapping("/content/{sha256}")
+    public ResponseEntity checkContent(@PathVariable String sha256, @RequestParam Long telegramId) {
+        try {
+            var userOpt = userService.getUserByTelegramId(telegramId);
+            if (userOpt.isEmpty()) {
+                logger.warn("Content check for non-existent user: {}", telegramId);
+                return ResponseEntity.badRequest().build();
+            }
+
+            // ПРОВЕРКА ДОСТУПА: как и для загрузки
+            if (!subscriptionValidationService.hasAccess(userOpt.get())) {
+                logger.warn("Content check by user {} without subscription", telegramId);
+                return ResponseEntity.status(403).build();
+            }
+
+            String contentHash = sha256.toLowerCase(Locale.ROOT);
+            if (!SHA256_HEX.matcher(contentHash).matches()) {
+                return ResponseEntity.badRequest().build();
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("exists", bookService.findOwnContent(contentHash, telegramId).isPresent());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Ошибка проверки содержимого: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    /**
+     * Добавление книги по SHA-256 файла, который пользователь уже загружал. Файл и векторы
+     * общие с первой загрузкой, лимиты книг и размера файла проверяются как при загрузке.
+     * 404 - такого файла среди книг пользователя нет, его нужно загрузить через /upload
+     */
+    @PostMapping("/upload/by-hash")
+    public ResponseEntity uploadByHash(@RequestParam("sha256") String sha256,
+                                       @RequestParam("fileName") String fileName,
+                                       @RequestParam("telegramId") Long telegramId) {
+        try {
+            var userOpt = userService.getUserByTelegramId(telegramId);
+            if (userOpt.isEmpty()) {
+                logger.warn("Upload by hash attempt for non-existent user: {}", telegramId);
+                return ResponseEntity.badRequest().build();
+            }
+
+            var user = userOpt.get();
+
+            // ПРОВЕРКА ДОСТУПА: Проверяем подписку перед загрузкой
+            if (!subscriptionValidationService.hasAccess(user)) {
+                logger.warn("Upload by hash attempt by user {} without subscription", telegramId);
+                var accessStatus = subscriptionValidationService.getAccessStatus(user);
+                Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("error", "SUBSCRIPTION_REQUIRED");
+                errorResponse.put("message", "Необходимо подписаться на канал " + accessStatus.getRequiredChannel());
+                errorResponse.put("channelUrl", accessStatus.getChannelUrl());
+                errorResponse.put("channelName", accessStatus.getRequiredChannel());
+                return ResponseEntity.status(403).body(errorResponse);
+            }
+
+            String contentHash = sha256.toLowerCase(Locale.ROOT);
+            if (!SHA256_HEX.matcher(contentHash).matches() || fileName.isBlank()) {
+                return ResponseEntity.badRequest().build();
+            }
+
+            var contentOpt = bookService.findOwnContent(contentHash, telegramId);
+            if (contentOpt.isEmpty()) {
+                return ResponseEntity.status(404).build();
+            }
+
+            // Проверяем лимиты
+            if (!user.canUploadMoreBooks()) {
+                logger.warn("User {} reached books limit", telegramId);
+                return ResponseEntity.status(409).build();
+            }
+
+            Long fileSize = contentOpt.get().getFileSize();
+            if (!user.canUploadFile(fileSize != null ? fileSize : 0)) {
+                logger.warn("File too large for user {}: {} bytes", telegramId, fileSize);
+                return ResponseEntity.status(413).build();
+            }
+
+            if (bookService.attachDocument(contentHash, fileName, telegramId).isEmpty()) {
+                return ResponseEntity.status(404).build();
+            }
+
+            // Обновляем счетчик
+            user.incrementUploadedBooks();
+            userService.updateUser(user);
+
+            var response = new FileUploadResponseDto(
+                    "File uploaded successfully",
+                    fileName,
+                    user.getUploadedBooksCount(),
+                    user.getMaxBooks()
+            );
+
+            logger.info("Файл {} добавлен пользователю {} по хэшу содержимого", fileName, telegramId);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            logger.error("Ошибка загрузки файла по хэшу: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).build();
+        }
+    }
+
     /**
      * Получение списка книг пользователя
      */
@@ -274,6 +394,31 @@ public class MiniAppController {
         }
     }
 
+    /**
+     * Поток событий прогресса индексации книг пользователя (SSE)
+     */
+    @GetMapping(value = "/books/{telegramId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity streamIndexingProgress(@PathVariable Long telegramId) {
+        try {
+            var userOpt = userService.getUserByTelegramId(telegramId);
+            if (userOpt.isEmpty()) {
+                logger.warn("Progress stream request for non-existent user: {}", telegramId);
+                return ResponseEntity.badRequest().build();
+            }
+
+            // ПРОВЕРКА ДОСТУПА: как и для списка книг
+            if (!subscriptionValidationService.hasAccess(userOpt.get())) {
+                logger.warn("Progress stream request by user {} without subscription", telegramId);
+                return ResponseEntity.status(403).build();
+            }
+
+            return ResponseEntity.ok(indexingProgressService.subscribe(telegramId));
+        } catch (Exception e) {
+            logger.error("Ошибка подписки на прогресс индексации: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).build();
+        }
+    }
+
     /**
      * Удаление книги
      */
@@ -301,7 +446,8 @@ public class MiniAppController {
             }
 
             var bookOpt = bookService.getBookMetadata(bookId);
-            if (bookOpt.isEmpty() || !bookOpt.get().getUploadedBy().equals(telegramId)) {
+            if (bookOpt.isEmpty() || !bookOpt.get().getUploadedBy().equals(telegramId)
+                    || bookOpt.get().getStatus() == BookMetadata.BookStatus.DELETED) {
                 logger.warn("Book {} not found or doesn't belong to user {}", bookId, telegramId);
                 return ResponseEntity.status(404).build();
             }
@@ -321,6 +467,66 @@ public class MiniAppController {
         }
     }
 
+    /**
+     * Замена файла книги новой версией с повторной индексацией
+     */
+    @PutMapping("/books/{bookId}")
+    public ResponseEntity replaceBook(@PathVariable Long bookId,
+                                      @RequestParam("file") MultipartFile file,
+                                      @RequestParam("telegramId") Long telegramId) {
+        try {
+            var userOpt = userService.getUserByTelegramId(telegramId);
+            if (userOpt.isEmpty()) {
+                logger.warn("Replace attempt for non-existent user: {}", telegramId);
+                return ResponseEntity.badRequest().build();
+            }
+
+            var user = userOpt.get();
+
+            // ПРОВЕРКА ДОСТУПА: как и для загрузки
+            if (!subscriptionValidationService.hasAccess(user)) {
+                logger.warn("Replace attempt by user {} without subscription", telegramId);
+                var accessStatus = subscriptionValidationService.getAccessStatus(user);
+                Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("error", "SUBSCRIPTION_REQUIRED");
+                errorResponse.put("message", "Необходимо подписаться на канал " + accessStatus.getRequiredChannel());
+                errorResponse.put("channelUrl", accessStatus.getChannelUrl());
+                errorResponse.put("channelName", accessStatus.getRequiredChannel());
+                return ResponseEntity.status(403).body(errorResponse);
+            }
+
+            var bookOpt = bookService.getBookMetadata(bookId);
+            if (bookOpt.isEmpty() || !bookOpt.get().getUploadedBy().equals(telegramId)
+                    || bookOpt.get().getStatus() == BookMetadata.BookStatus.DELETED) {
+                logger.warn("Book {} not found or doesn't belong to user {}", bookId, telegramId);
+                return ResponseEntity.status(404).build();
+            }
+
+            if (!user.canUploadFile(file.getSize())) {
+                logger.warn("File too large for user {}: {} bytes", telegramId, file.getSize());
+                return ResponseEntity.status(413).build();
+            }
+
+            if (!isValidFileType(file)) {
+                logger.warn("Invalid file type for user {}: {}", telegramId, file.getContentType());
+                return ResponseEntity.status(415).build();
+            }
+
+            try {
+                bookService.replaceDocument(bookOpt.get(), file.getInputStream(), file.getContentType());
+            } catch (IllegalStateException e) {
+                logger.warn("Replace of book {} rejected: {}", bookId, e.getMessage());
+                return ResponseEntity.status(409).build();
+            }
+
+            logger.info("Book {} replaced by user {}", bookId, telegramId);
+            return ResponseEntity.ok().build();
+        } catch (Exception e) {
+            logger.error("Ошибка замены книги: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).build();
+        }
+    }
+
     private boolean isValidFileType(MultipartFile file) {
         String contentType = file.getContentType();
         String filename = file.getOriginalFilename();
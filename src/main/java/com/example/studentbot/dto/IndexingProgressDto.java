@@ -0,0 +1,66 @@
+package com.example.studentbot.dto;
+
+import java.util.Objects;
+
+/**
+ * DTO события прогресса индексации книги для Mini App
+ */
+public class IndexingProgressDto {
+    private Long bookId;
+    private String state;
+    private Integer chunksDone;
+    private Integer chunksTotal;
+
+    public IndexingProgressDto(Long bookId, String state, Integer chunksDone, Integer chunksTotal) {
+        this.bookId = bookId;
+        this.state = state;
+        this.chunksDone = chunksDone;
+        this.chunksTotal = chunksTotal;
+    }
+
+    // Getters and Setters
+    public Long getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(Long bookId) {
+        this.bookId = bookId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public Integer getChunksDone() {
+        return chunksDone;
+    }
+
+    public void setChunksDone(Integer chunksDone) {
+        this.chunksDone = chunksDone;
+    }
+
+    public Integer getChunksTotal() {
+        return chunksTotal;
+    }
+
+    public void setChunksTotal(Integer chunksTotal) {
+        this.chunksTotal = chunksTotal;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IndexingProgressDto that)) return false;
+        return Objects.equals(bookId, that.bookId) && Objects.equals(state, that.state)
+                && Objects.equals(chunksDone, that.chunksDone) && Objects.equals(chunksTotal, that.chunksTotal);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(bookId, state, chunksDone, chunksTotal);
+    }
+}
@@ -8,7 +8,11 @@ import java.time.LocalDateTime;
  * Модель метаданных книги
  */
 @Entity
-@Table(name = "book_metadata")
+@Table(name = "book_metadata",
+       indexes = {
+               @Index(name = "idx_book_metadata_content_hash", columnList = "content_hash"),
+               @Index(name = "idx_book_metadata_content_book", columnList = "content_book_id")
+       })
 public class BookMetadata {
     
     @Id
@@ -50,6 +54,34 @@ public class BookMetadata {
     @Column(columnDefinition = "TEXT")
     private String tags;
     
+    // Контрольная точка индексации: null - книга загружена до появления контрольных точек
+    private Boolean indexingComplete;
+    
+    // Число записанных чанков: чанки 0..indexedChunks-1 уже в Qdrant
+    private Integer indexedChunks;
+    
+    // Страница конца последнего записанного чанка (0 - страницы неизвестны)
+    private Integer indexingCursorPage;
+    
+    // Модель и проекция, в которых записаны векторы
+    private String indexingModel;
+    
+    // Этап индексации для Mini App: null - книга загружена до появления этапов
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private IndexingState indexingState;
+    
+    // Всего чанков в книге (во время извлечения - извлечено на данный момент)
+    private Integer totalChunks;
+    
+    // SHA-256 файла (hex): одинаковый файл разных пользователей хранится и индексируется один раз
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+    
+    // Книга, чьи файл в MinIO и векторы использует эта копия; null - книга хранит свои
+    @Column(name = "content_book_id")
+    private Long contentBookId;
+    
     // Конструкторы
     public BookMetadata() {
         this.uploadDate = LocalDateTime.now();
@@ -170,7 +202,86 @@ public class BookMetadata {
         this.tags = tags;
     }
     
+    public Boolean getIndexingComplete() {
+        return indexingComplete;
+    }
+    
+    public void setIndexingComplete(Boolean indexingComplete) {
+        this.indexingComplete = indexingComplete;
+    }
+    
+    public Integer getIndexedChunks() {
+        return indexedChunks;
+    }
+    
+    public void setIndexedChunks(Integer indexedChunks) {
+        this.indexedChunks = indexedChunks;
+    }
+    
+    public Integer getIndexingCursorPage() {
+        return indexingCursorPage;
+    }
+    
+    public void setIndexingCursorPage(Integer indexingCursorPage) {
+        this.indexingCursorPage = indexingCursorPage;
+    }
+    
+    public String getIndexingModel() {
+        return indexingModel;
+    }
+    
+    public void setIndexingModel(String indexingModel) {
+        this.indexingModel = indexingModel;
+    }
+    
+    public IndexingState getIndexingState() {
+        return indexingState;
+    }
+    
+    public void setIndexingState(IndexingState indexingState) {
+        this.indexingState = indexingState;
+    }
+    
+    public Integer getTotalChunks() {
+        return totalChunks;
+    }
+    
+    public void setTotalChunks(Integer totalChunks) {
+        this.totalChunks = totalChunks;
+    }
+    
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+    
+    public Long getContentBookId() {
+        return contentBookId;
+    }
+    
+    public void setContentBookId(Long contentBookId) {
+        this.contentBookId = contentBookId;
+    }
+    
+    /**
+     * ID книги, под которым записаны векторы: своя или книга с тем же содержимым
+     */
+    public Long getVectorBookId() {
+        return contentBookId != null ? contentBookId : id;
+    }
+    
     public enum BookStatus {
         ACTIVE, ARCHIVED, DELETED
     }
+    
+    /**
+     * Этапы индексации: в очереди, извлечение текста (число чанков еще растет),
+     * векторизация (число чанков известно), книга доступна для поиска, ошибка
+     */
+    public enum IndexingState {
+        QUEUED, EXTRACTING, EMBEDDING, INDEXED, FAILED
+    }
 }
\ No newline at end of file
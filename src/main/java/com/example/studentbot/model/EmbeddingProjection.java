@@ -0,0 +1,39 @@
+package com.example.studentbot.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Обученная проекция понижения размерности векторов коллекции Qdrant. Хранится в базе,
+ * чтобы все экземпляры приложения записывали и искали векторы в одной проекции
+ */
+@Entity
+@Table(name = "embedding_projections")
+public class EmbeddingProjection {
+
+    @Id
+    @Column(name = "collection_name", nullable = false)
+    private String collectionName;
+
+    @Column(name = "projection_id", nullable = false, length = 32)
+    private String projectionId;
+
+    // Сериализованная проекция: модель, размерности, среднее и компоненты
+    @Column(nullable = false)
+    private byte[] data;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    public String getCollectionName() { return collectionName; }
+    public void setCollectionName(String collectionName) { this.collectionName = collectionName; }
+
+    public String getProjectionId() { return projectionId; }
+    public void setProjectionId(String projectionId) { this.projectionId = projectionId; }
+
+    public byte[] getData() { return data; }
+    public void setData(byte[] data) { this.data = data; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
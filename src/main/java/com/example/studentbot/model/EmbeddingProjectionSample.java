@@ -0,0 +1,55 @@
+package com.example.studentbot.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Векторы книги для обучения проекции PCA коллекции, пока их всего меньше целевой
+ * размерности. Хранятся в базе, чтобы выборка не терялась при рестарте и была общей
+ * для всех экземпляров; после обучения проекции удаляются
+ */
+@Entity
+@Table(name = "embedding_projection_samples",
+       uniqueConstraints = @UniqueConstraint(name = "uk_embedding_projection_samples_book",
+               columnNames = {"collection_name", "book_id"}))
+public class EmbeddingProjectionSample {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "collection_name", nullable = false)
+    private String collectionName;
+
+    @Column(name = "book_id", nullable = false)
+    private Long bookId;
+
+    @Column(name = "vector_count", nullable = false)
+    private Integer vectorCount;
+
+    // Сериализованные векторы: число, размерность, компоненты
+    @Column(nullable = false)
+    private byte[] data;
+
+    // Время первой выборки книги - от него отсчитывается ожидание обучения
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getCollectionName() { return collectionName; }
+    public void setCollectionName(String collectionName) { this.collectionName = collectionName; }
+
+    public Long getBookId() { return bookId; }
+    public void setBookId(Long bookId) { this.bookId = bookId; }
+
+    public Integer getVectorCount() { return vectorCount; }
+    public void setVectorCount(Integer vectorCount) { this.vectorCount = vectorCount; }
+
+    public byte[] getData() { return data; }
+    public void setData(byte[] data) { this.data = data; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,94 @@
+package com.example.studentbot.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Задание на индексацию книги в очереди. На книгу одно задание, повторная
+ * постановка в очередь сбрасывает завершенное задание
+ */
+@Entity
+@Table(name = "indexing_jobs",
+       uniqueConstraints = @UniqueConstraint(name = "uk_indexing_jobs_book", columnNames = "book_id"),
+       indexes = @Index(name = "idx_indexing_jobs_claim", columnList = "status, available_at"))
+public class IndexingJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "book_id", nullable = false)
+    private Long bookId;
+
+    @Column(nullable = false)
+    private Long userId;
+
+    // Приоритет тарифа пользователя, с ожиданием задание дополнительно "стареет"
+    @Column(nullable = false)
+    private Integer priority;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    @Column(nullable = false)
+    private Integer attempts;
+
+    // Не раньше этого времени задание можно взять (отложенный повтор)
+    @Column(name = "available_at", nullable = false)
+    private LocalDateTime availableAt;
+
+    // Экземпляр приложения, взявший задание, и срок его аренды
+    private String lockedBy;
+
+    private LocalDateTime lockedUntil;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getBookId() { return bookId; }
+    public void setBookId(Long bookId) { this.bookId = bookId; }
+
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+
+    public Integer getPriority() { return priority; }
+    public void setPriority(Integer priority) { this.priority = priority; }
+
+    public Status getStatus() { return status; }
+    public void setStatus(Status status) { this.status = status; }
+
+    public Integer getAttempts() { return attempts; }
+    public void setAttempts(Integer attempts) { this.attempts = attempts; }
+
+    public LocalDateTime getAvailableAt() { return availableAt; }
+    public void setAvailableAt(LocalDateTime availableAt) { this.availableAt = availableAt; }
+
+    public String getLockedBy() { return lockedBy; }
+    public void setLockedBy(String lockedBy) { this.lockedBy = lockedBy; }
+
+    public LocalDateTime getLockedUntil() { return lockedUntil; }
+    public void setLockedUntil(LocalDateTime lockedUntil) { this.lockedUntil = lockedUntil; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+
+    public enum Status {
+        PENDING, RUNNING, DONE, FAILED
+    }
+}
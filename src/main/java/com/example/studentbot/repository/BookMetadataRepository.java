@@ -2,9 +2,11 @@ package com.example.studentbot.repository;
 
 import com.example.studentbot.model.BookMetadata;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -41,6 +43,27 @@ public interface BookMetadataRepository extends JpaRepository<BookMetadata, Long
      */
     List<BookMetadata> findByUploadedBy(Long userId);
     
+    /**
+     * Найти книги пользователя, кроме удаленных
+     */
+    List<BookMetadata> findByUploadedByAndStatusNot(Long userId, BookMetadata.BookStatus status);
+    
+    /**
+     * Найти книгу, хранящую файл и векторы с данным содержимым
+     */
+    Optional<BookMetadata> findFirstByContentHashAndContentBookIdIsNullOrderByIdAsc(String contentHash);
+    
+    /**
+     * Есть ли у пользователя книга с данным содержимым, кроме удаленных
+     */
+    boolean existsByUploadedByAndContentHashAndStatusNot(Long userId, String contentHash,
+                                                         BookMetadata.BookStatus status);
+    
+    /**
+     * Есть ли копии, использующие файл и векторы книги
+     */
+    boolean existsByContentBookId(Long contentBookId);
+    
     /**
      * Найти книги по типу файла
      */
@@ -84,4 +107,46 @@ public interface BookMetadataRepository extends JpaRepository<BookMetadata, Long
      */
     @Query("SELECT b FROM BookMetadata b WHERE b.fileSize IS NOT NULL ORDER BY b.fileSize DESC")
     List<BookMetadata> findLargestFiles();
+    
+    /**
+     * Найти книги с незавершенной индексацией, хранящие свои векторы
+     */
+    List<BookMetadata> findByIndexingCompleteFalseAndStatusAndContentBookIdIsNull(BookMetadata.BookStatus status);
+    
+    /**
+     * Сохранить контрольную точку индексации. Отдельный запрос, чтобы не перезаписывать
+     * остальные поля книги, которые могли измениться параллельно. Копии книги получают
+     * ту же точку для отображения прогресса, сами они не индексируются
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE BookMetadata b SET b.indexedChunks = :chunks, b.indexingCursorPage = :page, " +
+           "b.indexingModel = :model WHERE b.id = :id OR b.contentBookId = :id")
+    int saveIndexingCheckpoint(@Param("id") Long id, @Param("chunks") int chunks,
+                               @Param("page") int page, @Param("model") String model);
+    
+    /**
+     * Отметить индексацию книги завершенной или требующей повтора.
+     * Состояние индексации здесь и ниже переносится и на копии книги
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE BookMetadata b SET b.indexingComplete = :complete WHERE b.id = :id OR b.contentBookId = :id")
+    int setIndexingComplete(@Param("id") Long id, @Param("complete") boolean complete);
+    
+    /**
+     * Сохранить этап индексации
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE BookMetadata b SET b.indexingState = :state WHERE b.id = :id OR b.contentBookId = :id")
+    int updateIndexingState(@Param("id") Long id, @Param("state") BookMetadata.IndexingState state);
+    
+    /**
+     * Сохранить общее число чанков книги
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE BookMetadata b SET b.totalChunks = :total WHERE b.id = :id OR b.contentBookId = :id")
+    int updateTotalChunks(@Param("id") Long id, @Param("total") int total);
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.example.studentbot.repository;
+
+import com.example.studentbot.model.EmbeddingProjection;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Репозиторий проекций понижения размерности
+ */
+@Repository
+public interface EmbeddingProjectionRepository extends JpaRepository<EmbeddingProjection, String> {
+
+    /**
+     * Сохранить проекцию коллекции, если ее еще нет. 0 - проекцию уже сохранил
+     * другой экземпляр, использовать нужно ее
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO embedding_projections (collection_name, projection_id, data, created_at) " +
+            "VALUES (:collection, :projectionId, :data, now()) ON CONFLICT (collection_name) DO NOTHING",
+            nativeQuery = true)
+    int insertIfAbsent(@Param("collection") String collection, @Param("projectionId") String projectionId,
+                       @Param("data") byte[] data);
+}
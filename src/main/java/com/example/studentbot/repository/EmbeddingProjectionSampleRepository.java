@@ -0,0 +1,50 @@
+package com.example.studentbot.repository;
+
+import com.example.studentbot.model.EmbeddingProjectionSample;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Репозиторий выборки векторов для обучения проекции PCA
+ */
+@Repository
+public interface EmbeddingProjectionSampleRepository extends JpaRepository<EmbeddingProjectionSample, Long> {
+
+    /**
+     * Сохранить векторы книги. Повторная попытка индексации заменяет векторы книги,
+     * а не добавляет их второй раз; время первой выборки сохраняется
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO embedding_projection_samples (collection_name, book_id, vector_count, data, " +
+            "created_at) VALUES (:collection, :bookId, :vectorCount, :data, now()) " +
+            "ON CONFLICT (collection_name, book_id) DO UPDATE SET vector_count = EXCLUDED.vector_count, " +
+            "data = EXCLUDED.data",
+            nativeQuery = true)
+    int upsert(@Param("collection") String collection, @Param("bookId") Long bookId,
+               @Param("vectorCount") int vectorCount, @Param("data") byte[] data);
+
+    /**
+     * Выборка коллекции, первыми - самые давние книги
+     */
+    List<EmbeddingProjectionSample> findByCollectionNameOrderByCreatedAtAsc(String collectionName);
+
+    /**
+     * Сколько секунд прошло с первой выборки коллекции по часам базы, null - выборки нет
+     */
+    @Query(value = "SELECT EXTRACT(EPOCH FROM (now() - min(created_at))) FROM embedding_projection_samples " +
+            "WHERE collection_name = :collection",
+            nativeQuery = true)
+    Double secondsSinceFirstSample(@Param("collection") String collection);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM EmbeddingProjectionSample s WHERE s.collectionName = :collection")
+    int deleteByCollection(@Param("collection") String collection);
+}
@@ -0,0 +1,129 @@
+package com.example.studentbot.repository;
+
+import com.example.studentbot.model.IndexingJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+/**
+ * Репозиторий очереди заданий индексации. Все отметки времени берутся из часов
+ * базы данных, чтобы аренды сравнивались одинаково на всех экземплярах приложения
+ */
+@Repository
+public interface IndexingJobRepository extends JpaRepository<IndexingJob, Long> {
+
+    /**
+     * Постановка книги в очередь. Активное задание не трогается, завершенное сбрасывается
+     */
+    @Modifying
+    @Query(value = "INSERT INTO indexing_jobs (book_id, user_id, priority, status, attempts, available_at, " +
+            "created_at, updated_at) VALUES (:bookId, :userId, :priority, 'PENDING', 0, now(), now(), now()) " +
+            "ON CONFLICT (book_id) DO UPDATE SET status = 'PENDING', attempts = 0, " +
+            "priority = EXCLUDED.priority, available_at = now(), created_at = now(), updated_at = now(), " +
+            "last_error = NULL WHERE indexing_jobs.status IN ('DONE', 'FAILED')",
+            nativeQuery = true)
+    int enqueue(@Param("bookId") Long bookId, @Param("userId") Long userId, @Param("priority") int priority);
+
+    /**
+     * Постановка в очередь только если у книги еще нет задания
+     */
+    @Modifying
+    @Query(value = "INSERT INTO indexing_jobs (book_id, user_id, priority, status, attempts, available_at, " +
+            "created_at, updated_at) VALUES (:bookId, :userId, :priority, 'PENDING', 0, now(), now(), now()) " +
+            "ON CONFLICT (book_id) DO NOTHING",
+            nativeQuery = true)
+    int enqueueIfAbsent(@Param("bookId") Long bookId, @Param("userId") Long userId, @Param("priority") int priority);
+
+    /**
+     * Следующее задание: ожидающее или с истекшей арендой (экземпляр упал), у пользователя
+     * которого выполняется меньше perUserLimit заданий. Порядок - приоритет тарифа плюс
+     * один пункт за каждые agingSeconds ожидания. SKIP LOCKED пропускает строки, которые
+     * прямо сейчас забирают другие экземпляры
+     */
+    @Query(value = "SELECT j.* FROM indexing_jobs j " +
+            "WHERE ((j.status = 'PENDING' AND j.available_at <= now()) " +
+            "OR (j.status = 'RUNNING' AND j.locked_until < now())) " +
+            "AND (SELECT count(*) FROM indexing_jobs r WHERE r.user_id = j.user_id " +
+            "AND r.status = 'RUNNING' AND r.locked_until >= now()) < :perUserLimit " +
+            "ORDER BY j.priority + EXTRACT(EPOCH FROM (now() - j.created_at)) / :agingSeconds DESC, j.id " +
+            "LIMIT 1 FOR UPDATE OF j SKIP LOCKED",
+            nativeQuery = true)
+    Optional<IndexingJob> findNextForUpdate(@Param("perUserLimit") int perUserLimit,
+                                            @Param("agingSeconds") double agingSeconds);
+
+    /**
+     * Блокировка выбора заданий пользователя до конца транзакции. SKIP LOCKED не защищает
+     * подсчет выполняющихся заданий: два экземпляра могут одновременно увидеть, что лимит
+     * не исчерпан, и взять два разных задания одного пользователя
+     */
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(:userId)) AS user_lock", nativeQuery = true)
+    Integer lockUser(@Param("userId") Long userId);
+
+    /**
+     * Число заданий пользователя, выполняющихся под действующей арендой
+     */
+    @Query(value = "SELECT count(*) FROM indexing_jobs WHERE user_id = :userId " +
+            "AND status = 'RUNNING' AND locked_until >= now()",
+            nativeQuery = true)
+    long countLeasedByUser(@Param("userId") Long userId);
+
+    /**
+     * Аренда задания экземпляром worker на leaseSeconds. Контекст очищается, чтобы
+     * выбранная сущность не перезаписала аренду при сбросе изменений
+     */
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE indexing_jobs SET status = 'RUNNING', locked_by = :worker, " +
+            "locked_until = now() + :leaseSeconds * interval '1 second', attempts = attempts + 1, " +
+            "updated_at = now() WHERE id = :id",
+            nativeQuery = true)
+    int lease(@Param("id") Long id, @Param("worker") String worker, @Param("leaseSeconds") long leaseSeconds);
+
+    /**
+     * Продление аренды. 0 - аренда потеряна (истекла и задание забрал другой экземпляр)
+     */
+    @Modifying
+    @Query(value = "UPDATE indexing_jobs SET locked_until = now() + :leaseSeconds * interval '1 second', " +
+            "updated_at = now() WHERE id = :id AND locked_by = :worker AND status = 'RUNNING'",
+            nativeQuery = true)
+    int extendLease(@Param("id") Long id, @Param("worker") String worker, @Param("leaseSeconds") long leaseSeconds);
+
+    @Modifying
+    @Query(value = "UPDATE indexing_jobs SET status = 'DONE', locked_by = NULL, locked_until = NULL, " +
+            "last_error = NULL, updated_at = now() WHERE id = :id AND locked_by = :worker",
+            nativeQuery = true)
+    int complete(@Param("id") Long id, @Param("worker") String worker);
+
+    /**
+     * Неудачная попытка: повтор через delaySeconds или окончательная ошибка после maxAttempts
+     */
+    @Modifying
+    @Query(value = "UPDATE indexing_jobs SET status = CASE WHEN attempts >= :maxAttempts " +
+            "THEN 'FAILED' ELSE 'PENDING' END, " +
+            "available_at = now() + :delaySeconds * interval '1 second', " +
+            "locked_by = NULL, locked_until = NULL, last_error = :error, updated_at = now() " +
+            "WHERE id = :id AND locked_by = :worker",
+            nativeQuery = true)
+    int fail(@Param("id") Long id, @Param("worker") String worker, @Param("maxAttempts") int maxAttempts,
+             @Param("delaySeconds") long delaySeconds, @Param("error") String error);
+
+    /**
+     * Отложить задание на delaySeconds, не расходуя попытку
+     */
+    @Modifying
+    @Query(value = "UPDATE indexing_jobs SET status = 'PENDING', attempts = GREATEST(attempts - 1, 0), " +
+            "available_at = now() + :delaySeconds * interval '1 second', " +
+            "locked_by = NULL, locked_until = NULL, last_error = :reason, updated_at = now() " +
+            "WHERE id = :id AND locked_by = :worker",
+            nativeQuery = true)
+    int defer(@Param("id") Long id, @Param("worker") String worker, @Param("delaySeconds") long delaySeconds,
+              @Param("reason") String reason);
+
+    /**
+     * Число заданий в статусе
+     */
+    long countByStatus(IndexingJob.Status status);
+}
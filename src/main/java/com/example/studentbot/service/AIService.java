@@ -5,7 +5,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.*;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.core.io.Resource;
@@ -17,6 +20,12 @@ import java.util.*;
 public class AIService {
     private static final Logger logger = LoggerFactory.getLogger(AIService.class);
 
+    // Внутренний запрос для сбора краткого содержания книги
+    private static final String SUMMARY_QUERY = "основные темы ключевые идеи выводы содержание";
+
+    // Постоянные запросы, векторы которых прогреваются при старте
+    private static final List<String> WARMUP_QUERIES = List.of(SUMMARY_QUERY);
+
     // OpenRouter настройки (только для языковых моделей)
     @Value("${openrouter.enabled:true}")
     private boolean openRouterEnabled;
@@ -48,15 +57,33 @@ public class AIService {
     private final UserService userService;
     private final VectorSearchService vectorSearchService;
     private final EmbeddingService embeddingService;
+    private final EmbeddingReducer embeddingReducer;
 
     public AIService(RestTemplate restTemplate, ObjectMapper objectMapper,
                      UserService userService, VectorSearchService vectorSearchService,
-                     EmbeddingService embeddingService) {
+                     EmbeddingService embeddingService, EmbeddingReducer embeddingReducer) {
         this.restTemplate = restTemplate;
         this.objectMapper = objectMapper;
         this.userService = userService;
         this.vectorSearchService = vectorSearchService;
         this.embeddingService = embeddingService;
+        this.embeddingReducer = embeddingReducer;
+    }
+
+    /**
+     * Прогрев кэша векторов постоянных внутренних запросов после старта приложения
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpQueryEmbeddings() {
+        for (String query : WARMUP_QUERIES) {
+            try {
+                embeddingService.getQueryEmbedding(query);
+            } catch (Exception e) {
+                logger.warn("Не удалось прогреть вектор запроса '{}': {}", query, e.getMessage());
+            }
+        }
+        logger.info("Прогрет кэш векторов для {} постоянных запросов", WARMUP_QUERIES.size());
     }
 
     /**
@@ -72,8 +99,10 @@ public class AIService {
                     message.length() > 50 ? message.substring(0, 50) + "..." : message);
 
             // Получаем embedding через новый EmbeddingService
-            float[] queryVector = embeddingService.getEmbedding(message);
-            List<String> relevantChunks = vectorSearchService.findRelevantChunks(userId, queryVector);
+            float[] queryVector = getQueryVector(message);
+            List<String> relevantChunks = queryVector != null
+                    ? vectorSearchService.findRelevantChunks(userId, queryVector)
+                    : Collections.emptyList();
 
             if (relevantChunks.isEmpty()) {
                 logger.warn("Не найдено релевантных фрагментов для пользователя {}. Используем общие знания.", userId);
@@ -110,8 +139,10 @@ public class AIService {
             logger.info("Обработка вопроса по книге {} от пользователя {}", bookId, userId);
 
             // Сначала пробуем найти ответ в векторной базе
-            float[] queryVector = embeddingService.getEmbedding(question);
-            List<String> relevantChunks = vectorSearchService.findRelevantChunksInBook(userId, bookId, queryVector);
+            float[] queryVector = getQueryVector(question);
+            List<String> relevantChunks = queryVector != null
+                    ? vectorSearchService.findRelevantChunksInBook(userId, bookId, queryVector)
+                    : Collections.emptyList();
 
             if (!relevantChunks.isEmpty()) {
                 String context = optimizeContext(relevantChunks);
@@ -144,9 +175,10 @@ public class AIService {
 
         try {
             // Пробуем собрать краткое содержание из векторных данных
-            String summaryQuery = "основные темы ключевые идеи выводы содержание";
-            float[] queryVector = embeddingService.getEmbedding(summaryQuery);
-            List<String> relevantChunks = vectorSearchService.findRelevantChunksInBook(userId, bookId, queryVector);
+            float[] queryVector = getQueryVector(SUMMARY_QUERY);
+            List<String> relevantChunks = queryVector != null
+                    ? vectorSearchService.findRelevantChunksInBook(userId, bookId, queryVector)
+                    : Collections.emptyList();
 
             if (!relevantChunks.isEmpty()) {
                 String context = optimizeContext(relevantChunks);
@@ -167,6 +199,18 @@ public class AIService {
         }
     }
 
+    /**
+     * Вектор запроса в пространстве коллекции: та же проекция, что и у векторов документов.
+     * null - проекция PCA еще не обучена и искать не по чему, запрос не векторизуется
+     */
+    private float[] getQueryVector(String query) throws Exception {
+        if (!embeddingReducer.isQueryReady()) {
+            logger.debug("Проекция PCA еще не обучена, ответ без поиска по материалам");
+            return null;
+        }
+        return embeddingReducer.reduceQuery(embeddingService.getQueryEmbedding(query));
+    }
+
     /**
      * Отправка запроса к OpenRouter API
      */
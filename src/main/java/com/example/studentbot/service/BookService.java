@@ -3,14 +3,22 @@ package com.example.studentbot.service;
 import com.example.studentbot.model.BookMetadata;
 import com.example.studentbot.repository.BookMetadataRepository;
 import io.minio.*;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import javax.annotation.PostConstruct;
 import java.io.*;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,15 +29,27 @@ public class BookService {
 
     private final BookMetadataRepository bookMetadataRepository;
     private final MinioClient minioClient;
-    private final IndexingService indexingService;
+    private final IndexingJobQueue indexingJobQueue;
 
     @Value("${minio.buckets.books:books}")
     private String booksBucket;
 
-    public BookService(BookMetadataRepository bookMetadataRepository, MinioClient minioClient, IndexingService indexingService) {
+    // Загрузки больше порога буферизуются во временном файле
+    @Value("${file.upload.memory-threshold-mb:8}")
+    private long uploadMemoryThresholdMb;
+
+    @Value("${file.upload.temp-dir:}")
+    private String uploadTempDir;
+
+    // Продолжать после рестарта индексацию книг, прерванную остановкой приложения
+    @Value("${indexing.resume.enabled:true}")
+    private boolean resumeIndexing;
+
+    public BookService(BookMetadataRepository bookMetadataRepository, MinioClient minioClient,
+                       IndexingJobQueue indexingJobQueue) {
         this.bookMetadataRepository = bookMetadataRepository;
         this.minioClient = minioClient;
-        this.indexingService = indexingService;
+        this.indexingJobQueue = indexingJobQueue;
     }
 
     @PostConstruct
@@ -53,37 +73,61 @@ public class BookService {
         }
     }
 
+    /**
+     * Постановка в очередь книг с незавершенной индексацией, для которых еще нет задания
+     * (например, прерванных до появления очереди). Задания в очереди сами переживают рестарт
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeIncompleteIndexing() {
+        if (!resumeIndexing) {
+            return;
+        }
+        try {
+            int enqueued = 0;
+            for (BookMetadata book : bookMetadataRepository.findByIndexingCompleteFalseAndStatusAndContentBookIdIsNull(
+                    BookMetadata.BookStatus.ACTIVE)) {
+                if (indexingJobQueue.enqueueIfAbsent(book)) {
+                    enqueued++;
+                }
+            }
+            if (enqueued > 0) {
+                logger.info("В очередь индексации поставлено {} книг с незавершенной индексацией", enqueued);
+            }
+        } catch (Exception e) {
+            logger.error("Не удалось проверить незавершенную индексацию: {}", e.getMessage(), e);
+        }
+    }
+
     /**
      * Получить список книг пользователя
      */
     public List<BookMetadata> getUserBooks(Long userId) {
-        return bookMetadataRepository.findByUploadedBy(userId);
+        return bookMetadataRepository.findByUploadedByAndStatusNot(userId, BookMetadata.BookStatus.DELETED);
     }
 
     /**
-     * Загрузить новый документ пользователя в MinIO
+     * Загрузить новый документ пользователя в MinIO. Если такой же файл (по SHA-256)
+     * уже загружен, пользователь получает копию книги с общим файлом и векторами
      */
     public BookMetadata uploadDocument(String fileId, String fileName, Long userId,
                                        InputStream fileStream, long fileSize, String contentType) {
+        DeferredFileOutputStream upload = null;
         try {
             // Генерируем уникальное имя файла для избежания конфликтов
             String uniqueFileName = generateUniqueFileName(fileName, userId);
 
-            // Создаем копии потока, т.к. его можно прочитать только один раз
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            fileStream.transferTo(baos);
-            InputStream firstStream = new ByteArrayInputStream(baos.toByteArray());
-            InputStream secondStream = new ByteArrayInputStream(baos.toByteArray());
+            MessageDigest digest = sha256();
+            upload = spoolUpload(new DigestInputStream(fileStream, digest));
+            long size = upload.getByteCount();
+            String contentHash = HexFormat.of().formatHex(digest.digest());
+
+            Optional<BookMetadata> content = findContent(contentHash);
+            if (content.isPresent()) {
+                return createCopy(content.get(), fileName, userId);
+            }
 
             // Сохраняем в MinIO
-            minioClient.putObject(
-                    PutObjectArgs.builder()
-                            .bucket(booksBucket)
-                            .object(uniqueFileName)
-                            .stream(firstStream, baos.size(), -1)
-                            .contentType(contentType)
-                            .build()
-            );
+            putObject(uniqueFileName, upload, contentType);
 
             // Добавляем запись о файле в базу
             BookMetadata book = new BookMetadata();
@@ -91,23 +135,219 @@ public class BookService {
             book.setFileName(uniqueFileName);
             book.setMinioPath(booksBucket + "/" + uniqueFileName);
             book.setFileType(contentType);
-            book.setFileSize((long) baos.size());
+            book.setFileSize(size);
             book.setUploadedBy(userId);
+            book.setContentHash(contentHash);
+            book.setIndexingComplete(false);
+            book.setIndexingState(BookMetadata.IndexingState.QUEUED);
 
             BookMetadata savedBook = bookMetadataRepository.save(book);
             logger.info("Документ {} успешно загружен пользователем {}", fileName, userId);
 
-            // Асинхронно запускаем индексацию
-            indexingService.processAndIndexBook(savedBook, secondStream);
+            // Индексацию выполнит очередь заданий, файл она прочитает из MinIO
+            indexingJobQueue.enqueue(savedBook);
 
             return savedBook;
 
         } catch (Exception e) {
             logger.error("Ошибка загрузки документа {}: {}", fileName, e.getMessage(), e);
             throw new RuntimeException("Не удалось загрузить файл", e);
+        } finally {
+            deleteSpooledUpload(upload);
+        }
+    }
+
+    /**
+     * Добавить пользователю еще одну книгу по SHA-256 файла, который он уже загружал,
+     * без передачи файла. Пусто, если такого файла среди книг пользователя нет
+     */
+    public Optional<BookMetadata> attachDocument(String contentHash, String fileName, Long userId) {
+        Optional<BookMetadata> content = findOwnContent(contentHash, userId);
+        if (content.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(createCopy(content.get(), fileName, userId));
+    }
+
+    /**
+     * Книга, хранящая файл и векторы с данным содержимым
+     */
+    public Optional<BookMetadata> findContent(String contentHash) {
+        return bookMetadataRepository.findFirstByContentHashAndContentBookIdIsNullOrderByIdAsc(contentHash);
+    }
+
+    /**
+     * Книга с данным содержимым, если пользователь сам загружал такой файл. Знание хэша
+     * не дает доступа к чужим файлам: загрузки других пользователей совпадают с общим
+     * файлом только после полной передачи (uploadDocument)
+     */
+    public Optional<BookMetadata> findOwnContent(String contentHash, Long userId) {
+        if (!bookMetadataRepository.existsByUploadedByAndContentHashAndStatusNot(
+                userId, contentHash, BookMetadata.BookStatus.DELETED)) {
+            return Optional.empty();
+        }
+        return findContent(contentHash);
+    }
+
+    /**
+     * Копия книги для другого пользователя (или повторной загрузки того же файла).
+     * Файл не сохраняется и не индексируется повторно: копия читает файл книги content,
+     * поиск идет по ее векторам, а состояние индексации переносится на копию запросами
+     * репозитория. Лимиты книг по-прежнему считаются у каждого пользователя
+     */
+    private BookMetadata createCopy(BookMetadata content, String fileName, Long userId) {
+        BookMetadata book = new BookMetadata();
+        book.setTitle(extractTitleFromFileName(fileName));
+        // Собственное имя нужно только для уникальности, объекта с ним в MinIO нет
+        book.setFileName(generateUniqueFileName(fileName, userId));
+        book.setMinioPath(content.getMinioPath());
+        book.setFileType(content.getFileType());
+        book.setFileSize(content.getFileSize());
+        book.setUploadedBy(userId);
+        book.setContentHash(content.getContentHash());
+        book.setContentBookId(content.getId());
+        book.setIndexingComplete(content.getIndexingComplete());
+        book.setIndexingState(content.getIndexingState());
+        book.setIndexedChunks(content.getIndexedChunks());
+        book.setIndexingModel(content.getIndexingModel());
+        book.setTotalChunks(content.getTotalChunks());
+
+        BookMetadata savedBook = bookMetadataRepository.save(book);
+        logger.info("Документ {} пользователя {} совпадает с книгой ID: {}, файл и векторы общие",
+                fileName, userId, content.getId());
+
+        // Индексация книги content могла не завершиться: задание отклонено или владелец удалил
+        // книгу до конца индексации. Активное задание очередь не трогает, завершенное запускает заново
+        if (content.getIndexingState() != BookMetadata.IndexingState.INDEXED) {
+            indexingJobQueue.enqueue(content);
+        }
+        return savedBook;
+    }
+
+    /**
+     * Заменить файл книги новой версией. Книга индексируется заново под тем же ID:
+     * точки чанков перезаписываются на месте, а лишние (если новая версия короче)
+     * удаляются в конце индексации. Пока прежняя версия индексируется, замена невозможна.
+     * Копия получает собственный файл и векторы; файл, который используют копии других
+     * пользователей, заменить нельзя
+     */
+    public BookMetadata replaceDocument(BookMetadata book, InputStream fileStream, String contentType) {
+        BookMetadata.IndexingState state = book.getIndexingState();
+        if (state == BookMetadata.IndexingState.QUEUED || state == BookMetadata.IndexingState.EXTRACTING
+                || state == BookMetadata.IndexingState.EMBEDDING) {
+            throw new IllegalStateException("Книга " + book.getId() + " еще индексируется");
+        }
+        if (book.getContentBookId() == null && bookMetadataRepository.existsByContentBookId(book.getId())) {
+            throw new IllegalStateException("Файл книги " + book.getId() + " используют другие пользователи");
+        }
+
+        DeferredFileOutputStream upload = null;
+        try {
+            MessageDigest digest = sha256();
+            upload = spoolUpload(new DigestInputStream(fileStream, digest));
+            putObject(book.getFileName(), upload, contentType);
+
+            // Контрольная точка сбрасывается - старые чанки не должны считаться записанными
+            book.setFileType(contentType);
+            book.setFileSize(upload.getByteCount());
+            book.setContentHash(HexFormat.of().formatHex(digest.digest()));
+            book.setContentBookId(null);
+            book.setIndexedChunks(0);
+            book.setIndexingCursorPage(null);
+            book.setIndexingComplete(false);
+            book.setIndexingState(BookMetadata.IndexingState.QUEUED);
+
+            BookMetadata savedBook = bookMetadataRepository.save(book);
+            logger.info("Файл книги ID: {} заменен, книга будет проиндексирована заново", book.getId());
+
+            indexingJobQueue.enqueue(savedBook);
+            return savedBook;
+
+        } catch (Exception e) {
+            logger.error("Ошибка замены файла книги ID: {}: {}", book.getId(), e.getMessage(), e);
+            throw new RuntimeException("Не удалось заменить файл", e);
+        } finally {
+            deleteSpooledUpload(upload);
+        }
+    }
+
+    /**
+     * Поток читается один раз: маленькие файлы буферизуются в памяти,
+     * большие сбрасываются во временный файл, а не держатся в куче целиком
+     */
+    private DeferredFileOutputStream spoolUpload(InputStream fileStream) throws IOException {
+        DeferredFileOutputStream upload = DeferredFileOutputStream.builder()
+                .setThreshold((int) Math.min(Integer.MAX_VALUE, uploadMemoryThresholdMb * 1024L * 1024L))
+                .setPrefix("upload-")
+                .setSuffix(".tmp")
+                .setDirectory(uploadTempDir.isBlank() ? null : new File(uploadTempDir))
+                .get();
+        try {
+            fileStream.transferTo(upload);
+        } finally {
+            upload.close();
+        }
+        return upload;
+    }
+
+    private void putObject(String objectName, DeferredFileOutputStream upload, String contentType) throws Exception {
+        try (InputStream stream = upload.isInMemory()
+                ? new ByteArrayInputStream(upload.getData()) : Files.newInputStream(upload.getPath())) {
+            minioClient.putObject(
+                    PutObjectArgs.builder()
+                            .bucket(booksBucket)
+                            .object(objectName)
+                            .stream(stream, upload.getByteCount(), -1)
+                            .contentType(contentType)
+                            .build()
+            );
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private static void deleteSpooledUpload(DeferredFileOutputStream upload) {
+        if (upload == null || upload.isInMemory()) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(upload.getPath());
+        } catch (IOException e) {
+            logger.warn("Не удалось удалить временный файл {}: {}", upload.getPath(), e.getMessage());
         }
     }
 
+    /**
+     * Открыть файл книги в MinIO для чтения
+     */
+    public InputStream openBookStream(BookMetadata book) throws Exception {
+        return minioClient.getObject(
+                GetObjectArgs.builder()
+                        .bucket(booksBucket)
+                        .object(objectName(book))
+                        .build()
+        );
+    }
+
+    /**
+     * Имя объекта в MinIO: у копии - имя файла книги с тем же содержимым
+     */
+    private String objectName(BookMetadata book) {
+        if (book.getContentBookId() == null) {
+            return book.getFileName();
+        }
+        return bookMetadataRepository.findById(book.getContentBookId())
+                .map(BookMetadata::getFileName)
+                .orElseThrow(() -> new IllegalStateException("Книга ID: " + book.getContentBookId()
+                        + " с файлом копии ID: " + book.getId() + " не найдена"));
+    }
+
     /**
      * Получить файл книги как Resource для отправки в AI API
      */
@@ -119,12 +359,7 @@ public class BookService {
 
         BookMetadata book = metadataOpt.get();
         try {
-            InputStream inputStream = minioClient.getObject(
-                    GetObjectArgs.builder()
-                            .bucket(booksBucket)
-                            .object(book.getFileName())
-                            .build()
-            );
+            InputStream inputStream = openBookStream(book);
 
             // Обновляем время последнего доступа
             book.setLastAccessDate(java.time.LocalDateTime.now());
@@ -155,24 +390,34 @@ public class BookService {
     }
 
     /**
-     * Удалить книгу
+     * Удалить книгу. Книга, файл и векторы которой используют копии, только помечается
+     * удаленной и исчезает у владельца; она удаляется вместе с последней копией
      */
     public void deleteBook(Long bookId) {
         Optional<BookMetadata> bookOpt = bookMetadataRepository.findById(bookId);
         if (bookOpt.isPresent()) {
             BookMetadata book = bookOpt.get();
             try {
-                // Удаляем файл из MinIO
-                minioClient.removeObject(
-                        RemoveObjectArgs.builder()
-                                .bucket(booksBucket)
-                                .object(book.getFileName())
-                                .build()
-                );
-
-                // Удаляем запись из базы данных
-                bookMetadataRepository.delete(book);
-                logger.info("Книга {} успешно удалена", book.getTitle());
+                if (book.getContentBookId() != null) {
+                    bookMetadataRepository.delete(book);
+                    logger.info("Копия книги {} успешно удалена", book.getTitle());
+
+                    Optional<BookMetadata> content = bookMetadataRepository.findById(book.getContentBookId());
+                    if (content.isPresent() && content.get().getStatus() == BookMetadata.BookStatus.DELETED
+                            && !bookMetadataRepository.existsByContentBookId(content.get().getId())) {
+                        removeBook(content.get());
+                    }
+                    return;
+                }
+
+                if (bookMetadataRepository.existsByContentBookId(book.getId())) {
+                    book.setStatus(BookMetadata.BookStatus.DELETED);
+                    bookMetadataRepository.save(book);
+                    logger.info("Книга {} удалена у владельца, файл остается для копий", book.getTitle());
+                    return;
+                }
+
+                removeBook(book);
 
             } catch (Exception e) {
                 logger.error("Ошибка удаления книги {}: {}", book.getTitle(), e.getMessage(), e);
@@ -181,11 +426,25 @@ public class BookService {
         }
     }
 
+    private void removeBook(BookMetadata book) throws Exception {
+        // Удаляем файл из MinIO
+        minioClient.removeObject(
+                RemoveObjectArgs.builder()
+                        .bucket(booksBucket)
+                        .object(book.getFileName())
+                        .build()
+        );
+
+        // Удаляем запись из базы данных
+        bookMetadataRepository.delete(book);
+        logger.info("Книга {} успешно удалена", book.getTitle());
+    }
+
     /**
      * Поиск книг пользователя по ключевым словам
      */
     public List<BookMetadata> searchUserBooks(Long userId, String keyword) {
-        return bookMetadataRepository.findByUploadedBy(userId).stream()
+        return getUserBooks(userId).stream()
                 .filter(book -> book.getTitle().toLowerCase().contains(keyword.toLowerCase()) ||
                         (book.getDescription() != null &&
                                 book.getDescription().toLowerCase().contains(keyword.toLowerCase())))
@@ -0,0 +1,131 @@
+package com.example.studentbot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Потоковое извлечение текста из DOCX.
+ *
+ * Пакет OOXML читается как zip-поток, разбирается только основная часть
+ * word/document.xml - StAX-парсером, без построения XWPFDocument. Остальные части
+ * (картинки, стили, шрифты) пропускаются без буферизации. Текст передается получателю
+ * по абзацам, в памяти держится только текущий абзац. Колонтитулы и сноски, в отличие
+ * от XWPFWordExtractor, не извлекаются - для поиска по книге они не нужны.
+ */
+@Component
+public class DocxTextExtractor {
+    private static final Logger logger = LoggerFactory.getLogger(DocxTextExtractor.class);
+
+    private static final String MAIN_PART = "word/document.xml";
+    private static final String WORD_NAMESPACE = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    private final XMLInputFactory xmlInputFactory;
+
+    public DocxTextExtractor() {
+        xmlInputFactory = XMLInputFactory.newFactory();
+        // Внешние сущности и DTD в документах пользователей запрещены
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    }
+
+    /**
+     * Извлечение текста абзацев основного документа
+     */
+    public void extract(InputStream docxStream, ParagraphSink sink) throws Exception {
+        ZipInputStream zip = new ZipInputStream(docxStream);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (MAIN_PART.equals(entry.getName())) {
+                // Парсер не должен закрывать zip-поток
+                parseDocument(new FilterInputStream(zip) {
+                    @Override
+                    public void close() {
+                    }
+                }, sink);
+                return;
+            }
+            zip.closeEntry();
+        }
+        throw new IOException("В пакете DOCX нет части " + MAIN_PART);
+    }
+
+    private void parseDocument(InputStream xml, ParagraphSink sink) throws Exception {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(xml, "UTF-8");
+        try {
+            StringBuilder paragraph = new StringBuilder();
+            boolean inText = false;
+            int paragraphs = 0;
+            long characters = 0;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (!WORD_NAMESPACE.equals(reader.getNamespaceURI())) {
+                        continue;
+                    }
+                    switch (reader.getLocalName()) {
+                        case "t" -> inText = true;
+                        case "tab" -> paragraph.append('\t');
+                        case "br", "cr" -> paragraph.append('\n');
+                        default -> {
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (!WORD_NAMESPACE.equals(reader.getNamespaceURI())) {
+                        continue;
+                    }
+                    String name = reader.getLocalName();
+                    if ("t".equals(name)) {
+                        inText = false;
+                    } else if ("p".equals(name)) {
+                        // Абзац надписи (w:txbxContent) внутри абзаца завершает накопленный текст
+                        if (paragraph.length() > 0) {
+                            paragraph.append('\n');
+                            characters += paragraph.length();
+                            paragraphs++;
+                            sink.accept(paragraph);
+                            paragraph.setLength(0);
+                        }
+                    }
+                } else if (inText && (event == XMLStreamConstants.CHARACTERS
+                        || event == XMLStreamConstants.CDATA
+                        || event == XMLStreamConstants.SPACE)) {
+                    paragraph.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+
+            // Текст вне абзацев в корректном документе не встречается, но не теряем его
+            if (paragraph.length() > 0) {
+                characters += paragraph.length();
+                sink.accept(paragraph);
+            }
+            logger.info("Извлечено {} символов из {} абзацев DOCX", characters, paragraphs);
+        } catch (XMLStreamException e) {
+            throw new IOException("Ошибка разбора " + MAIN_PART + ": " + e.getMessage(), e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Получатель текста абзацев. Буфер переиспользуется - содержимое нужно
+     * скопировать до возврата
+     */
+    @FunctionalInterface
+    public interface ParagraphSink {
+        void accept(CharSequence paragraph) throws Exception;
+    }
+}
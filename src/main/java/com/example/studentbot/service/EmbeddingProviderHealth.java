@@ -0,0 +1,209 @@
+package com.example.studentbot.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Состояние провайдеров embedding для переключения на резервные.
+ *
+ * Для каждого адреса провайдера ведется простой автоматический выключатель: после серии
+ * ошибок подряд адрес исключается из цепочки на заданное время, затем пропускается один пробный
+ * запрос - остальные обходят адрес, пока проба не завершится. По последним успешным запросам считается перцентиль задержки - после него
+ * запрос дублируется на следующий провайдер цепочки (hedging).
+ */
+@Component
+public class EmbeddingProviderHealth {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingProviderHealth.class);
+
+    private static final int LATENCY_WINDOW = 128;
+    // Перцентиль пересчитывается не на каждый ответ, а раз в несколько замеров
+    private static final int RECOMPUTE_EVERY = 16;
+    private static final int MIN_SAMPLES = 20;
+
+    @Value("${embedding.failover.circuit.failure-threshold:3}")
+    private int failureThreshold;
+
+    @Value("${embedding.failover.circuit.open-ms:30000}")
+    private long openMs;
+
+    @Value("${embedding.failover.hedge.percentile:0.95}")
+    private double hedgePercentile;
+
+    @Value("${embedding.failover.hedge.min-delay-ms:50}")
+    private long minHedgeDelayMs;
+
+    @Value("${embedding.failover.hedge.default-delay-ms:2000}")
+    private long defaultHedgeDelayMs;
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, EndpointState> states = new ConcurrentHashMap<>();
+
+    public EmbeddingProviderHealth(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Можно ли отправлять запросы на адрес. После окончания паузы true возвращается только
+     * одному вызывающему - его запрос становится пробным
+     */
+    public boolean isAvailable(String endpoint) {
+        return state(endpoint).tryAcquire(Math.max(1, failureThreshold), TimeUnit.MILLISECONDS.toNanos(openMs));
+    }
+
+    /**
+     * Успешный ответ. Отрицательная задержка - ответ без замера (например, пакетный запрос)
+     */
+    public void recordSuccess(String endpoint, long latencyNanos) {
+        state(endpoint).onSuccess(latencyNanos);
+    }
+
+    /**
+     * Ошибка, говорящая о неработоспособности провайдера (429, 5xx, сеть)
+     */
+    public void recordFailure(String endpoint) {
+        EndpointState state = state(endpoint);
+        if (state.onFailure(Math.max(1, failureThreshold), TimeUnit.MILLISECONDS.toNanos(openMs))) {
+            logger.warn("Провайдер {} исключен из цепочки на {} мс после {} ошибок подряд",
+                    endpoint, openMs, failureThreshold);
+        }
+    }
+
+    public void recordFailover(String endpoint) {
+        state(endpoint).failoverCounter.increment();
+    }
+
+    public void recordHedge(String endpoint) {
+        state(endpoint).hedgedCounter.increment();
+    }
+
+    public void recordHedgeWin(String endpoint) {
+        state(endpoint).hedgeWinsCounter.increment();
+    }
+
+    /**
+     * Задержка перед дублирующим запросом: перцентиль задержки провайдера,
+     * пока замеров мало - значение по умолчанию
+     */
+    public long getHedgeDelayMs(String endpoint) {
+        long percentileNanos = state(endpoint).percentileNanos;
+        if (percentileNanos <= 0) {
+            return defaultHedgeDelayMs;
+        }
+        return Math.max(minHedgeDelayMs, TimeUnit.NANOSECONDS.toMillis(percentileNanos));
+    }
+
+    private EndpointState state(String endpoint) {
+        return states.computeIfAbsent(endpoint, this::createState);
+    }
+
+    private EndpointState createState(String endpoint) {
+        EndpointState state = new EndpointState(Math.min(1.0, Math.max(0.5, hedgePercentile)));
+
+        Gauge.builder("embedding.provider.available", state, s -> s.isOpen() ? 0 : 1)
+                .description("Доступность провайдера embedding (0 - исключен из цепочки)")
+                .tag("endpoint", endpoint).register(meterRegistry);
+        Gauge.builder("embedding.provider.latency.hedge.threshold", state, s -> s.percentileNanos / 1_000_000.0)
+                .description("Перцентиль задержки провайдера, мс")
+                .tag("endpoint", endpoint).register(meterRegistry);
+        state.failoverCounter = Counter.builder("embedding.provider.failover")
+                .description("Переключения с провайдера на резервный")
+                .tag("endpoint", endpoint).register(meterRegistry);
+        state.hedgedCounter = Counter.builder("embedding.provider.hedged")
+                .description("Дублирующие запросы из-за медленного ответа провайдера")
+                .tag("endpoint", endpoint).register(meterRegistry);
+        state.hedgeWinsCounter = Counter.builder("embedding.provider.hedge.wins")
+                .description("Дублирующий запрос ответил раньше исходного")
+                .tag("endpoint", endpoint).register(meterRegistry);
+        return state;
+    }
+
+    /**
+     * Состояние одного адреса провайдера
+     */
+    private static final class EndpointState {
+        private final double percentile;
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int samples;
+        private int position;
+
+        private int consecutiveFailures;
+        private long openUntil = System.nanoTime();
+        private boolean probing;
+        private long probeUntil;
+
+        private volatile long percentileNanos;
+
+        private Counter failoverCounter;
+        private Counter hedgedCounter;
+        private Counter hedgeWinsCounter;
+
+        EndpointState(double percentile) {
+            this.percentile = percentile;
+        }
+
+        /**
+         * Закрытый выключатель пропускает всех, открытый - никого, после паузы - одну пробу.
+         * Проба, не завершившаяся ни успехом, ни ошибкой провайдера (отменена или
+         * не понадобилась), освобождается через ту же паузу
+         */
+        synchronized boolean tryAcquire(int threshold, long openNanos) {
+            if (consecutiveFailures < threshold) {
+                return true;
+            }
+            long now = System.nanoTime();
+            if (now - openUntil < 0 || probing && now - probeUntil < 0) {
+                return false;
+            }
+            probing = true;
+            probeUntil = now + openNanos;
+            return true;
+        }
+
+        synchronized boolean isOpen() {
+            return System.nanoTime() - openUntil < 0;
+        }
+
+        synchronized void onSuccess(long latencyNanos) {
+            consecutiveFailures = 0;
+            probing = false;
+            if (latencyNanos < 0) {
+                return;
+            }
+
+            latencies[position] = latencyNanos;
+            position = (position + 1) % LATENCY_WINDOW;
+            samples++;
+            if (samples >= MIN_SAMPLES && samples % RECOMPUTE_EVERY == 0) {
+                long[] window = Arrays.copyOf(latencies, Math.min(samples, LATENCY_WINDOW));
+                Arrays.sort(window);
+                int index = (int) Math.ceil(percentile * window.length) - 1;
+                percentileNanos = window[Math.max(0, index)];
+            }
+        }
+
+        /**
+         * @return true, если адрес только что исключен из цепочки
+         */
+        synchronized boolean onFailure(int threshold, long openNanos) {
+            consecutiveFailures++;
+            if (consecutiveFailures < threshold) {
+                return false;
+            }
+            // В полуоткрытом состоянии одной ошибки достаточно, чтобы снова исключить адрес
+            boolean wasClosed = consecutiveFailures == threshold;
+            openUntil = System.nanoTime() + openNanos;
+            probing = false;
+            return wasClosed;
+        }
+    }
+}
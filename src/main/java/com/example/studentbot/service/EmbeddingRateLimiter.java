@@ -0,0 +1,446 @@
+package com.example.studentbot.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Ограничитель запросов к провайдерам embedding.
+ *
+ * Для каждого провайдера действуют token bucket (запросов в секунду) и адаптивный
+ * лимит параллельных запросов по схеме AIMD: лимит медленно растет при успешных ответах
+ * и уменьшается вдвое при 429. Заголовок Retry-After приостанавливает все запросы к провайдеру,
+ * повторы выполняются с экспоненциальной задержкой и случайным разбросом.
+ * Ожидание разрешения не блокирует потоки: запросы стоят в очереди до освобождения места.
+ */
+@Component
+public class EmbeddingRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingRateLimiter.class);
+
+    private static final long MAX_RETRY_AFTER_MS = TimeUnit.MINUTES.toMillis(5);
+
+    @Value("${embedding.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${embedding.rate-limit.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${embedding.rate-limit.initial-backoff-ms:500}")
+    private long initialBackoffMs;
+
+    @Value("${embedding.rate-limit.max-backoff-ms:30000}")
+    private long maxBackoffMs;
+
+    @Value("${embedding.rate-limit.initial-concurrency:4}")
+    private int initialConcurrency;
+
+    @Value("${embedding.rate-limit.min-concurrency:1}")
+    private int minConcurrency;
+
+    @Value("${embedding.rate-limit.max-concurrency:16}")
+    private int maxConcurrency;
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, ProviderLimiter> limiters = new ConcurrentHashMap<>();
+
+    public EmbeddingRateLimiter(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Выполнение запроса к провайдеру с учетом лимитов и повторами при перегрузке
+     */
+    public <T> Mono<T> execute(String provider, Supplier<Mono<T>> call) {
+        return execute(provider, maxAttempts, call);
+    }
+
+    /**
+     * Выполнение запроса с собственным числом попыток - при наличии резервного провайдера
+     * нет смысла долго ждать перегруженный
+     */
+    public <T> Mono<T> execute(String provider, int maxAttempts, Supplier<Mono<T>> call) {
+        if (!enabled) {
+            return Mono.defer(call);
+        }
+
+        ProviderLimiter limiter = limiters.computeIfAbsent(provider, this::createLimiter);
+        return attempt(provider, limiter, call, 1, Math.max(1, maxAttempts));
+    }
+
+    private <T> Mono<T> attempt(String provider, ProviderLimiter limiter, Supplier<Mono<T>> call,
+                                int attempt, int attempts) {
+        // Разрешение возвращается при любом исходе запроса, в том числе при отмене подписки
+        Mono<T> guarded = Mono.usingWhen(limiter.acquire(),
+                permit -> permit.tokenWaitNanos > 0
+                        ? Mono.delay(Duration.ofNanos(permit.tokenWaitNanos)).then(Mono.defer(call))
+                        : Mono.defer(call),
+                permit -> Mono.fromRunnable(limiter::onSuccess),
+                (permit, error) -> Mono.fromRunnable(() -> release(limiter, error)),
+                permit -> Mono.fromRunnable(limiter::onNeutral));
+
+        return guarded.onErrorResume(error -> {
+            if (!isRetryable(error)) {
+                return Mono.error(error);
+            }
+            if (attempt >= attempts) {
+                logger.warn("Провайдер {}: запрос не выполнен за {} попыток: {}", provider, attempts, error.getMessage());
+                return Mono.error(error);
+            }
+
+            long retryAfterMs = isThrottled(error) ? parseRetryAfter(responseHeaders(error)) : -1;
+            long delayMs = Math.max(retryAfterMs, backoffWithJitter(attempt));
+            logger.debug("Провайдер {}: повтор {} через {} мс", provider, attempt + 1, delayMs);
+            return Mono.delay(Duration.ofMillis(delayMs))
+                    .then(Mono.defer(() -> attempt(provider, limiter, call, attempt + 1, attempts)));
+        });
+    }
+
+    private void release(ProviderLimiter limiter, Throwable error) {
+        if (isThrottled(error)) {
+            limiter.onThrottled(parseRetryAfter(responseHeaders(error)));
+        } else {
+            limiter.onNeutral();
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Повторяем 429, 5xx и сетевые ошибки. Остальные 4xx означают некорректный запрос
+     */
+    public static boolean isRetryable(Throwable e) {
+        int status = statusOf(e);
+        if (status > 0) {
+            return status == 429 || status >= 500;
+        }
+        return e instanceof WebClientRequestException || e instanceof ResourceAccessException;
+    }
+
+    private static boolean isThrottled(Throwable e) {
+        return statusOf(e) == 429;
+    }
+
+    private static int statusOf(Throwable e) {
+        if (e instanceof WebClientResponseException) {
+            return ((WebClientResponseException) e).getStatusCode().value();
+        }
+        if (e instanceof HttpStatusCodeException) {
+            return ((HttpStatusCodeException) e).getStatusCode().value();
+        }
+        return -1;
+    }
+
+    private static HttpHeaders responseHeaders(Throwable e) {
+        if (e instanceof WebClientResponseException) {
+            return ((WebClientResponseException) e).getHeaders();
+        }
+        if (e instanceof HttpStatusCodeException) {
+            return ((HttpStatusCodeException) e).getResponseHeaders();
+        }
+        return null;
+    }
+
+    /**
+     * Full jitter: случайная задержка от 0 до min(max, initial * 2^(attempt-1))
+     */
+    private long backoffWithJitter(int attempt) {
+        long exponential = initialBackoffMs << Math.min(attempt - 1, 20);
+        long cap = Math.min(maxBackoffMs, exponential);
+        return ThreadLocalRandom.current().nextLong(Math.max(1, cap) + 1);
+    }
+
+    /**
+     * Retry-After: число секунд или HTTP-дата
+     */
+    static long parseRetryAfter(HttpHeaders headers) {
+        if (headers == null) {
+            return -1;
+        }
+        String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        try {
+            long seconds = Long.parseLong(value.trim());
+            return Math.min(TimeUnit.SECONDS.toMillis(Math.max(0, seconds)), MAX_RETRY_AFTER_MS);
+        } catch (NumberFormatException ignored) {
+            // не число - пробуем дату
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            long millis = Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis();
+            return Math.min(Math.max(0, millis), MAX_RETRY_AFTER_MS);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Лимиты ведутся отдельно для каждого адреса. Реплика (provider@url) получает
+     * квоту своего провайдера
+     */
+    private ProviderLimiter createLimiter(String provider) {
+        int replicaSeparator = provider.indexOf('@');
+        String quotaKey = replicaSeparator > 0 ? provider.substring(0, replicaSeparator) : provider;
+        double requestsPerSecond = environment.getProperty(
+                "embedding.rate-limit.requests-per-second." + quotaKey, Double.class, 10.0);
+        int min = Math.max(1, minConcurrency);
+        int max = Math.max(min, maxConcurrency);
+        int initial = Math.min(max, Math.max(min, initialConcurrency));
+
+        ProviderLimiter limiter = new ProviderLimiter(requestsPerSecond, initial, min, max);
+
+        Gauge.builder("embedding.provider.concurrency.limit", limiter, ProviderLimiter::getLimit)
+                .tag("provider", provider).register(meterRegistry);
+        Gauge.builder("embedding.provider.in.flight", limiter, ProviderLimiter::getInFlight)
+                .tag("provider", provider).register(meterRegistry);
+        Gauge.builder("embedding.provider.queue.depth", limiter, ProviderLimiter::getWaiting)
+                .tag("provider", provider).register(meterRegistry);
+        limiter.throttledCounter = Counter.builder("embedding.provider.throttled")
+                .description("Ответы 429 от провайдера embedding")
+                .tag("provider", provider).register(meterRegistry);
+
+        logger.info("Лимиты провайдера {}: {} запросов/с, параллелизм {} (от {} до {})",
+                provider, requestsPerSecond, initial, min, max);
+        return limiter;
+    }
+
+    /**
+     * Разрешение на запрос и задержка до свободного слота token bucket
+     */
+    private static final class Permit {
+        private final long tokenWaitNanos;
+
+        Permit(long tokenWaitNanos) {
+            this.tokenWaitNanos = tokenWaitNanos;
+        }
+    }
+
+    /**
+     * Запрос, ожидающий разрешения
+     */
+    private static final class Waiter {
+        private final MonoSink<Permit> sink;
+        private boolean granted;
+
+        Waiter(MonoSink<Permit> sink) {
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * Лимиты одного провайдера
+     */
+    private static final class ProviderLimiter {
+        private static final double DECREASE_FACTOR = 0.5;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+        private final double intervalNanos;
+        private final long burstNanos;
+        private final int minLimit;
+        private final int maxLimit;
+
+        private double limit;
+        private int inFlight;
+        private long pausedUntil;
+        private boolean resumeScheduled;
+        private long nextTokenAt;
+        private Counter throttledCounter;
+
+        ProviderLimiter(double requestsPerSecond, int initialLimit, int minLimit, int maxLimit) {
+            this.intervalNanos = 1_000_000_000.0 / Math.max(0.01, requestsPerSecond);
+            // Допускаем всплеск размером в одну секунду квоты
+            this.burstNanos = TimeUnit.SECONDS.toNanos(1);
+            this.limit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.nextTokenAt = System.nanoTime();
+            this.pausedUntil = nextTokenAt;
+        }
+
+        Mono<Permit> acquire() {
+            return Mono.create(sink -> {
+                Waiter waiter = new Waiter(sink);
+                sink.onCancel(() -> cancel(waiter));
+                lock.lock();
+                try {
+                    waiters.addLast(waiter);
+                } finally {
+                    lock.unlock();
+                }
+                drain();
+            });
+        }
+
+        /**
+         * Выдача разрешений ожидающим в порядке очереди, пока есть место.
+         * Сигналы подписчикам отправляются вне блокировки
+         */
+        private void drain() {
+            while (true) {
+                Waiter next;
+                Permit permit;
+                lock.lock();
+                try {
+                    if (waiters.isEmpty()) {
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    long pause = pausedUntil - now;
+                    if (pause > 0) {
+                        scheduleResume(pause);
+                        return;
+                    }
+                    if (inFlight >= (int) limit) {
+                        return;
+                    }
+
+                    next = waiters.pollFirst();
+                    next.granted = true;
+                    inFlight++;
+
+                    // Token bucket: резервируем ближайший свободный слот
+                    nextTokenAt = Math.max(nextTokenAt, now - burstNanos);
+                    permit = new Permit(nextTokenAt - now);
+                    nextTokenAt += (long) intervalNanos;
+                } finally {
+                    lock.unlock();
+                }
+                next.sink.success(permit);
+            }
+        }
+
+        private void scheduleResume(long pauseNanos) {
+            if (resumeScheduled) {
+                return;
+            }
+            resumeScheduled = true;
+            Schedulers.parallel().schedule(() -> {
+                lock.lock();
+                try {
+                    resumeScheduled = false;
+                } finally {
+                    lock.unlock();
+                }
+                drain();
+            }, pauseNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Отмена ожидания. Если разрешение уже выдано, но подписчик его не получил,
+         * оно возвращается
+         */
+        private void cancel(Waiter waiter) {
+            boolean release;
+            lock.lock();
+            try {
+                release = waiter.granted;
+                if (!release) {
+                    waiters.remove(waiter);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (release) {
+                onNeutral();
+            }
+        }
+
+        void onSuccess() {
+            lock.lock();
+            try {
+                // Аддитивное увеличение: +1 за каждое "окно" успешных ответов
+                limit = Math.min(maxLimit, limit + 1.0 / Math.max(1.0, limit));
+                inFlight--;
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+
+        void onThrottled(long retryAfterMs) {
+            lock.lock();
+            try {
+                limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+                if (retryAfterMs > 0) {
+                    long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMs);
+                    if (until - pausedUntil > 0) {
+                        pausedUntil = until;
+                    }
+                }
+                throttledCounter.increment();
+                inFlight--;
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+
+        void onNeutral() {
+            lock.lock();
+            try {
+                inFlight--;
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+
+        double getLimit() {
+            lock.lock();
+            try {
+                return limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getInFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getWaiting() {
+            lock.lock();
+            try {
+                return waiters.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package com.example.studentbot.service;
+
+import com.example.studentbot.model.EmbeddingProjection;
+import com.example.studentbot.model.EmbeddingProjectionSample;
+import com.example.studentbot.repository.EmbeddingProjectionRepository;
+import com.example.studentbot.repository.EmbeddingProjectionSampleRepository;
+import com.example.studentbot.utils.PrincipalComponents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Понижение размерности векторов перед записью в Qdrant.
+ *
+ * Режимы: none - векторы хранятся как есть; truncate - первые компоненты с повторной
+ * L2-нормализацией (для Matryoshka-моделей, например OpenAI text-embedding-3);
+ * pca - проекция на главные компоненты, обученные на выборке векторов первых
+ * индексируемых книг. Обученная проекция хранится в базе (по строке на коллекцию), общей
+ * для всех экземпляров: первый сохранивший проекцию экземпляр задает ее для остальных,
+ * экземпляр без проекции периодически проверяет базу. Идентификатор проекции записывается
+ * в payload каждой точки, поиск фильтрует по нему - векторы из разных проекций не смешиваются.
+ * Векторы запросов проходят ту же проекцию. Сохраненная проекция для другой модели или
+ * размерности не удаляется: по ней ищутся уже записанные книги, поэтому экземпляр с такой
+ * конфигурацией не запускается.
+ *
+ * PCA обучается, когда собрано не меньше dimensions векторов. До этого векторы книг
+ * копятся в базе (общая выборка для всех экземпляров, переживает рестарты), а индексация
+ * книг откладывается исключением ProjectionNotReadyException - но не дольше max-wait-minutes
+ * с первой выборки: затем PCA обучается на том, что есть, недостающие компоненты
+ * PrincipalComponents дополняет случайными ортонормированными направлениями.
+ */
+@Component
+public class EmbeddingReducer {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingReducer.class);
+
+    private static final int FILE_MAGIC = 0x45505231; // "EPR1"
+    private static final int FILE_VERSION = 1;
+    private static final long PCA_SEED = 42L;
+
+    // Как часто экземпляр без проекции проверяет, не обучил ли ее другой экземпляр
+    private static final long LOOKUP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final String MODE_NONE = "none";
+    private static final String MODE_TRUNCATE = "truncate";
+    private static final String MODE_PCA = "pca";
+
+    @Value("${embedding.reduction.mode:none}")
+    private String mode;
+
+    @Value("${embedding.reduction.dimensions:256}")
+    private int dimensions;
+
+    @Value("${embedding.reduction.pca.sample-size:2048}")
+    private int sampleSize;
+
+    // Сколько ждать dimensions векторов с первой выборки, затем PCA обучается на собранных
+    @Value("${embedding.reduction.pca.max-wait-minutes:30}")
+    private long maxWaitMinutes;
+
+    @Value("${qdrant.collection.name}")
+    private String collectionName;
+
+    private final EmbeddingService embeddingService;
+    private final EmbeddingProjectionRepository projectionRepository;
+    private final EmbeddingProjectionSampleRepository sampleRepository;
+
+    private volatile Projection projection;
+    private volatile long lastLookupNanos;
+
+    public EmbeddingReducer(EmbeddingService embeddingService, EmbeddingProjectionRepository projectionRepository,
+                            EmbeddingProjectionSampleRepository sampleRepository) {
+        this.embeddingService = embeddingService;
+        this.projectionRepository = projectionRepository;
+        this.sampleRepository = sampleRepository;
+    }
+
+    @PostConstruct
+    public void init() {
+        mode = mode.trim().toLowerCase();
+        if (!List.of(MODE_NONE, MODE_TRUNCATE, MODE_PCA).contains(mode)) {
+            logger.warn("Неизвестный режим понижения размерности {}, векторы сохраняются без изменений", mode);
+            mode = MODE_NONE;
+        }
+        if (MODE_NONE.equals(mode)) {
+            return;
+        }
+
+        int inputDimensions = embeddingService.getVectorDimensions();
+        if (dimensions <= 0 || dimensions >= inputDimensions) {
+            logger.warn("Целевая размерность {} не меньше размерности модели {}, понижение отключено",
+                    dimensions, inputDimensions);
+            mode = MODE_NONE;
+            return;
+        }
+
+        String sourceModel = embeddingService.getModelId();
+        if (MODE_TRUNCATE.equals(mode)) {
+            if (!sourceModel.contains("text-embedding-3")) {
+                logger.warn("Модель {} может не поддерживать усечение (Matryoshka): качество поиска " +
+                        "после усечения до {} компонент не гарантировано", sourceModel, dimensions);
+            }
+            projection = new Projection("mrl-" + dimensions, sourceModel, null);
+            logger.info("Понижение размерности: усечение {} -> {}", inputDimensions, dimensions);
+            return;
+        }
+
+        lastLookupNanos = System.nanoTime();
+        Projection loaded = null;
+        try {
+            loaded = loadStored();
+        } catch (Exception e) {
+            logger.error("Не удалось загрузить проекцию коллекции {}: {}", collectionName, e.getMessage(), e);
+        }
+        if (loaded != null) {
+            // Проекцию используют другие экземпляры и все точки коллекции - экземпляр
+            // с другой конфигурацией не запускается, а не перезаписывает ее
+            String mismatch = mismatch(loaded);
+            if (mismatch != null) {
+                throw new IllegalStateException(mismatch);
+            }
+            projection = loaded;
+            logger.info("Загружена проекция PCA {}: {} -> {}, объясненная дисперсия {}",
+                    loaded.id, inputDimensions, dimensions,
+                    String.format("%.3f", loaded.pca.getExplainedVariance()));
+            return;
+        }
+        logger.info("Проекция PCA {} -> {} будет обучена на векторах первых индексируемых книг",
+                inputDimensions, dimensions);
+    }
+
+    public boolean isEnabled() {
+        return !MODE_NONE.equals(mode);
+    }
+
+    /**
+     * Размерность векторов в коллекции
+     */
+    public int getOutputDimensions(int inputDimensions) {
+        return isEnabled() ? Math.min(dimensions, inputDimensions) : inputDimensions;
+    }
+
+    /**
+     * Идентификатор текущей проекции для payload и фильтра поиска, null - понижение не используется
+     * или проекция еще не обучена
+     */
+    public String getProjectionId() {
+        Projection current = current();
+        return current != null ? current.id : null;
+    }
+
+    /**
+     * Можно ли искать по векторам: до обучения PCA в коллекции нет векторов этой проекции
+     */
+    public boolean isQueryReady() {
+        return !isEnabled() || current() != null;
+    }
+
+    /**
+     * Сколько векторов нужно для обучения проекции, 0 - обучение не требуется
+     */
+    public int getTrainingSampleSize() {
+        return MODE_PCA.equals(mode) && current() == null ? Math.max(sampleSize, dimensions) : 0;
+    }
+
+    /**
+     * Обучение PCA, если проекции еще нет. Если векторов книги меньше dimensions, они
+     * добавляются к выборке в базе, и проекция обучается, когда выборки хватает или
+     * ожидание превысило max-wait-minutes. Из выборки берется не более sample-size
+     * векторов, равномерно
+     */
+    public void fitIfNeeded(Long bookId, List<float[]> vectors) {
+        if (!MODE_PCA.equals(mode) || current() != null || vectors.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (projection != null) {
+                return;
+            }
+
+            int limit = Math.max(sampleSize, dimensions);
+            List<float[]> sample = evenly(vectors, limit);
+            if (sample.size() < dimensions) {
+                List<float[]> collected = collectSamples(bookId, sample);
+                Double waitedSeconds = sampleRepository.secondsSinceFirstSample(collectionName);
+                boolean waited = waitedSeconds != null && waitedSeconds >= maxWaitMinutes * 60.0;
+                if (collected.size() < dimensions && !waited) {
+                    logger.info("Для обучения проекции PCA нужно {} векторов, собрано {}: индексация отложена, " +
+                            "не дольше {} мин с первой выборки", dimensions, collected.size(), maxWaitMinutes);
+                    return;
+                }
+                if (collected.size() < dimensions) {
+                    logger.warn("Проекция PCA обучается на {} векторах вместо {}: выборка собирается дольше {} мин, " +
+                            "недостающие компоненты случайные", collected.size(), dimensions, maxWaitMinutes);
+                }
+                sample = evenly(collected, limit);
+            }
+
+            long start = System.currentTimeMillis();
+            PrincipalComponents pca = PrincipalComponents.fit(sample, dimensions, PCA_SEED);
+            Projection trained;
+            try {
+                byte[] data = serialize(embeddingService.getModelId(), pca);
+                trained = deserialize(data);
+                if (projectionRepository.insertIfAbsent(collectionName, trained.id, data) == 0) {
+                    // Другой экземпляр сохранил проекцию раньше - векторы пишутся в его проекции
+                    Projection stored = loadStored();
+                    if (stored == null) {
+                        throw new IOException("проекция другого экземпляра не найдена");
+                    }
+                    String mismatch = mismatch(stored);
+                    if (mismatch != null) {
+                        throw new IllegalStateException(mismatch);
+                    }
+                    projection = stored;
+                    clearSamples();
+                    logger.info("Используется проекция PCA {}, обученная другим экземпляром", stored.id);
+                    return;
+                }
+            } catch (IOException e) {
+                // Несохраненная проекция не видна другим экземплярам и будет потеряна при рестарте
+                throw new IllegalStateException("Не удалось сохранить проекцию PCA: " + e.getMessage(), e);
+            }
+            projection = trained;
+            clearSamples();
+
+            logger.info("Обучена проекция PCA {} на {} векторах за {} мс: {} -> {}, объясненная дисперсия {}",
+                    trained.id, sample.size(), System.currentTimeMillis() - start,
+                    pca.getInputDimensions(), pca.getOutputDimensions(),
+                    String.format("%.3f", pca.getExplainedVariance()));
+        }
+    }
+
+    /**
+     * Понижение размерности вектора документа
+     */
+    public float[] reduce(float[] vector) {
+        if (!isEnabled()) {
+            return vector;
+        }
+        Projection current = current();
+        if (current == null) {
+            throw new ProjectionNotReadyException("Проекция PCA еще не обучена: недостаточно векторов для обучения");
+        }
+        return current.apply(vector, dimensions);
+    }
+
+    /**
+     * Понижение размерности вектора запроса. До обучения проекции в коллекции нет
+     * векторов для поиска - возвращается null
+     */
+    public float[] reduceQuery(float[] vector) {
+        if (!isEnabled()) {
+            return vector;
+        }
+        Projection current = current();
+        if (current == null) {
+            logger.debug("Проекция PCA еще не обучена, поиск по векторам недоступен");
+            return null;
+        }
+        return current.apply(vector, dimensions);
+    }
+
+    /**
+     * Текущая проекция. Пока ее нет, база проверяется не чаще LOOKUP_INTERVAL
+     */
+    private Projection current() {
+        Projection current = projection;
+        if (current != null || !MODE_PCA.equals(mode)
+                || System.nanoTime() - lastLookupNanos < LOOKUP_INTERVAL_NANOS) {
+            return current;
+        }
+        synchronized (this) {
+            if (projection == null && System.nanoTime() - lastLookupNanos >= LOOKUP_INTERVAL_NANOS) {
+                lastLookupNanos = System.nanoTime();
+                try {
+                    Projection stored = loadStored();
+                    String mismatch = stored != null ? mismatch(stored) : null;
+                    if (mismatch != null) {
+                        logger.error(mismatch);
+                    } else if (stored != null) {
+                        projection = stored;
+                        logger.info("Загружена проекция PCA {}, обученная другим экземпляром", stored.id);
+                    }
+                } catch (Exception e) {
+                    logger.warn("Не удалось прочитать проекцию коллекции {}: {}", collectionName, e.getMessage());
+                }
+            }
+            return projection;
+        }
+    }
+
+    /**
+     * Проекция коллекции из базы, null - еще не обучена
+     */
+    private Projection loadStored() throws IOException {
+        Optional<EmbeddingProjection> row = projectionRepository.findById(collectionName);
+        return row.isPresent() ? deserialize(row.get().getData()) : null;
+    }
+
+    /**
+     * Описание несовместимости проекции с текущей моделью и размерностью, null - совместима.
+     * Проекция не удаляется автоматически: по ней ищутся все книги коллекции
+     */
+    private String mismatch(Projection stored) {
+        String sourceModel = embeddingService.getModelId();
+        int inputDimensions = embeddingService.getVectorDimensions();
+        if (stored.sourceModel.equals(sourceModel)
+                && stored.pca.getInputDimensions() == inputDimensions
+                && stored.pca.getOutputDimensions() == dimensions) {
+            return null;
+        }
+        return String.format("Проекция PCA %s коллекции %s обучена для %s (%d -> %d), текущая модель %s (%d -> %d). " +
+                        "Верните прежние модель и embedding.reduction.dimensions или удалите строку проекции " +
+                        "из embedding_projections и переиндексируйте все книги коллекции",
+                stored.id, collectionName, stored.sourceModel, stored.pca.getInputDimensions(),
+                stored.pca.getOutputDimensions(), sourceModel, inputDimensions, dimensions);
+    }
+
+    /**
+     * Сохранение векторов книги в общую выборку и чтение всей выборки коллекции
+     */
+    private List<float[]> collectSamples(Long bookId, List<float[]> vectors) {
+        try {
+            sampleRepository.upsert(collectionName, bookId, vectors.size(), serializeVectors(vectors));
+            List<float[]> collected = new ArrayList<>();
+            for (EmbeddingProjectionSample stored : sampleRepository.findByCollectionNameOrderByCreatedAtAsc(collectionName)) {
+                collected.addAll(deserializeVectors(stored.getData()));
+            }
+            return collected;
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось прочитать выборку для обучения PCA: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Выборка больше не нужна. Ошибка не мешает индексации: оставшиеся строки удалит
+     * следующее обучение, а при готовой проекции они не читаются
+     */
+    private void clearSamples() {
+        try {
+            sampleRepository.deleteByCollection(collectionName);
+        } catch (Exception e) {
+            logger.warn("Не удалось удалить выборку PCA коллекции {}: {}", collectionName, e.getMessage());
+        }
+    }
+
+    /**
+     * Не более limit элементов, равномерно по списку
+    private static List<float[]> evenly(List<float[]> vectors, int limit) {
+        if (vectors.size() <= limit) {
+            return new ArrayList<>(vectors);
+        }
+        List<float[]> sample = new ArrayList<>(limit);
+        double step = (double) vectors.size() / limit;
+        for (int i = 0; i < limit; i++) {
+            sample.add(vectors.get((int) (i * step)));
+        }
+        return sample;
+    }
+
+    private static byte[] serialize(String sourceModel, PrincipalComponents pca) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(sourceModel);
+            out.writeInt(pca.getInputDimensions());
+            out.writeInt(pca.getOutputDimensions());
+            out.writeDouble(pca.getExplainedVariance());
+            writeVector(out, pca.getMean());
+            for (float[] component : pca.getComponents()) {
+                writeVector(out, component);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Идентификатор проекции - префикс SHA-256 среднего и компонент
+     */
+    private static Projection deserialize(byte[] data) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Неизвестный формат проекции");
+            }
+            String sourceModel = in.readUTF();
+            int inputDimensions = in.readInt();
+            int outputDimensions = in.readInt();
+            double explainedVariance = in.readDouble();
+            float[] mean = readVector(in, inputDimensions, digest);
+            float[][] components = new float[outputDimensions][];
+            for (int i = 0; i < outputDimensions; i++) {
+                components[i] = readVector(in, inputDimensions, digest);
+            }
+            return new Projection(projectionId(digest), sourceModel,
+                    new PrincipalComponents(mean, components, explainedVariance));
+        }
+    }
+
+    private static byte[] serializeVectors(List<float[]> vectors) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(vectors.size());
+            out.writeInt(vectors.isEmpty() ? 0 : vectors.get(0).length);
+            for (float[] vector : vectors) {
+                writeVector(out, vector);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<float[]> deserializeVectors(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int count = in.readInt();
+            int length = in.readInt();
+            List<float[]> vectors = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                vectors.add(readVector(in, length, null));
+            }
+            return vectors;
+        }
+    }
+
+    private static void writeVector(DataOutputStream out, float[] vector) throws IOException {
+        byte[] bytes = new byte[vector.length * 4];
+        for (int i = 0; i < vector.length; i++) {
+            int bits = Float.floatToIntBits(vector[i]);
+            bytes[i * 4] = (byte) (bits >>> 24);
+            bytes[i * 4 + 1] = (byte) (bits >>> 16);
+            bytes[i * 4 + 2] = (byte) (bits >>> 8);
+            bytes[i * 4 + 3] = (byte) bits;
+        }
+        out.write(bytes);
+    }
+
+    private static float[] readVector(DataInputStream in, int length, MessageDigest digest) throws IOException {
+        byte[] bytes = new byte[length * 4];
+        in.readFully(bytes);
+        if (digest != null) {
+            digest.update(bytes);
+        }
+        float[] vector = new float[length];
+        for (int i = 0; i < length; i++) {
+            int bits = ((bytes[i * 4] & 0xFF) << 24) | ((bytes[i * 4 + 1] & 0xFF) << 16)
+                    | ((bytes[i * 4 + 2] & 0xFF) << 8) | (bytes[i * 4 + 3] & 0xFF);
+            vector[i] = Float.intBitsToFloat(bits);
+        }
+        return vector;
+    }
+
+    private static String projectionId(MessageDigest digest) {
+        return "pca-" + HexFormat.of().formatHex(digest.digest(), 0, 6);
+    }
+
+    /**
+     * Проекция PCA еще не обучена: векторов для обучения пока меньше целевой размерности.
+     * Индексация книги откладывается без расхода попыток задания
+     */
+    public static class ProjectionNotReadyException extends IllegalStateException {
+        public ProjectionNotReadyException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Проекция: усечение (pca == null) или PCA
+     */
+    private static final class Projection {
+        private final String id;
+        private final String sourceModel;
+        private final PrincipalComponents pca;
+
+        Projection(String id, String sourceModel, PrincipalComponents pca) {
+            this.id = id;
+            this.sourceModel = sourceModel;
+            this.pca = pca;
+        }
+
+        float[] apply(float[] vector, int dimensions) {
+            if (pca != null) {
+                return pca.project(vector);
+            }
+            int size = Math.min(dimensions, vector.length);
+            float[] result = new float[size];
+            double norm = 0;
+            for (int i = 0; i < size; i++) {
+                result[i] = vector[i];
+                norm += vector[i] * vector[i];
+            }
+            if (norm > 0) {
+                float inverse = (float) (1.0 / Math.sqrt(norm));
+                for (int i = 0; i < size; i++) {
+                    result[i] *= inverse;
+                }
+            }
+            return result;
+        }
+    }
+}
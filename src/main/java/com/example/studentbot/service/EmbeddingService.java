@@ -1,26 +1,55 @@
 package com.example.studentbot.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.example.studentbot.utils.EmbeddingResponseParser;
+import com.example.studentbot.utils.HeuristicTokenEstimator;
+import com.example.studentbot.utils.TokenEstimator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Сервис векторизации текстов.
+ *
+ * Запросы к провайдерам выполняются неблокирующим WebClient на общем пуле соединений,
+ * основной API возвращает Mono/Flux. Синхронные методы - тонкие обертки для вызывающего кода,
+ * которому результат нужен сразу.
+ */
 @Service
 public class EmbeddingService {
     private static final Logger logger = LoggerFactory.getLogger(EmbeddingService.class);
 
-    private final RestTemplate restTemplate;
-    private final ObjectMapper objectMapper;
+    private final WebClient webClient;
+    private final EmbeddingResponseParser responseParser;
+    private final PersistentEmbeddingCache embeddingCache;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final LocalEmbeddingModel localEmbeddingModel;
+    private final EmbeddingRateLimiter rateLimiter;
+    private final EmbeddingProviderHealth providerHealth;
 
-    // Провайдер embedding (gemini, openai, huggingface, yandex)
+    // Провайдер embedding (gemini, openai, huggingface, yandex, local)
     @Value("${embedding.provider:yandex}")
     private String embeddingProvider;
 
@@ -70,9 +99,134 @@ public class EmbeddingService {
     @Value("${embedding.yandex.model:text-search-doc}")
     private String yandexModel; // text-search-doc или text-search-query
 
-    public EmbeddingService(RestTemplate restTemplate, ObjectMapper objectMapper) {
-        this.restTemplate = restTemplate;
-        this.objectMapper = objectMapper;
+    // Пакетная векторизация
+    @Value("${embedding.batch.size:64}")
+    private int batchSize;
+
+    @Value("${embedding.batch.parallelism:4}")
+    private int batchParallelism;
+
+    // Резервные провайдеры: provider или provider@base-url (реплика той же модели)
+    @Value("${embedding.failover.chain:}")
+    private String failoverChain;
+
+    // Другая модель той же размерности дает векторы из другого пространства - только осознанно
+    @Value("${embedding.failover.allow-cross-model:false}")
+    private boolean allowCrossModel;
+
+    @Value("${embedding.failover.attempts:2}")
+    private int failoverAttempts;
+
+    @Value("${embedding.failover.hedge.enabled:false}")
+    private boolean hedgeEnabled;
+
+    // Ограничения провайдеров на количество текстов в одном запросе
+    private static final int GEMINI_MAX_BATCH_SIZE = 100;
+    private static final int OPENAI_MAX_BATCH_SIZE = 2048;
+
+    // Лимиты входа моделей в токенах
+    private static final int OPENAI_MAX_INPUT_TOKENS = 8191;
+    private static final int GEMINI_MAX_INPUT_TOKENS = 2048;
+    private static final int YANDEX_MAX_INPUT_TOKENS = 2048;
+    private static final int HUGGINGFACE_MAX_INPUT_TOKENS = 256;
+
+    // Запас на погрешность оценки токенов без словаря модели
+    private static final double TOKEN_LIMIT_MARGIN = 0.9;
+
+    // Локальная модель считает вектор быстрее, чем кэш находит его по SHA-256, поэтому кэш для нее не используется
+    private static final String LOCAL_PROVIDER = "local";
+
+    // Лимит входа в токенах вместо лимита провайдера (0 - по провайдеру)
+    @Value("${embedding.max-input-tokens:0}")
+    private int maxInputTokensOverride;
+
+    // Основной провайдер и совместимые с ним резервные, в порядке приоритета
+    private List<ProviderEndpoint> endpoints;
+
+    private TokenEstimator tokenEstimator;
+    private int maxInputTokens;
+
+    public EmbeddingService(@Qualifier("embeddingWebClient") WebClient webClient, ObjectMapper objectMapper,
+                            PersistentEmbeddingCache embeddingCache, QueryEmbeddingCache queryEmbeddingCache,
+                            LocalEmbeddingModel localEmbeddingModel, EmbeddingRateLimiter rateLimiter,
+                            EmbeddingProviderHealth providerHealth) {
+        this.webClient = webClient;
+        this.responseParser = new EmbeddingResponseParser(objectMapper.getFactory());
+        this.embeddingCache = embeddingCache;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.localEmbeddingModel = localEmbeddingModel;
+        this.rateLimiter = rateLimiter;
+        this.providerHealth = providerHealth;
+    }
+
+    @PostConstruct
+    public void initFailoverChain() {
+        logger.info("Пакетная векторизация: размер пакета {}, параллелизм {}", batchSize, batchParallelism);
+
+        String primaryProvider = embeddingProvider.toLowerCase();
+        ProviderEndpoint primary = new ProviderEndpoint(primaryProvider, getBaseUrl(primaryProvider), primaryProvider);
+        int primaryDimensions = getVectorDimensions(primaryProvider);
+
+        List<ProviderEndpoint> chain = new ArrayList<>();
+        chain.add(primary);
+
+        for (String entry : failoverChain.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+
+            int separator = entry.indexOf('@');
+            String provider = (separator > 0 ? entry.substring(0, separator) : entry).toLowerCase();
+            String defaultBaseUrl = getBaseUrl(provider);
+            if (defaultBaseUrl == null) {
+                logger.warn("Резервный провайдер {} не поддерживается и пропущен", entry);
+                continue;
+            }
+            String baseUrl = separator > 0 ? entry.substring(separator + 1) : defaultBaseUrl;
+
+            ProviderEndpoint endpoint = new ProviderEndpoint(provider, baseUrl,
+                    baseUrl.equals(defaultBaseUrl) ? provider : provider + "@" + baseUrl);
+            if (chain.stream().anyMatch(existing -> existing.name.equals(endpoint.name))) {
+                continue;
+            }
+
+            // Реплика основного провайдера отдает векторы той же модели - совместима всегда
+            if (!provider.equals(primaryProvider)) {
+                int dimensions = getVectorDimensions(provider);
+                if (dimensions != primaryDimensions) {
+                    logger.warn("Резервный провайдер {} пропущен: размерность {} вместо {}. " +
+                            "Векторы разной размерности нельзя смешивать в одной коллекции",
+                            entry, dimensions, primaryDimensions);
+                    continue;
+                }
+                if (!allowCrossModel) {
+                    logger.warn("Резервный провайдер {} пропущен: модель {} отличается от {}. " +
+                            "Разрешить можно через embedding.failover.allow-cross-model",
+                            entry, getModelName(provider), getModelName(primaryProvider));
+                    continue;
+                }
+            }
+            chain.add(endpoint);
+        }
+
+        this.endpoints = List.copyOf(chain);
+        if (endpoints.size() > 1) {
+            logger.info("Цепочка провайдеров embedding: {}, дублирование запросов: {}",
+                    endpoints.stream().map(endpoint -> endpoint.name).toList(), hedgeEnabled);
+        }
+
+        // Текст должен поместиться в любой провайдер цепочки
+        this.tokenEstimator = getTokenEstimator(primaryProvider);
+        int limit = Integer.MAX_VALUE;
+        for (ProviderEndpoint endpoint : endpoints) {
+            limit = Math.min(limit, getMaxInputTokens(endpoint.provider));
+        }
+        this.maxInputTokens = maxInputTokensOverride > 0 ? maxInputTokensOverride
+                : limit == Integer.MAX_VALUE ? limit : (int) (limit * TOKEN_LIMIT_MARGIN);
+        if (maxInputTokens != Integer.MAX_VALUE) {
+            logger.info("Лимит входа embedding: {} токенов (оценка)", maxInputTokens);
+        }
     }
 
     /**
@@ -80,226 +234,738 @@ public class EmbeddingService {
      * Автоматически выбирает провайдера на основе конфигурации
      */
     public float[] getEmbedding(String text) throws Exception {
+        return await(embed(text));
+    }
+
+    /**
+     * Неблокирующее получение векторного представления текста
+     */
+    public Mono<float[]> embed(String text) {
         if (text == null || text.trim().isEmpty()) {
-            throw new IllegalArgumentException("Текст для векторизации не может быть пустым");
+            return Mono.error(new IllegalArgumentException("Текст для векторизации не может быть пустым"));
         }
 
         // Обрезаем текст если он слишком длинный
-        String truncatedText = text.length() > 8000 ? text.substring(0, 8000) : text;
-        logger.debug("Получение embedding через провайдера: {} для текста длиной {} символов",
-                embeddingProvider, truncatedText.length());
+        String truncatedText = truncate(text);
+
+        return Mono.defer(() -> {
+            logger.debug("Получение embedding через провайдера: {} для текста длиной {} символов",
+                    embeddingProvider, truncatedText.length());
+
+            String provider = embeddingProvider.toLowerCase();
+            if (LOCAL_PROVIDER.equals(provider)) {
+                return Mono.just(localEmbeddingModel.embed(truncatedText));
+            }
+
+            float[] cached = embeddingCache.get(provider, getModelName(provider), truncatedText);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return embedWithFailover(truncatedText);
+        });
+    }
+
+    /**
+     * Получение вектора поискового запроса пользователя.
+     * Повторные и типовые вопросы обслуживаются из in-memory кэша без обращения к провайдеру
+     */
+    public float[] getQueryEmbedding(String query) throws Exception {
+        return await(embedQuery(query));
+    }
+
+    /**
+     * Неблокирующее получение вектора поискового запроса
+     */
+    public Mono<float[]> embedQuery(String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return Mono.error(new IllegalArgumentException("Текст для векторизации не может быть пустым"));
+        }
+
+        return Mono.defer(() -> {
+            String provider = embeddingProvider.toLowerCase();
+            String namespace = provider + ":" + getModelName(provider);
+
+            float[] cached = queryEmbeddingCache.getIfPresent(namespace, query);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return embed(query).doOnNext(vector -> queryEmbeddingCache.put(namespace, query, vector));
+        });
+    }
+
+    /**
+     * Запрос по цепочке провайдеров. Исключенные после серии ошибок адреса пропускаются,
+     * при ошибке запрос уходит следующему. С включенным дублированием следующий провайдер
+     * получает запрос, если текущий не ответил за свой перцентиль задержки.
+     * Результат сохраняется в персистентный кэш под моделью ответившего провайдера
+     */
+    private Mono<float[]> embedWithFailover(String text) {
+        return Mono.defer(() -> embedFrom(availableEndpoints(), 0, text));
+    }
+
+    private Mono<float[]> embedFrom(List<ProviderEndpoint> candidates, int index, String text) {
+        ProviderEndpoint endpoint = candidates.get(index);
+        boolean last = index == candidates.size() - 1;
+        ProviderEndpoint hedge = hedgeEnabled && !last ? candidates.get(index + 1) : null;
+        int next = index + (hedge != null ? 2 : 1);
+
+        Mono<float[]> request = hedge != null
+                ? requestHedged(endpoint, hedge, text, next == candidates.size())
+                : requestTracked(endpoint, text, attemptsFor(last));
+        if (next >= candidates.size()) {
+            return request;
+        }
+
+        return request.onErrorResume(error -> {
+            String failed = candidates.get(next - 1).name;
+            providerHealth.recordFailover(failed);
+            logger.warn("Провайдер {} не ответил ({}), переключаемся на {}",
+                    failed, error.getMessage(), candidates.get(next).name);
+            return embedFrom(candidates, next, text);
+        });
+    }
+
+    /**
+     * Запрос к провайдеру с учетом его состояния и сохранением результата в кэш
+     */
+    private Mono<float[]> requestTracked(ProviderEndpoint endpoint, String text, int attempts) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return requestEmbedding(endpoint, attempts, text)
+                    .doOnNext(vector -> {
+                        providerHealth.recordSuccess(endpoint.name, System.nanoTime() - start);
+                        embeddingCache.put(endpoint.provider, getModelName(endpoint.provider), text, vector);
+                    })
+                    .doOnError(error -> {
+                        if (EmbeddingRateLimiter.isRetryable(error)) {
+                            providerHealth.recordFailure(endpoint.name);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Запрос с дублированием: если основной адрес не ответил за перцентиль своей задержки,
+     * тот же текст отправляется резервному и берется первый успешный ответ, второй запрос отменяется.
+     * Если основной завершился ошибкой раньше, резервный вызывается сразу
+     */
+    private Mono<float[]> requestHedged(ProviderEndpoint endpoint, ProviderEndpoint hedge, String text,
+                                        boolean hedgeIsLast) {
+        return Mono.defer(() -> {
+            long delayMs = providerHealth.getHedgeDelayMs(endpoint.name);
+            Sinks.Empty<Void> primaryFailed = Sinks.empty();
+            AtomicBoolean hedged = new AtomicBoolean();
+
+            Mono<float[]> primary = requestTracked(endpoint, text, attemptsFor(false))
+                    .doOnError(error -> primaryFailed.tryEmitEmpty());
+
+            Mono<Void> slowPrimary = Mono.delay(Duration.ofMillis(delayMs))
+                    .doOnNext(tick -> {
+                        hedged.set(true);
+                        providerHealth.recordHedge(endpoint.name);
+                        logger.debug("Провайдер {} не ответил за {} мс, дублируем запрос на {}",
+                                endpoint.name, delayMs, hedge.name);
+                    })
+                    .then();
+            Mono<Void> failedPrimary = primaryFailed.asMono()
+                    .doOnSuccess(ignored -> providerHealth.recordFailover(endpoint.name));
+
+            Mono<float[]> secondary = Mono.firstWithSignal(slowPrimary, failedPrimary)
+                    .then(Mono.defer(() -> requestTracked(hedge, text, attemptsFor(hedgeIsLast))))
+                    .doOnNext(vector -> {
+                        if (hedged.get()) {
+                            providerHealth.recordHedgeWin(endpoint.name);
+                        }
+                    });
+
+            return Mono.firstWithValue(primary, secondary)
+                    .onErrorMap(EmbeddingService::lastCause);
+        });
+    }
+
+    /**
+     * firstWithValue при ошибке обоих запросов отдает составное исключение - берем последнюю причину
+     */
+    private static Throwable lastCause(Throwable error) {
+        Throwable composite = Exceptions.isMultiple(error) ? error : error.getCause();
+        if (composite != null && Exceptions.isMultiple(composite)) {
+            List<Throwable> causes = Exceptions.unwrapMultiple(composite);
+            return causes.get(causes.size() - 1);
+        }
+        Throwable[] suppressed = error.getSuppressed();
+        return suppressed.length > 0 ? suppressed[suppressed.length - 1] : error;
+    }
+
+    /**
+     * Адреса цепочки, не исключенные после ошибок. Если исключены все, пробуем всю цепочку
+     */
+    private List<ProviderEndpoint> availableEndpoints() {
+        if (endpoints.size() == 1) {
+            return endpoints;
+        }
+        List<ProviderEndpoint> available = new ArrayList<>(endpoints.size());
+        for (ProviderEndpoint endpoint : endpoints) {
+            if (providerHealth.isAvailable(endpoint.name)) {
+                available.add(endpoint);
+            }
+        }
+        return available.isEmpty() ? endpoints : available;
+    }
 
-        switch (embeddingProvider.toLowerCase()) {
+    /**
+     * Перед резервным провайдером повторов меньше, последний в цепочке получает все попытки
+     */
+    private int attemptsFor(boolean last) {
+        return last ? rateLimiter.getMaxAttempts() : Math.max(1, failoverAttempts);
+    }
+
+    private Mono<float[]> requestEmbedding(ProviderEndpoint endpoint, int attempts, String text) {
+        switch (endpoint.provider) {
             case "gemini":
-                return getGeminiEmbedding(truncatedText);
+                return getGeminiEmbedding(endpoint, attempts, text);
             case "openai":
-                return getOpenAIEmbedding(truncatedText);
+                return getOpenAIEmbedding(endpoint, attempts, text);
             case "huggingface":
-                return getHuggingFaceEmbedding(truncatedText);
+                return getHuggingFaceEmbedding(endpoint, attempts, text);
             case "yandex":
-                return getYandexEmbedding(truncatedText);
+                return getYandexEmbedding(endpoint, attempts, text);
+            case LOCAL_PROVIDER:
+                return Mono.fromSupplier(() -> localEmbeddingModel.embed(text));
             default:
-                throw new IllegalArgumentException("Неподдерживаемый провайдер embedding: " + embeddingProvider);
+                return Mono.error(new IllegalArgumentException("Неподдерживаемый провайдер embedding: " + endpoint.provider));
         }
     }
 
     /**
-     * Получение embedding через Google Gemini API
+     * Адрес API провайдера по умолчанию, null для неизвестного провайдера
      */
-    private float[] getGeminiEmbedding(String text) throws Exception {
-        if (geminiApiKey == null || geminiApiKey.trim().isEmpty()) {
-            throw new RuntimeException("Gemini API ключ не настроен. Задайте GEMINI_EMBEDDING_API_KEY");
+    private String getBaseUrl(String provider) {
+        switch (provider) {
+            case "gemini":
+                return geminiBaseUrl;
+            case "openai":
+                return openaiBaseUrl;
+            case "huggingface":
+                return huggingfaceBaseUrl;
+            case "yandex":
+                return yandexBaseUrl;
+            case LOCAL_PROVIDER:
+                return "";
+            default:
+                return null;
         }
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
+    /**
+     * Модель текущего провайдера - входит в ключ кэша, чтобы смена модели не отдавала чужие векторы
+     */
+    private String getModelName(String provider) {
+        switch (provider) {
+            case "gemini":
+                return geminiModel;
+            case "openai":
+                return openaiModel;
+            case "huggingface":
+                return huggingfaceModel;
+            case "yandex":
+                return yandexModel;
+            case LOCAL_PROVIDER:
+                return localEmbeddingModel.getModelName();
+            default:
+                return provider;
+        }
+    }
 
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", geminiModel);
+    /**
+     * Пакетное получение векторных представлений.
+     * Использует пакетные API провайдеров (OpenAI input-массив, Gemini batchEmbedContents,
+     * HuggingFace список inputs). Для Yandex, у которого пакетного API нет, тексты
+     * отправляются одновременно, не более embedding.batch.parallelism запросов.
+     * Ошибка отдельного текста не прерывает обработку остальных - она сохраняется в результате.
+     */
+    public BatchEmbeddingResult getEmbeddings(List<String> texts) {
+        if (texts == null) {
+            throw new IllegalArgumentException("Список текстов для векторизации не может быть null");
+        }
+        return embedBatch(texts).block();
+    }
 
-        Map<String, Object> content = new HashMap<>();
-        content.put("parts", List.of(Map.of("text", text)));
-        requestBody.put("content", content);
+    /**
+     * Векторы текстов в исходном порядке. Завершается ошибкой первого текста,
+     * который не удалось векторизовать - для частичных результатов есть embedBatch
+     */
+    public Flux<float[]> embedAll(List<String> texts) {
+        return embedBatch(texts).flatMapMany(result -> {
+            if (!result.getErrors().isEmpty()) {
+                return Flux.error(result.getErrors().values().iterator().next());
+            }
+            return Flux.fromArray(result.vectors);
+        });
+    }
 
-        // Добавляем task_type для лучшего качества embedding
-        requestBody.put("task_type", geminiTaskType);
+    /**
+     * Неблокирующая пакетная векторизация
+     */
+    public Mono<BatchEmbeddingResult> embedBatch(List<String> texts) {
+        if (texts == null) {
+            return Mono.error(new IllegalArgumentException("Список текстов для векторизации не может быть null"));
+        }
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-        String url = String.format("%s/%s:embedContent?key=%s",
-                geminiBaseUrl, geminiModel, geminiApiKey);
+        return Mono.defer(() -> {
+            BatchEmbeddingResult result = new BatchEmbeddingResult(texts.size());
 
-        logger.debug("Отправка запроса к Gemini API: {}", url.replaceAll("key=.*", "key=***"));
+            String provider = embeddingProvider.toLowerCase();
+            String model = getModelName(provider);
 
-        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
+            // Пустые тексты сразу помечаем ошибкой, найденные в кэше берем оттуда, остальные отправляем провайдеру
+            List<Integer> indexes = new ArrayList<>();
+            List<String> prepared = new ArrayList<>();
+            for (int i = 0; i < texts.size(); i++) {
+                String text = texts.get(i);
+                if (text == null || text.trim().isEmpty()) {
+                    result.setError(i, new IllegalArgumentException("Текст для векторизации не может быть пустым"));
+                    continue;
+                }
 
-        if (response.getStatusCode().is2xxSuccessful()) {
-            JsonNode jsonResponse = objectMapper.readTree(response.getBody());
-            JsonNode embeddingNode = jsonResponse.get("embedding").get("values");
+                String truncatedText = truncate(text);
+                if (LOCAL_PROVIDER.equals(provider)) {
+                    result.setVector(i, localEmbeddingModel.embed(truncatedText));
+                    continue;
+                }
 
-            if (embeddingNode == null || !embeddingNode.isArray()) {
-                throw new RuntimeException("Неожиданный формат ответа от Gemini API");
+                float[] cached = embeddingCache.get(provider, model, truncatedText);
+                if (cached != null) {
+                    result.setVector(i, cached);
+                } else {
+                    indexes.add(i);
+                    prepared.add(truncatedText);
+                }
             }
 
-            float[] vector = new float[embeddingNode.size()];
-            for (int i = 0; i < embeddingNode.size(); i++) {
-                vector[i] = embeddingNode.get(i).floatValue();
+            if (prepared.isEmpty()) {
+                return Mono.just(result);
             }
 
-            logger.debug("Получен Gemini вектор размерности {} для текста длиной {} символов",
-                    vector.length, text.length());
-            return vector;
-        } else {
-            String errorMsg = "Gemini Embedding API error: " + response.getStatusCode();
-            if (response.getBody() != null) {
-                errorMsg += " - " + response.getBody();
+            logger.debug("Пакетное получение embedding через провайдера: {} для {} текстов", provider, prepared.size());
+
+            int concurrency = Math.max(1, batchParallelism);
+            Flux<Outcome> outcomes;
+            if ("yandex".equals(provider)) {
+                outcomes = Flux.range(0, prepared.size())
+                        .flatMap(i -> embedOne(indexes.get(i), prepared.get(i)), concurrency);
+            } else {
+                int effectiveBatchSize = getEffectiveBatchSize(provider);
+                int batches = (prepared.size() + effectiveBatchSize - 1) / effectiveBatchSize;
+                outcomes = Flux.range(0, batches).flatMap(batch -> {
+                    int start = batch * effectiveBatchSize;
+                    int end = Math.min(start + effectiveBatchSize, prepared.size());
+                    return embedSlice(indexes.subList(start, end), prepared.subList(start, end));
+                }, concurrency);
             }
-            throw new RuntimeException(errorMsg);
+
+            // Результаты применяются последовательно: flatMap сериализует сигналы
+            return outcomes
+                    .doOnNext(outcome -> outcome.applyTo(result))
+                    .then(Mono.fromSupplier(() -> {
+                        logger.debug("Пакетная векторизация завершена: {} из {} успешно",
+                                result.getSuccessCount(), result.size());
+                        return result;
+                    }));
+        });
+    }
+
+    /**
+     * Один пакет: пакетный запрос по цепочке, при ошибке из-за содержимого - поштучно
+     */
+    private Flux<Outcome> embedSlice(List<Integer> batchIndexes, List<String> batch) {
+        return batchWithFailover(batch)
+                .flatMapMany(vectors -> Flux.range(0, vectors.length)
+                        .map(i -> Outcome.success(batchIndexes.get(i), vectors[i])))
+                .onErrorResume(e -> {
+                    if (EmbeddingRateLimiter.isRetryable(e)) {
+                        // Провайдер перегружен - поштучные запросы только усугубят ситуацию
+                        logger.warn("Пакетный запрос ({} текстов) отклонен после повторов: {}",
+                                batch.size(), e.getMessage());
+                        return Flux.fromIterable(batchIndexes).map(index -> Outcome.failure(index, e));
+                    }
+                    // Один некорректный текст может отклонить весь пакет - повторяем поштучно
+                    logger.warn("Пакетный запрос ({} текстов) завершился ошибкой: {}. Повторяем поштучно",
+                            batch.size(), e.getMessage());
+                    return Flux.range(0, batch.size())
+                            .concatMap(i -> embedOne(batchIndexes.get(i), batch.get(i)));
+                });
+    }
+
+    private Mono<Outcome> embedOne(int index, String text) {
+        return embedWithFailover(text)
+                .map(vector -> Outcome.success(index, vector))
+                .onErrorResume(e -> Mono.just(Outcome.failure(index, e)));
+    }
+
+    /**
+     * Пакетный запрос по цепочке провайдеров. Дублирование для пакетов не используется -
+     * оно удвоило бы расход квоты при индексации, где задержка не критична
+     */
+    private Mono<float[][]> batchWithFailover(List<String> batch) {
+        return Mono.defer(() -> batchFrom(availableEndpoints(), 0, batch));
+    }
+
+    private Mono<float[][]> batchFrom(List<ProviderEndpoint> candidates, int index, List<String> batch) {
+        ProviderEndpoint endpoint = candidates.get(index);
+        boolean last = index == candidates.size() - 1;
+
+        Mono<float[][]> request = getBatchEmbedding(endpoint, attemptsFor(last), batch)
+                .doOnNext(vectors -> {
+                    // Задержка пакета несопоставима с одиночным запросом и в перцентиль не входит
+                    providerHealth.recordSuccess(endpoint.name, -1);
+                    String model = getModelName(endpoint.provider);
+                    for (int i = 0; i < vectors.length; i++) {
+                        embeddingCache.put(endpoint.provider, model, batch.get(i), vectors[i]);
+                    }
+                })
+                .doOnError(error -> {
+                    if (EmbeddingRateLimiter.isRetryable(error)) {
+                        providerHealth.recordFailure(endpoint.name);
+                    }
+                });
+        if (last) {
+            return request;
+        }
+
+        // Пакет, отклоненный из-за содержимого, другой провайдер тоже не примет
+        return request.onErrorResume(EmbeddingRateLimiter::isRetryable, error -> {
+            providerHealth.recordFailover(endpoint.name);
+            logger.warn("Пакетный запрос к {} не выполнен ({}), переключаемся на {}",
+                    endpoint.name, error.getMessage(), candidates.get(index + 1).name);
+            return batchFrom(candidates, index + 1, batch);
+        });
+    }
+
+    private Mono<float[][]> getBatchEmbedding(ProviderEndpoint endpoint, int attempts, List<String> batch) {
+        switch (endpoint.provider) {
+            case "gemini":
+                return getGeminiEmbeddings(endpoint, attempts, batch);
+            case "openai":
+                return getOpenAIEmbeddings(endpoint, attempts, batch);
+            case "huggingface":
+                return getHuggingFaceEmbeddings(endpoint, attempts, batch);
+            default:
+                // Провайдер без пакетного API в цепочке - по одному тексту
+                return Flux.fromIterable(batch)
+                        .concatMap(text -> requestEmbedding(endpoint, attempts, text))
+                        .collectList()
+                        .map(vectors -> vectors.toArray(new float[0][]));
+        }
+    }
+
+    private int getEffectiveBatchSize(String provider) {
+        int size = Math.max(1, batchSize);
+        switch (provider) {
+            case "gemini":
+                return Math.min(size, GEMINI_MAX_BATCH_SIZE);
+            case "openai":
+                return Math.min(size, OPENAI_MAX_BATCH_SIZE);
+            default:
+                return size;
         }
     }
 
     /**
-     * Получение embedding через OpenAI API (альтернативный метод)
+     * Обрезка текста, не помещающегося в лимит входа модели. Чанки книг подгоняются
+     * под лимит при разбиении, сюда попадают только длинные запросы и внешние тексты
      */
-    private float[] getOpenAIEmbedding(String text) throws Exception {
-        if (openaiApiKey == null || openaiApiKey.trim().isEmpty()) {
-            throw new RuntimeException("OpenAI API ключ не настроен. Задайте OPENAI_EMBEDDING_API_KEY");
+    private String truncate(String text) {
+        // Оценка не дает больше токена на символ - короткие тексты не проверяются
+        if (maxInputTokens == Integer.MAX_VALUE || text.length() <= maxInputTokens
+                || tokenEstimator.estimate(text) <= maxInputTokens) {
+            return text;
+        }
+
+        // Самый длинный префикс в пределах лимита
+        int low = 1;
+        int high = text.length() - 1;
+        int fit = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (tokenEstimator.estimate(text, 0, mid) <= maxInputTokens) {
+                fit = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        logger.warn("Текст длиной {} символов не помещается в лимит {} токенов и обрезан до {} символов",
+                text.length(), maxInputTokens, fit);
+        return text.substring(0, fit);
+    }
+
+    /**
+     * Оценка токенов текста для основной модели
+     */
+    public TokenEstimator getTokenEstimator() {
+        return tokenEstimator;
+    }
+
+    /**
+     * Лимит входа в токенах с запасом на погрешность оценки (Integer.MAX_VALUE - без лимита)
+     */
+    public int getMaxInputTokens() {
+        return maxInputTokens;
+    }
+
+    /**
+     * Оценка токенов по токенизатору провайдера: BPE OpenAI (cl100k) и SentencePiece Gemini
+     * делят кириллицу мельче латиницы, токенизатор Yandex обучен на русском, английский
+     * WordPiece MiniLM разбирает кириллицу почти посимвольно
+     */
+    private TokenEstimator getTokenEstimator(String provider) {
+        switch (provider) {
+            case "openai":
+                return new HeuristicTokenEstimator(4.0, 2.5, 1.5);
+            case "gemini":
+                return new HeuristicTokenEstimator(4.0, 3.0, 1.5);
+            case "yandex":
+                return new HeuristicTokenEstimator(3.5, 3.5, 1.5);
+            case "huggingface":
+                return new HeuristicTokenEstimator(3.5, 1.0, 1.0);
+            default:
+                return TokenEstimator.CHARACTERS;
         }
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(openaiApiKey);
+    private int getMaxInputTokens(String provider) {
+        switch (provider) {
+            case "openai":
+                return OPENAI_MAX_INPUT_TOKENS;
+            case "gemini":
+                return GEMINI_MAX_INPUT_TOKENS;
+            case "yandex":
+                return YANDEX_MAX_INPUT_TOKENS;
+            case "huggingface":
+                return HUGGINGFACE_MAX_INPUT_TOKENS;
+            default:
+                // Локальная модель принимает текст любой длины
+                return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Получение embedding через Google Gemini API
+     */
+    private Mono<float[]> getGeminiEmbedding(ProviderEndpoint endpoint, int attempts, String text) {
+        if (geminiApiKey == null || geminiApiKey.trim().isEmpty()) {
+            return Mono.error(new RuntimeException("Gemini API ключ не настроен. Задайте GEMINI_EMBEDDING_API_KEY"));
+        }
 
         Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", openaiModel);
-        requestBody.put("input", text);
+        requestBody.put("model", geminiModel);
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-        String url = openaiBaseUrl + "/embeddings";
+        Map<String, Object> content = new HashMap<>();
+        content.put("parts", List.of(Map.of("text", text)));
+        requestBody.put("content", content);
 
-        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
+        // Добавляем task_type для лучшего качества embedding
+        requestBody.put("task_type", geminiTaskType);
 
-        if (response.getStatusCode().is2xxSuccessful()) {
-            JsonNode jsonResponse = objectMapper.readTree(response.getBody());
-            JsonNode embeddingNode = jsonResponse.get("data").get(0).get("embedding");
+        // Ключ передается заголовком, чтобы не попадать в URL и сообщения об ошибках
+        String url = String.format("%s/%s:embedContent", endpoint.baseUrl, geminiModel);
 
-            float[] vector = new float[embeddingNode.size()];
-            for (int i = 0; i < embeddingNode.size(); i++) {
-                vector[i] = embeddingNode.get(i).floatValue();
-            }
+        logger.debug("Отправка запроса к Gemini API: {}", url);
 
-            logger.debug("Получен OpenAI вектор размерности {} для текста длиной {} символов",
-                    vector.length, text.length());
-            return vector;
-        } else {
-            String errorMsg = "OpenAI Embedding API error: " + response.getStatusCode();
-            if (response.getBody() != null) {
-                errorMsg += " - " + response.getBody();
-            }
-            throw new RuntimeException(errorMsg);
+        return post(endpoint, attempts, "Gemini Embedding API", url,
+                headers -> headers.set("x-goog-api-key", geminiApiKey), requestBody,
+                responseParser::parseGeminiEmbedding)
+                .doOnNext(vector -> logger.debug("Получен Gemini вектор размерности {} для текста длиной {} символов",
+                        vector.length, text.length()));
+    }
+
+    /**
+     * Получение embedding через OpenAI API (альтернативный метод)
+     */
+    private Mono<float[]> getOpenAIEmbedding(ProviderEndpoint endpoint, int attempts, String text) {
+        if (openaiApiKey == null || openaiApiKey.trim().isEmpty()) {
+            return Mono.error(new RuntimeException("OpenAI API ключ не настроен. Задайте OPENAI_EMBEDDING_API_KEY"));
         }
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", openaiModel);
+        requestBody.put("input", text);
+
+        String url = endpoint.baseUrl + "/embeddings";
+
+        return post(endpoint, attempts, "OpenAI Embedding API", url,
+                headers -> headers.setBearerAuth(openaiApiKey), requestBody,
+                body -> responseParser.parseOpenAI(body, 1)[0])
+                .doOnNext(vector -> logger.debug("Получен OpenAI вектор размерности {} для текста длиной {} символов",
+                        vector.length, text.length()));
     }
 
     /**
      * Получение embedding через HuggingFace API (бесплатная альтернатива)
      */
-    private float[] getHuggingFaceEmbedding(String text) throws Exception {
+    private Mono<float[]> getHuggingFaceEmbedding(ProviderEndpoint endpoint, int attempts, String text) {
         if (huggingfaceApiKey == null || huggingfaceApiKey.trim().isEmpty()) {
-            throw new RuntimeException("HuggingFace API ключ не настроен. Задайте HUGGINGFACE_API_KEY");
+            return Mono.error(new RuntimeException("HuggingFace API ключ не настроен. Задайте HUGGINGFACE_API_KEY"));
         }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(huggingfaceApiKey);
-
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("inputs", text);
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-        String url = huggingfaceBaseUrl + "/models/" + huggingfaceModel;
+        String url = endpoint.baseUrl + "/models/" + huggingfaceModel;
+
+        // HuggingFace возвращает массив векторов или один вектор
+        return post(endpoint, attempts, "HuggingFace API", url,
+                headers -> headers.setBearerAuth(huggingfaceApiKey), requestBody,
+                body -> {
+                    float[][] vectors = responseParser.parseHuggingFace(body);
+                    if (vectors.length == 0) {
+                        throw new IOException("Пустой ответ от HuggingFace API");
+                    }
+                    return vectors[0];
+                })
+                .doOnNext(vector -> logger.debug("Получен HuggingFace вектор размерности {} для текста длиной {} символов",
+                        vector.length, text.length()));
+    }
 
-        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
+    /**
+     * Пакетное получение embedding через Gemini batchEmbedContents
+     */
+    private Mono<float[][]> getGeminiEmbeddings(ProviderEndpoint endpoint, int attempts, List<String> texts) {
+        if (geminiApiKey == null || geminiApiKey.trim().isEmpty()) {
+            return Mono.error(new RuntimeException("Gemini API ключ не настроен. Задайте GEMINI_EMBEDDING_API_KEY"));
+        }
 
-        if (response.getStatusCode().is2xxSuccessful()) {
-            JsonNode jsonResponse = objectMapper.readTree(response.getBody());
+        List<Map<String, Object>> requests = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            Map<String, Object> request = new HashMap<>();
+            request.put("model", geminiModel);
+            request.put("content", Map.of("parts", List.of(Map.of("text", text))));
+            request.put("task_type", geminiTaskType);
+            requests.add(request);
+        }
 
-            // HuggingFace возвращает массив векторов или один вектор
-            JsonNode vectorNode;
-            if (jsonResponse.isArray()) {
-                vectorNode = jsonResponse.get(0);
-            } else {
-                vectorNode = jsonResponse;
-            }
+        String url = String.format("%s/%s:batchEmbedContents", endpoint.baseUrl, geminiModel);
 
-            float[] vector = new float[vectorNode.size()];
-            for (int i = 0; i < vectorNode.size(); i++) {
-                vector[i] = vectorNode.get(i).floatValue();
-            }
+        return post(endpoint, attempts, "Gemini Embedding API", url,
+                headers -> headers.set("x-goog-api-key", geminiApiKey), Map.of("requests", requests),
+                body -> expectCount(responseParser.parseGeminiBatch(body), texts.size(), "Gemini API"));
+    }
 
-            logger.debug("Получен HuggingFace вектор размерности {} для текста длиной {} символов",
-                    vector.length, text.length());
-            return vector;
-        } else {
-            String errorMsg = "HuggingFace API error: " + response.getStatusCode();
-            if (response.getBody() != null) {
-                errorMsg += " - " + response.getBody();
-            }
-            throw new RuntimeException(errorMsg);
+    /**
+     * Пакетное получение embedding через OpenAI (input-массив)
+     */
+    private Mono<float[][]> getOpenAIEmbeddings(ProviderEndpoint endpoint, int attempts, List<String> texts) {
+        if (openaiApiKey == null || openaiApiKey.trim().isEmpty()) {
+            return Mono.error(new RuntimeException("OpenAI API ключ не настроен. Задайте OPENAI_EMBEDDING_API_KEY"));
+        }
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", openaiModel);
+        requestBody.put("input", texts);
+
+        String url = endpoint.baseUrl + "/embeddings";
+
+        // OpenAI возвращает элементы с полем index, порядок восстанавливает парсер
+        return post(endpoint, attempts, "OpenAI Embedding API", url,
+                headers -> headers.setBearerAuth(openaiApiKey), requestBody,
+                body -> responseParser.parseOpenAI(body, texts.size()));
+    }
+
+    /**
+     * Пакетное получение embedding через HuggingFace (список inputs)
+     */
+    private Mono<float[][]> getHuggingFaceEmbeddings(ProviderEndpoint endpoint, int attempts, List<String> texts) {
+        if (huggingfaceApiKey == null || huggingfaceApiKey.trim().isEmpty()) {
+            return Mono.error(new RuntimeException("HuggingFace API ключ не настроен. Задайте HUGGINGFACE_API_KEY"));
+        }
+
+        String url = endpoint.baseUrl + "/models/" + huggingfaceModel;
+
+        // Некоторые модели возвращают вектор на каждый токен - парсер берет первый, как и в одиночном запросе
+        return post(endpoint, attempts, "HuggingFace API", url,
+                headers -> headers.setBearerAuth(huggingfaceApiKey), Map.of("inputs", texts),
+                body -> expectCount(responseParser.parseHuggingFace(body), texts.size(), "HuggingFace API"));
+    }
+
+    private static float[][] expectCount(float[][] vectors, int expected, String apiName) throws IOException {
+        if (vectors.length != expected) {
+            throw new IOException("Неожиданный формат пакетного ответа от " + apiName);
         }
+        return vectors;
     }
 
     /**
      * Получение embedding через Yandex Cloud Foundation Models API
      */
-    private float[] getYandexEmbedding(String text) throws Exception {
+    private Mono<float[]> getYandexEmbedding(ProviderEndpoint endpoint, int attempts, String text) {
         if (yandexApiKey == null || yandexApiKey.trim().isEmpty()) {
-            throw new RuntimeException("Yandex API ключ не настроен. Задайте YANDEX_EMBEDDING_API_KEY");
+            return Mono.error(new RuntimeException("Yandex API ключ не настроен. Задайте YANDEX_EMBEDDING_API_KEY"));
         }
 
         if (yandexFolderId == null || yandexFolderId.trim().isEmpty()) {
-            throw new RuntimeException("Yandex Folder ID не настроен. Задайте YANDEX_FOLDER_ID");
+            return Mono.error(new RuntimeException("Yandex Folder ID не настроен. Задайте YANDEX_FOLDER_ID"));
         }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", "Api-Key " + yandexApiKey);
-
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("modelUri", String.format("emb://%s/%s/latest", yandexFolderId, yandexModel));
         requestBody.put("text", text);
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-        String url = yandexBaseUrl + "/foundationModels/v1/textEmbedding";
+        String url = endpoint.baseUrl + "/foundationModels/v1/textEmbedding";
 
         logger.debug("Отправка запроса к Yandex API: {}", url);
 
-        try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
-
-            if (response.getStatusCode().is2xxSuccessful()) {
-                JsonNode jsonResponse = objectMapper.readTree(response.getBody());
-                JsonNode embeddingNode = jsonResponse.get("embedding");
+        return post(endpoint, attempts, "Yandex Embedding API", url,
+                headers -> headers.set(HttpHeaders.AUTHORIZATION, "Api-Key " + yandexApiKey), requestBody,
+                responseParser::parseYandex)
+                .doOnNext(vector -> logger.debug("Получен Yandex вектор размерности {} для текста длиной {} символов",
+                        vector.length, text.length()))
+                .doOnError(e -> logger.error("Ошибка при обращении к Yandex API: {}", e.getMessage()));
+    }
 
-                if (embeddingNode == null || !embeddingNode.isArray()) {
-                    throw new RuntimeException("Неожиданный формат ответа от Yandex API");
-                }
+    /**
+     * POST-запрос к провайдеру через ограничитель: token bucket, адаптивный параллелизм,
+     * Retry-After и повторы при 429/5xx. Тело ответа читается байтами и разбирается потоково
+     */
+    private <T> Mono<T> post(ProviderEndpoint endpoint, int attempts, String apiName, String url,
+                             Consumer<HttpHeaders> headers, Object requestBody, ResponseDecoder<T> decoder) {
+        return rateLimiter.execute(endpoint.name, attempts, () -> webClient.post()
+                        .uri(URI.create(url))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .headers(headers)
+                        .bodyValue(requestBody)
+                        .retrieve()
+                        .bodyToMono(byte[].class))
+                .switchIfEmpty(Mono.error(() -> new RuntimeException(apiName + " error: пустой ответ")))
+                .handle((body, sink) -> {
+                    try {
+                        sink.next(decoder.decode(body));
+                    } catch (IOException | RuntimeException e) {
+                        sink.error(e);
+                    }
+                });
+    }
 
-                float[] vector = new float[embeddingNode.size()];
-                for (int i = 0; i < embeddingNode.size(); i++) {
-                    vector[i] = embeddingNode.get(i).floatValue();
-                }
+    /**
+     * Разбор тела ответа провайдера
+     */
+    @FunctionalInterface
+    private interface ResponseDecoder<T> {
+        T decode(byte[] body) throws IOException;
+    }
 
-                logger.debug("Получен Yandex вектор размерности {} для текста длиной {} символов",
-                        vector.length, text.length());
-                return vector;
-            } else {
-                String errorMsg = "Yandex Embedding API error: " + response.getStatusCode();
-                if (response.getBody() != null) {
-                    errorMsg += " - " + response.getBody();
-                }
-                throw new RuntimeException(errorMsg);
+    /**
+     * Ожидание результата для синхронных вызовов. Проверяемые исключения Reactor
+     * оборачивает - возвращаем исходные
+     */
+    private static <T> T await(Mono<T> result) throws Exception {
+        try {
+            return result.block();
+        } catch (RuntimeException e) {
+            Throwable cause = Exceptions.unwrap(e);
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
             }
-        } catch (Exception e) {
-            logger.error("Ошибка при обращении к Yandex API: {}", e.getMessage());
             throw e;
         }
     }
@@ -309,8 +975,8 @@ public class EmbeddingService {
      */
     public boolean isEmbeddingServiceAvailable() {
         try {
-            // Тестируем с коротким текстом
-            float[] testVector = getEmbedding("test");
+            // Тестируем с коротким текстом в обход кэша, иначе проверка не затронет провайдера
+            float[] testVector = await(requestEmbedding(endpoints.get(0), rateLimiter.getMaxAttempts(), "test"));
             return testVector != null && testVector.length > 0;
         } catch (Exception e) {
             logger.warn("Embedding сервис недоступен: {}", e.getMessage());
@@ -318,11 +984,23 @@ public class EmbeddingService {
         }
     }
 
+    /**
+     * Идентификатор модели текущего провайдера (provider:model) - векторы разных моделей несовместимы
+     */
+    public String getModelId() {
+        String provider = embeddingProvider.toLowerCase();
+        return provider + ":" + getModelName(provider);
+    }
+
     /**
      * Получение информации о размерности векторов текущего провайдера
      */
     public int getVectorDimensions() {
-        switch (embeddingProvider.toLowerCase()) {
+        return getVectorDimensions(embeddingProvider.toLowerCase());
+    }
+
+    private int getVectorDimensions(String provider) {
+        switch (provider) {
             case "gemini":
                 // text-embedding-004: 768 dimensions
                 // text-embedding-001: 768 dimensions
@@ -337,8 +1015,93 @@ public class EmbeddingService {
                 return 384;
             case "yandex":
                 return 256;
+            case LOCAL_PROVIDER:
+                return localEmbeddingModel.getDimensions();
             default:
                 return 768; // По умолчанию для Gemini
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Адрес провайдера в цепочке. Реплика того же провайдера отличается только base-url
+     */
+    private static final class ProviderEndpoint {
+        private final String provider;
+        private final String baseUrl;
+        // Имя для лимитов и метрик: provider для адреса по умолчанию, provider@url для реплики
+        private final String name;
+
+        ProviderEndpoint(String provider, String baseUrl, String name) {
+            this.provider = provider;
+            this.baseUrl = baseUrl;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Вектор или ошибка одного текста пакета
+     */
+    private static final class Outcome {
+        private final int index;
+        private final float[] vector;
+        private final Exception error;
+
+        private Outcome(int index, float[] vector, Exception error) {
+            this.index = index;
+            this.vector = vector;
+            this.error = error;
+        }
+
+        static Outcome success(int index, float[] vector) {
+            return new Outcome(index, vector, null);
+        }
+
+        static Outcome failure(int index, Throwable error) {
+            return new Outcome(index, null, error instanceof Exception ? (Exception) error : new RuntimeException(error));
+        }
+
+        void applyTo(BatchEmbeddingResult result) {
+            if (vector != null) {
+                result.setVector(index, vector);
+            } else {
+                result.setError(index, error);
+            }
+        }
+    }
+
+    /**
+     * Результат пакетной векторизации: вектор или ошибка для каждого входного текста
+     */
+    public static class BatchEmbeddingResult {
+        private final float[][] vectors;
+        private final Map<Integer, Exception> errors = new LinkedHashMap<>();
+
+        public BatchEmbeddingResult(int size) {
+            this.vectors = new float[size][];
+        }
+
+        void setVector(int index, float[] vector) {
+            vectors[index] = vector;
+            errors.remove(index);
+        }
+
+        void setError(int index, Exception error) {
+            vectors[index] = null;
+            errors.put(index, error);
+        }
+
+        public int size() { return vectors.length; }
+        public float[] getVector(int index) { return vectors[index]; }
+        public boolean isSuccessful(int index) { return vectors[index] != null; }
+        public Exception getError(int index) { return errors.get(index); }
+        public Map<Integer, Exception> getErrors() { return Collections.unmodifiableMap(errors); }
+
+        public int getSuccessCount() {
+            int count = 0;
+            for (float[] vector : vectors) {
+                if (vector != null) count++;
+            }
+            return count;
+        }
+    }
+}
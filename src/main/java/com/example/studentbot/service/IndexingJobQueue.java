@@ -0,0 +1,190 @@
+package com.example.studentbot.service;
+
+import com.example.studentbot.model.BookMetadata;
+import com.example.studentbot.model.IndexingJob;
+import com.example.studentbot.model.User;
+import com.example.studentbot.repository.IndexingJobRepository;
+import com.example.studentbot.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+/**
+ * Очередь заданий индексации в PostgreSQL.
+ *
+ * Задание берется запросом SELECT ... FOR UPDATE SKIP LOCKED и арендуется экземпляром
+ * приложения на visibility-timeout; выполняющий экземпляр продлевает аренду. Если
+ * экземпляр упал, аренда истекает и задание забирает другой. Порядок - по приоритету
+ * тарифа пользователя с поправкой на время ожидания, одновременно у одного пользователя
+ * выполняется не больше max-running-per-user заданий. Неудачные попытки повторяются
+ * с экспоненциальной задержкой.
+ */
+@Service
+public class IndexingJobQueue {
+    private static final Logger logger = LoggerFactory.getLogger(IndexingJobQueue.class);
+
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    @Value("${indexing.jobs.visibility-timeout-seconds:600}")
+    private long visibilityTimeoutSeconds;
+
+    @Value("${indexing.jobs.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${indexing.jobs.backoff-base-seconds:30}")
+    private long backoffBaseSeconds;
+
+    @Value("${indexing.jobs.backoff-max-seconds:3600}")
+    private long backoffMaxSeconds;
+
+    @Value("${indexing.jobs.max-running-per-user:2}")
+    private int maxRunningPerUser;
+
+    @Value("${indexing.jobs.defer-seconds:300}")
+    private long deferSeconds;
+
+    // Ожидание, за которое задание получает один пункт приоритета
+    @Value("${indexing.jobs.aging-seconds:60}")
+    private double agingSeconds;
+
+    private final IndexingJobRepository jobRepository;
+    private final UserRepository userRepository;
+    private final IndexingProgressService progressService;
+
+    public IndexingJobQueue(IndexingJobRepository jobRepository, UserRepository userRepository,
+                            IndexingProgressService progressService) {
+        this.jobRepository = jobRepository;
+        this.userRepository = userRepository;
+        this.progressService = progressService;
+    }
+
+    /**
+     * Поставить книгу в очередь индексации
+     */
+    @Transactional
+    public void enqueue(BookMetadata book) {
+        int priority = priorityOf(book.getUploadedBy());
+        if (jobRepository.enqueue(book.getId(), book.getUploadedBy(), priority) > 0) {
+            logger.info("Книга ID: {} поставлена в очередь индексации с приоритетом {}", book.getId(), priority);
+            progressService.queued(book.getId(), book.getUploadedBy());
+        } else {
+            logger.debug("Книга ID: {} уже в очереди индексации", book.getId());
+        }
+    }
+
+    /**
+     * Поставить книгу в очередь, если у нее еще нет задания
+     */
+    @Transactional
+    public boolean enqueueIfAbsent(BookMetadata book) {
+        if (jobRepository.enqueueIfAbsent(book.getId(), book.getUploadedBy(), priorityOf(book.getUploadedBy())) == 0) {
+            return false;
+        }
+        progressService.queued(book.getId(), book.getUploadedBy());
+        return true;
+    }
+
+    /**
+     * Взять следующее задание в аренду. Блокировка строки держится только до конца транзакции.
+     * Лимит пользователя перепроверяется под блокировкой пользователя: если другой экземпляр
+     * только что взял его задание, ничего не берется до следующего опроса
+     */
+    @Transactional
+    public Optional<IndexingJob> claim(String workerId) {
+        int perUserLimit = Math.max(1, maxRunningPerUser);
+        Optional<IndexingJob> next = jobRepository.findNextForUpdate(perUserLimit, Math.max(1.0, agingSeconds));
+        if (next.isPresent()) {
+            jobRepository.lockUser(next.get().getUserId());
+            if (jobRepository.countLeasedByUser(next.get().getUserId()) >= perUserLimit) {
+                logger.debug("Лимит заданий пользователя {} занят другим экземпляром", next.get().getUserId());
+                return Optional.empty();
+            }
+        }
+        next.ifPresent(job -> {
+            jobRepository.lease(job.getId(), workerId, visibilityTimeoutSeconds);
+            if (job.getStatus() == IndexingJob.Status.RUNNING) {
+                logger.warn("Задание {} книги ID: {} забрано после истечения аренды {}",
+                        job.getId(), job.getBookId(), job.getLockedBy());
+            }
+            job.setAttempts(job.getAttempts() + 1);
+        });
+        return next;
+    }
+
+    /**
+     * Продлить аренду. false - аренда потеряна
+     */
+    @Transactional
+    public boolean heartbeat(IndexingJob job, String workerId) {
+        return jobRepository.extendLease(job.getId(), workerId, visibilityTimeoutSeconds) > 0;
+    }
+
+    @Transactional
+    public void complete(IndexingJob job, String workerId) {
+        if (jobRepository.complete(job.getId(), workerId) == 0) {
+            logger.warn("Задание {} завершено после потери аренды", job.getId());
+        }
+    }
+
+    /**
+     * Отметить неудачную попытку: повтор с задержкой base * 2^(попытка - 1)
+     */
+    @Transactional
+    public void fail(IndexingJob job, String workerId, String error) {
+        int attempt = job.getAttempts();
+        long delay = Math.min(backoffMaxSeconds, backoffBaseSeconds << Math.min(20, Math.max(0, attempt - 1)));
+        if (error != null && error.length() > MAX_ERROR_LENGTH) {
+            error = error.substring(0, MAX_ERROR_LENGTH);
+        }
+        if (jobRepository.fail(job.getId(), workerId, maxAttempts, delay, error) == 0) {
+            // Аренда потеряна - задание выполняет другой экземпляр, его состояние не трогаем
+            logger.warn("Ошибка задания {} книги ID: {} после потери аренды: {}", job.getId(), job.getBookId(), error);
+            return;
+        }
+        if (attempt >= maxAttempts) {
+            logger.error("Задание {} книги ID: {} отклонено после {} попыток: {}",
+                    job.getId(), job.getBookId(), attempt, error);
+            progressService.failed(job.getBookId(), job.getUserId());
+        } else {
+            logger.warn("Задание {} книги ID: {}: попытка {} из {} не удалась, повтор через {} с",
+                    job.getId(), job.getBookId(), attempt, maxAttempts, delay);
+            progressService.queued(job.getBookId(), job.getUserId());
+        }
+    }
+
+    /**
+     * Отложить задание, которое пока нельзя выполнить (например, проекция векторов еще
+     * не обучена): повтор через defer-seconds без расхода попытки
+     */
+    @Transactional
+    public void defer(IndexingJob job, String workerId, String reason) {
+        if (reason != null && reason.length() > MAX_ERROR_LENGTH) {
+            reason = reason.substring(0, MAX_ERROR_LENGTH);
+        }
+        if (jobRepository.defer(job.getId(), workerId, deferSeconds, reason) == 0) {
+            logger.warn("Задание {} отложено после потери аренды", job.getId());
+            return;
+        }
+        logger.info("Задание {} книги ID: {} отложено на {} с: {}", job.getId(), job.getBookId(), deferSeconds, reason);
+        progressService.queued(job.getBookId(), job.getUserId());
+    }
+
+    public long getVisibilityTimeoutSeconds() {
+        return visibilityTimeoutSeconds;
+    }
+
+    private int priorityOf(Long userId) {
+        User.SubscriptionTier tier = userRepository.findById(userId)
+                .map(User::getSubscriptionTier)
+                .orElse(User.SubscriptionTier.FREE);
+        return switch (tier) {
+            case BUSINESS -> 20;
+            case PREMIUM -> 10;
+            case FREE -> 0;
+        };
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.studentbot.service;
+
+import com.example.studentbot.model.BookMetadata;
+import com.example.studentbot.model.IndexingJob;
+import com.example.studentbot.repository.BookMetadataRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Потоки, выполняющие задания из очереди индексации. Каждый поток берет задание,
+ * скачивает книгу из MinIO и индексирует ее; пока задание выполняется, аренда
+ * продлевается каждую треть visibility-timeout. Экземпляров приложения может быть
+ * несколько - задания между ними делит очередь.
+ */
+@Component
+public class IndexingJobWorker {
+    private static final Logger logger = LoggerFactory.getLogger(IndexingJobWorker.class);
+
+    @Value("${indexing.jobs.enabled:true}")
+    private boolean enabled;
+
+    @Value("${indexing.jobs.workers:2}")
+    private int workerCount;
+
+    @Value("${indexing.jobs.poll-interval-ms:2000}")
+    private long pollIntervalMs;
+
+    @Value("${indexing.jobs.max-attempts:5}")
+    private int maxAttempts;
+
+    private final IndexingJobQueue jobQueue;
+    private final IndexingService indexingService;
+    private final BookService bookService;
+    private final BookMetadataRepository bookMetadataRepository;
+
+    private final String workerId;
+    private final List<Thread> threads = new ArrayList<>();
+    private ScheduledExecutorService heartbeats;
+    private volatile boolean running;
+
+    public IndexingJobWorker(IndexingJobQueue jobQueue, IndexingService indexingService, BookService bookService,
+                             BookMetadataRepository bookMetadataRepository) {
+        this.jobQueue = jobQueue;
+        this.indexingService = indexingService;
+        this.bookService = bookService;
+        this.bookMetadataRepository = bookMetadataRepository;
+        this.workerId = hostName() + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            logger.info("Обработка очереди индексации отключена на этом экземпляре");
+            return;
+        }
+        running = true;
+        heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "indexing-job-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 1; i <= Math.max(1, workerCount); i++) {
+            Thread thread = new Thread(this::pollLoop, "indexing-job-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        logger.info("Очередь индексации: {} потоков, экземпляр {}", threads.size(), workerId);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        threads.forEach(Thread::interrupt);
+        if (heartbeats != null) {
+            heartbeats.shutdownNow();
+        }
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                Optional<IndexingJob> job = jobQueue.claim(workerId);
+                if (job.isPresent()) {
+                    process(job.get());
+                } else {
+                    Thread.sleep(pollIntervalMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                // База недоступна - не крутим цикл впустую. Поток не завершается и при Error,
+                // иначе экземпляр молча перестанет брать задания
+                logger.error("Ошибка очереди индексации: {}", e.getMessage(), e);
+                try {
+                    Thread.sleep(pollIntervalMs * 5);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void process(IndexingJob job) {
+        // Задание, на котором экземпляры падали, не берется бесконечно
+        if (job.getAttempts() > maxAttempts) {
+            jobQueue.fail(job, workerId, "Превышено число попыток: экземпляр останавливался во время индексации");
+            return;
+        }
+
+        long period = Math.max(1, jobQueue.getVisibilityTimeoutSeconds() / 3);
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+            try {
+                if (!jobQueue.heartbeat(job, workerId)) {
+                    logger.warn("Аренда задания {} книги ID: {} потеряна", job.getId(), job.getBookId());
+                }
+            } catch (Exception e) {
+                logger.warn("Не удалось продлить аренду задания {}: {}", job.getId(), e.getMessage());
+            }
+        }, period, period, TimeUnit.SECONDS);
+
+        try {
+            Optional<BookMetadata> book = bookMetadataRepository.findById(job.getBookId());
+            // Удаленная владельцем книга индексируется дальше, если ее файл и векторы используют копии
+            if (book.isEmpty() || (book.get().getStatus() == BookMetadata.BookStatus.DELETED
+                    && !bookMetadataRepository.existsByContentBookId(book.get().getId()))) {
+                logger.info("Книга ID: {} удалена, задание {} закрыто", job.getBookId(), job.getId());
+                jobQueue.complete(job, workerId);
+                return;
+            }
+
+            indexingService.indexBook(book.get(), bookService.openBookStream(book.get()));
+            jobQueue.complete(job, workerId);
+        } catch (EmbeddingReducer.ProjectionNotReadyException e) {
+            // Векторы книги добавлены в выборку для PCA, книга проиндексируется после обучения
+            jobQueue.defer(job, workerId, e.getMessage());
+        } catch (Throwable e) {
+            // Error (например, OutOfMemoryError на большой книге) тоже отмечает попытку, иначе
+            // задание висит в RUNNING до истечения аренды
+            logger.error("Ошибка индексации книги ID: {} (задание {}, попытка {}): {}",
+                    job.getBookId(), job.getId(), job.getAttempts(), e.getMessage(), e);
+            try {
+                jobQueue.fail(job, workerId, e.getClass().getSimpleName() + ": " + e.getMessage());
+            } catch (Exception failError) {
+                logger.error("Не удалось отметить ошибку задания {}: {}", job.getId(), failError.getMessage());
+            }
+        } finally {
+            heartbeat.cancel(false);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+}
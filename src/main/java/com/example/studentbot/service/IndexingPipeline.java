@@ -0,0 +1,394 @@
+package com.example.studentbot.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Конвейер индексации книги: извлечение и разбиение -> векторизация -> запись.
+ *
+ * Производитель (извлечение текста и chunker) работает в потоке индексации книги и
+ * отдает пачки чанков в ограниченную очередь. Пачки векторизуют несколько потоков
+ * параллельно, запись идет одним потоком строго в порядке пачек - первая пачка (выборка
+ * для обучения PCA) всегда записывается первой. Число пачек в работе ограничено:
+ * когда лимит исчерпан, производитель ждет, поэтому память не растет с размером книги,
+ * а векторизация и запись идут одновременно с извлечением следующих страниц.
+ *
+ * Метрики: indexing.pipeline.items (пройдено через стадию), indexing.pipeline.stage.duration
+ * (время пачки на стадии), indexing.pipeline.backpressure (ожидание производителя),
+ * indexing.pipeline.queue.depth (пачки перед векторизацией и перед записью).
+ *
+ * Если ни одна стадия не продвигается дольше stall-timeout (поток стадии завис или
+ * погиб), прогон завершается ошибкой, и задание индексации уходит на повтор.
+ */
+@Component
+public class IndexingPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(IndexingPipeline.class);
+
+    private static final long POLL_MS = 200;
+
+    private static final String STAGE_EXTRACT = "extract";
+    private static final String STAGE_EMBED = "embed";
+    private static final String STAGE_UPSERT = "upsert";
+
+    @Value("${indexing.pipeline.embedding-concurrency:2}")
+    private int embeddingConcurrency;
+
+    // Пачек, ожидающих векторизации; столько же может ждать записи
+    @Value("${indexing.pipeline.queue-capacity:2}")
+    private int queueCapacity;
+
+    // Без продвижения хотя бы одной пачки дольше этого прогон считается зависшим
+    @Value("${indexing.pipeline.stall-timeout-ms:900000}")
+    private long stallTimeoutMs;
+
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor;
+
+    private final AtomicInteger embedQueueDepth = new AtomicInteger();
+    private final AtomicInteger upsertQueueDepth = new AtomicInteger();
+    private final AtomicInteger activeBooks = new AtomicInteger();
+    private final Map<String, Counter> itemCounters = new HashMap<>();
+    private final Map<String, Timer> stageTimers = new HashMap<>();
+    private final Timer backpressureTimer;
+
+    public IndexingPipeline(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        // Потоки стадий создаются по требованию: их число ограничено числом книг
+        // в работе (потоки очереди indexing.jobs.workers) и concurrency на книгу
+        this.executor = Executors.newCachedThreadPool(threadFactory());
+
+        for (String stage : List.of(STAGE_EXTRACT, STAGE_EMBED, STAGE_UPSERT)) {
+            itemCounters.put(stage, Counter.builder("indexing.pipeline.items")
+                    .description("Чанков, прошедших стадию конвейера индексации")
+                    .tag("stage", stage).register(meterRegistry));
+        }
+        for (String stage : List.of(STAGE_EMBED, STAGE_UPSERT)) {
+            stageTimers.put(stage, Timer.builder("indexing.pipeline.stage.duration")
+                    .description("Время обработки пачки на стадии")
+                    .tag("stage", stage).register(meterRegistry));
+        }
+        backpressureTimer = Timer.builder("indexing.pipeline.backpressure")
+                .description("Ожидание производителя при заполненном конвейере")
+                .register(meterRegistry);
+        Gauge.builder("indexing.pipeline.queue.depth", embedQueueDepth, AtomicInteger::get)
+                .tag("queue", STAGE_EMBED).register(meterRegistry);
+        Gauge.builder("indexing.pipeline.queue.depth", upsertQueueDepth, AtomicInteger::get)
+                .tag("queue", STAGE_UPSERT).register(meterRegistry);
+        Gauge.builder("indexing.pipeline.books.active", activeBooks, AtomicInteger::get)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Прогон книги через конвейер. Возвращается после записи последней пачки;
+     * ошибка любой стадии останавливает остальные и пробрасывается вызывающему
+     */
+    public <B, E> void run(String name, Producer<B> producer, EmbedStage<B, E> embedStage,
+                           UpsertStage<E> upsertStage) throws Exception {
+        int workers = Math.max(1, embeddingConcurrency);
+        Run<B, E> run = new Run<>(name, workers, Math.max(1, queueCapacity), embedStage, upsertStage);
+
+        activeBooks.incrementAndGet();
+        List<Future<?>> futures = new ArrayList<>(workers + 1);
+        try {
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(run::embedLoop));
+            }
+            Future<?> upsert = executor.submit(run::upsertLoop);
+            futures.add(upsert);
+
+            long start = System.nanoTime();
+            producer.produce(run::emit);
+            run.finishProducing();
+            long produced = System.nanoTime() - start;
+
+            while (true) {
+                try {
+                    upsert.get(POLL_MS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                } catch (TimeoutException e) {
+                    run.throwIfStalled();
+                }
+            }
+            run.throwIfFailed();
+
+            logger.debug("Конвейер {}: {} пачек, извлечение {} мс (из них ожидание {} мс), всего {} мс",
+                    name, run.batches, TimeUnit.NANOSECONDS.toMillis(produced),
+                    TimeUnit.NANOSECONDS.toMillis(run.backpressureNanos),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            run.fail(e);
+            throw run.failureOr(e);
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            run.releaseGauges();
+            activeBooks.decrementAndGet();
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "indexing-pipeline-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Производитель пачек: извлечение текста и разбиение на чанки
+     */
+    @FunctionalInterface
+    public interface Producer<B> {
+        void produce(Emitter<B> emitter) throws Exception;
+    }
+
+    /**
+     * Передача пачки в конвейер. Блокируется, пока в работе слишком много пачек
+     */
+    @FunctionalInterface
+    public interface Emitter<B> {
+        void emit(B batch, int items) throws Exception;
+    }
+
+    /**
+     * Векторизация пачки. Вызывается из нескольких потоков одновременно
+     */
+    @FunctionalInterface
+    public interface EmbedStage<B, E> {
+        E embed(B batch) throws Exception;
+    }
+
+    /**
+     * Запись векторизованной пачки, вызывается из одного потока в порядке пачек.
+     * Возвращает число записанных чанков
+     */
+    @FunctionalInterface
+    public interface UpsertStage<E> {
+        int upsert(E embedded) throws Exception;
+    }
+
+    /**
+     * Состояние прогона одной книги
+     */
+    private final class Run<B, E> {
+        private final String name;
+        private final EmbedStage<B, E> embedStage;
+        private final UpsertStage<E> upsertStage;
+
+        private final BlockingQueue<Item<B>> embedQueue;
+        private final Semaphore inFlight;
+        private final Map<Integer, Item<E>> completed = new HashMap<>();
+
+        private int batches;
+        private volatile boolean producing = true;
+        private volatile long backpressureNanos;
+        private volatile Exception failure;
+        private volatile long lastProgressNanos = System.nanoTime();
+
+        // Вклад прогона в общие gauge очередей - снимается при завершении
+        private final AtomicInteger embedQueued = new AtomicInteger();
+        private final AtomicInteger upsertQueued = new AtomicInteger();
+
+        Run(String name, int workers, int capacity, EmbedStage<B, E> embedStage, UpsertStage<E> upsertStage) {
+            this.name = name;
+            this.embedStage = embedStage;
+            this.upsertStage = upsertStage;
+            this.embedQueue = new ArrayBlockingQueue<>(capacity);
+            // В очереди на векторизацию, в векторизации и в ожидании записи
+            this.inFlight = new Semaphore(capacity + workers + capacity);
+        }
+
+        void emit(B batch, int items) throws Exception {
+            long start = System.nanoTime();
+            while (!inFlight.tryAcquire(POLL_MS, TimeUnit.MILLISECONDS)) {
+                throwIfStalled();
+            }
+            // Очередь может быть занята, если потоки векторизации остановлены ошибкой
+            Item<B> item = new Item<>(batches, batch, items);
+            while (!embedQueue.offer(item, POLL_MS, TimeUnit.MILLISECONDS)) {
+                throwIfStalled();
+            }
+            batches++;
+            progressed();
+            long waited = System.nanoTime() - start;
+            backpressureNanos += waited;
+            backpressureTimer.record(waited, TimeUnit.NANOSECONDS);
+
+            itemCounters.get(STAGE_EXTRACT).increment(items);
+            embedQueued.incrementAndGet();
+            embedQueueDepth.incrementAndGet();
+        }
+
+        void finishProducing() {
+            synchronized (this) {
+                producing = false;
+                notifyAll();
+            }
+        }
+
+        void embedLoop() {
+            try {
+                while (failure == null) {
+                    Item<B> item = embedQueue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                    if (item == null) {
+                        if (!producing && embedQueue.isEmpty()) {
+                            return;
+                        }
+                        continue;
+                    }
+                    embedQueued.decrementAndGet();
+                    embedQueueDepth.decrementAndGet();
+
+                    Timer.Sample sample = Timer.start(meterRegistry);
+                    E embedded = embedStage.embed(item.value);
+                    sample.stop(stageTimers.get(STAGE_EMBED));
+                    itemCounters.get(STAGE_EMBED).increment(item.items);
+
+                    synchronized (this) {
+                        completed.put(item.sequence, new Item<>(item.sequence, embedded, item.items));
+                        progressed();
+                        upsertQueued.incrementAndGet();
+                        upsertQueueDepth.incrementAndGet();
+                        notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                fail(asException(STAGE_EMBED, e));
+            }
+        }
+
+        void upsertLoop() {
+            try {
+                for (int sequence = 0; ; sequence++) {
+                    Item<E> item;
+                    synchronized (this) {
+                        while (!completed.containsKey(sequence)) {
+                            throwIfStalled();
+                            if (!producing && sequence >= batches) {
+                                return;
+                            }
+                            wait(POLL_MS);
+                        }
+                        item = completed.remove(sequence);
+                        upsertQueued.decrementAndGet();
+                        upsertQueueDepth.decrementAndGet();
+                    }
+
+                    Timer.Sample sample = Timer.start(meterRegistry);
+                    int stored = upsertStage.upsert(item.value);
+                    sample.stop(stageTimers.get(STAGE_UPSERT));
+                    itemCounters.get(STAGE_UPSERT).increment(stored);
+                    progressed();
+                    inFlight.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                fail(asException(STAGE_UPSERT, e));
+            }
+        }
+
+        /**
+         * Error (например, OutOfMemoryError) тоже останавливает прогон, иначе остальные
+         * стадии ждали бы пачку погибшего потока
+         */
+        private Exception asException(String stage, Throwable e) {
+            return e instanceof Exception ? (Exception) e
+                    : new IllegalStateException("Ошибка стадии " + stage + " конвейера " + name + ": " + e, e);
+        }
+
+        private void progressed() {
+            lastProgressNanos = System.nanoTime();
+        }
+
+        /**
+         * Ошибка стадии или отсутствие продвижения дольше stall-timeout
+         */
+        void throwIfStalled() throws Exception {
+            throwIfFailed();
+            long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastProgressNanos);
+            if (stallTimeoutMs > 0 && idleMs > stallTimeoutMs) {
+                fail(new TimeoutException("Конвейер " + name + " не продвигается " + idleMs + " мс"));
+                throwIfFailed();
+            }
+        }
+
+        void fail(Exception e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                    logger.debug("Конвейер {} остановлен: {}", name, e.getMessage());
+                }
+                notifyAll();
+            }
+        }
+
+        void throwIfFailed() throws Exception {
+            Exception current = failure;
+            if (current != null) {
+                throw current;
+            }
+        }
+
+        Exception failureOr(Exception fallback) {
+            Exception current = failure;
+            return current != null ? current : fallback;
+        }
+
+        void releaseGauges() {
+            embedQueueDepth.addAndGet(-embedQueued.getAndSet(0));
+            upsertQueueDepth.addAndGet(-upsertQueued.getAndSet(0));
+        }
+    }
+
+    private static final class Item<T> {
+        private final int sequence;
+        private final T value;
+        private final int items;
+
+        Item(int sequence, T value, int items) {
+            this.sequence = sequence;
+            this.value = value;
+            this.items = items;
+        }
+    }
+}
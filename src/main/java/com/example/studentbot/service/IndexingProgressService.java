@@ -0,0 +1,379 @@
+package com.example.studentbot.service;
+
+import com.example.studentbot.dto.IndexingProgressDto;
+import com.example.studentbot.model.BookMetadata;
+import com.example.studentbot.model.BookMetadata.IndexingState;
+import com.example.studentbot.repository.BookMetadataRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Прогресс индексации книг и его трансляция в Mini App через SSE.
+ *
+ * Смена этапа сохраняется в базу и отправляется подписчикам сразу - таких событий
+ * несколько на книгу. Счетчики чанков меняются часто, поэтому накапливаются в памяти:
+ * подписчикам уходит последнее значение раз в publish-interval, общее число чанков
+ * пишется в базу не чаще persist-interval (число записанных чанков уже хранит
+ * контрольная точка индексации). Книги, которые индексирует другой экземпляр,
+ * подписчики видят по периодическому чтению из базы.
+ */
+@Service
+public class IndexingProgressService {
+    private static final Logger logger = LoggerFactory.getLogger(IndexingProgressService.class);
+
+    @Value("${indexing.progress.publish-interval-ms:1000}")
+    private long publishIntervalMs;
+
+    @Value("${indexing.progress.persist-interval-ms:10000}")
+    private long persistIntervalMs;
+
+    // Чтение прогресса из базы для подписчиков (книги других экземпляров)
+    @Value("${indexing.progress.refresh-interval-ms:5000}")
+    private long refreshIntervalMs;
+
+    @Value("${indexing.progress.sse-timeout-ms:1800000}")
+    private long sseTimeoutMs;
+
+    // Комментарий в поток, чтобы прокси не закрывали простаивающее соединение
+    @Value("${indexing.progress.keepalive-ms:15000}")
+    private long keepaliveMs;
+
+    @Value("${indexing.progress.max-streams-per-user:4}")
+    private int maxStreamsPerUser;
+
+    private final BookMetadataRepository bookMetadataRepository;
+
+    // Книги, которые индексируются на этом экземпляре
+    private final Map<Long, Progress> active = new ConcurrentHashMap<>();
+    private final Map<Long, List<Stream>> streams = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+    private long lastRefresh;
+    private long lastKeepalive;
+
+    public IndexingProgressService(BookMetadataRepository bookMetadataRepository) {
+        this.bookMetadataRepository = bookMetadataRepository;
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "indexing-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(100, publishIntervalMs);
+        scheduler.scheduleWithFixedDelay(this::flush, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        streams.values().forEach(list -> list.forEach(stream -> stream.emitter.complete()));
+        streams.clear();
+    }
+
+    /**
+     * Книга поставлена в очередь (впервые или для повтора после ошибки)
+     */
+    public void queued(Long bookId, Long userId) {
+        transition(bookId, userId, IndexingState.QUEUED, null, null);
+    }
+
+    /**
+     * Начато извлечение текста. chunksDone - чанки, уже записанные до контрольной точки
+     */
+    public void extracting(BookMetadata book, int chunksDone) {
+        transition(book.getId(), book.getUploadedBy(), IndexingState.EXTRACTING, chunksDone, chunksDone);
+    }
+
+    /**
+     * Извлечено chunksTotal чанков, извлечение продолжается
+     */
+    public void chunksExtracted(Long bookId, int chunksTotal) {
+        count(bookId, null, chunksTotal);
+    }
+
+    /**
+     * Текст извлечен полностью, остались векторизация и запись
+     */
+    public void embedding(BookMetadata book, int chunksTotal) {
+        transition(book.getId(), book.getUploadedBy(), IndexingState.EMBEDDING, null, chunksTotal);
+    }
+
+    /**
+     * Чанки 0..chunksDone-1 записаны в Qdrant
+     */
+    public void chunksStored(Long bookId, int chunksDone) {
+        count(bookId, chunksDone, null);
+    }
+
+    /**
+     * Книга доступна для поиска
+     */
+    public void indexed(BookMetadata book, int chunksTotal) {
+        transition(book.getId(), book.getUploadedBy(), IndexingState.INDEXED, chunksTotal, chunksTotal);
+    }
+
+    /**
+     * Индексация отклонена окончательно
+     */
+    public void failed(Long bookId, Long userId) {
+        transition(bookId, userId, IndexingState.FAILED, null, null);
+    }
+
+    /**
+     * Поток событий прогресса всех книг пользователя. Сразу после подключения
+     * отправляется текущее состояние каждой книги, затем - только изменения
+     */
+    public SseEmitter subscribe(Long userId) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        Stream stream = new Stream(userId, emitter);
+        emitter.onCompletion(() -> remove(stream));
+        emitter.onTimeout(() -> remove(stream));
+        emitter.onError(error -> remove(stream));
+
+        List<Stream> userStreams = streams.compute(userId, (id, list) -> {
+            List<Stream> result = list != null ? list : new CopyOnWriteArrayList<>();
+            result.add(stream);
+            return result;
+        });
+        // Лишние потоки - обычно вкладки, закрытые без отключения
+        while (userStreams.size() > Math.max(1, maxStreamsPerUser)) {
+            Stream oldest = userStreams.get(0);
+            remove(oldest);
+            oldest.emitter.complete();
+        }
+
+        for (IndexingProgressDto event : snapshot(userId)) {
+            if (!stream.send(event)) {
+                break;
+            }
+        }
+        return emitter;
+    }
+
+    /**
+     * Текущий прогресс книг пользователя: для книг этого экземпляра - из памяти, для остальных - из базы
+     */
+    public List<IndexingProgressDto> snapshot(Long userId) {
+        List<IndexingProgressDto> result = new ArrayList<>();
+        for (BookMetadata book : bookMetadataRepository.findByUploadedBy(userId)) {
+            if (book.getStatus() == BookMetadata.BookStatus.DELETED) {
+                continue;
+            }
+            Progress local = active.get(book.getId());
+            if (local != null) {
+                synchronized (local) {
+                    result.add(local.toDto());
+                }
+            } else {
+                result.add(toDto(book));
+            }
+        }
+        return result;
+    }
+
+    private static IndexingProgressDto toDto(BookMetadata book) {
+        IndexingState state = book.getIndexingState();
+        if (state == null) {
+            // Книги, загруженные до появления этапов
+            state = Boolean.FALSE.equals(book.getIndexingComplete()) ? IndexingState.QUEUED : IndexingState.INDEXED;
+        }
+        return new IndexingProgressDto(book.getId(), state.name(), book.getIndexedChunks(), book.getTotalChunks());
+    }
+
+    private void transition(Long bookId, Long userId, IndexingState state, Integer done, Integer total) {
+        Progress progress = active.computeIfAbsent(bookId, id -> new Progress(id, userId));
+        IndexingProgressDto event;
+        synchronized (progress) {
+            progress.state = state;
+            if (done != null) {
+                progress.done = done;
+            }
+            if (total != null) {
+                progress.total = total;
+                progress.persistedTotal = total;
+                progress.persistedAt = System.currentTimeMillis();
+            }
+            progress.dirty = false;
+            event = progress.toDto();
+        }
+        // На этом экземпляре отслеживаются только книги в работе, остальное берется из базы
+        if (state != IndexingState.EXTRACTING && state != IndexingState.EMBEDDING) {
+            active.remove(bookId, progress);
+        }
+
+        try {
+            bookMetadataRepository.updateIndexingState(bookId, state);
+            if (total != null) {
+                bookMetadataRepository.updateTotalChunks(bookId, total);
+            }
+        } catch (Exception e) {
+            logger.warn("Не удалось сохранить этап индексации {} книги ID: {}: {}", state, bookId, e.getMessage());
+        }
+        publish(userId, event);
+    }
+
+    private void count(Long bookId, Integer done, Integer total) {
+        Progress progress = active.get(bookId);
+        if (progress == null) {
+            return;
+        }
+        synchronized (progress) {
+            if (done != null) {
+                progress.done = done;
+            }
+            if (total != null) {
+                progress.total = progress.total != null ? Math.max(progress.total, total) : total;
+            }
+            progress.dirty = true;
+        }
+    }
+
+    /**
+     * Отправка накопленных изменений подписчикам и отложенная запись общего числа чанков
+     */
+    private void flush() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Progress progress : active.values()) {
+                IndexingProgressDto event = null;
+                Integer persistTotal = null;
+                synchronized (progress) {
+                    if (progress.dirty) {
+                        progress.dirty = false;
+                        event = progress.toDto();
+                    }
+                    if (progress.total != null && !progress.total.equals(progress.persistedTotal)
+                            && now - progress.persistedAt >= persistIntervalMs) {
+                        persistTotal = progress.total;
+                        progress.persistedTotal = progress.total;
+                        progress.persistedAt = now;
+                    }
+                }
+                if (event != null) {
+                    publish(progress.userId, event);
+                }
+                if (persistTotal != null) {
+                    bookMetadataRepository.updateTotalChunks(progress.bookId, persistTotal);
+                }
+            }
+
+            if (!streams.isEmpty() && now - lastRefresh >= refreshIntervalMs) {
+                lastRefresh = now;
+                for (Long userId : streams.keySet()) {
+                    snapshot(userId).forEach(event -> publish(userId, event));
+                }
+            }
+
+            if (now - lastKeepalive >= keepaliveMs) {
+                lastKeepalive = now;
+                streams.values().forEach(list -> list.forEach(stream -> {
+                    if (!stream.keepalive()) {
+                        remove(stream);
+                    }
+                }));
+            }
+        } catch (Exception e) {
+            logger.warn("Ошибка отправки прогресса индексации: {}", e.getMessage());
+        }
+    }
+
+    private void publish(Long userId, IndexingProgressDto event) {
+        List<Stream> userStreams = streams.get(userId);
+        if (userStreams == null) {
+            return;
+        }
+        for (Stream stream : userStreams) {
+            if (!stream.send(event)) {
+                remove(stream);
+            }
+        }
+    }
+
+    private void remove(Stream stream) {
+        streams.computeIfPresent(stream.userId, (id, list) -> {
+            list.remove(stream);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    /**
+     * Прогресс книги, индексируемой на этом экземпляре
+     */
+    private static final class Progress {
+        private final Long bookId;
+        private final Long userId;
+        private IndexingState state;
+        private Integer done;
+        private Integer total;
+        private boolean dirty;
+        private Integer persistedTotal;
+        private long persistedAt;
+
+        Progress(Long bookId, Long userId) {
+            this.bookId = bookId;
+            this.userId = userId;
+        }
+
+        IndexingProgressDto toDto() {
+            return new IndexingProgressDto(bookId, state.name(), done, total);
+        }
+    }
+
+    /**
+     * SSE-подключение пользователя. Повторно одно и то же состояние книги не отправляется
+     */
+    private static final class Stream {
+        private final Long userId;
+        private final SseEmitter emitter;
+        private final Map<Long, IndexingProgressDto> sent = new HashMap<>();
+
+        Stream(Long userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+
+        synchronized boolean send(IndexingProgressDto event) {
+            if (event.equals(sent.get(event.getBookId()))) {
+                return true;
+            }
+            try {
+                emitter.send(SseEmitter.event().name("progress").data(event, MediaType.APPLICATION_JSON));
+                sent.put(event.getBookId(), event);
+                return true;
+            } catch (Exception e) {
+                // Клиент отключился
+                return false;
+            }
+        }
+
+        synchronized boolean keepalive() {
+            try {
+                emitter.send(SseEmitter.event().comment("keepalive"));
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+}
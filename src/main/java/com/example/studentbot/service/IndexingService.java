@@ -1,16 +1,18 @@
 package com.example.studentbot.service;
 
 import com.example.studentbot.model.BookMetadata;
+import com.example.studentbot.repository.BookMetadataRepository;
+import com.example.studentbot.utils.NearDuplicateFilter;
+import com.example.studentbot.utils.PointIds;
+import com.example.studentbot.utils.TextChunker;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.poi.xwpf.extractor.XWPFWordExtractor;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 
@@ -22,12 +24,23 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 @Service
 public class IndexingService {
     private static final Logger logger = LoggerFactory.getLogger(IndexingService.class);
 
+    // Идентификаторов точек в одном запросе удаления
+    private static final int DELETE_BATCH_POINTS = 1000;
+
     private final EmbeddingService embeddingService;
+    private final QdrantCollectionLayout collectionLayout;
+    private final EmbeddingReducer embeddingReducer;
+    private final PdfTextExtractor pdfTextExtractor;
+    private final DocxTextExtractor docxTextExtractor;
+    private final IndexingPipeline indexingPipeline;
+    private final BookMetadataRepository bookMetadataRepository;
+    private final IndexingProgressService progressService;
     private WebClient webClient;
 
     @Value("${qdrant.host:localhost}")
@@ -40,18 +53,84 @@ public class IndexingService {
     private String collectionName;
 
     @Value("${qdrant.vector.size:256}")
-    private int vectorSize;
+    private volatile int vectorSize;
 
     @Value("${qdrant.api-key:}")
     private String apiKey;
 
-    // Оптимизированные размеры чанков
-    private static final int CHUNK_SIZE = 150;
-    private static final int CHUNK_OVERLAP = 50;
-    private static final int MAX_CHUNK_LENGTH = 600;
+    // Приводить существующую коллекцию к настроенной раскладке (квантование, on_disk, HNSW)
+    @Value("${qdrant.collection.migrate-layout:false}")
+    private boolean migrateLayout;
+
+    // Повторные проходы по чанкам, не получившим вектор из-за перегрузки провайдера
+    @Value("${indexing.embedding.retry-passes:3}")
+    private int embeddingRetryPasses;
+
+    @Value("${indexing.embedding.retry-delay-ms:5000}")
+    private long embeddingRetryDelayMs;
+
+    // Бюджет чанка и перекрытия в токенах модели; чанк не больше лимита входа провайдера
+    @Value("${indexing.chunk.max-tokens:320}")
+    private int chunkMaxTokens;
+
+    @Value("${indexing.chunk.overlap-tokens:32}")
+    private int chunkOverlapTokens;
+
+    // Чанков в одной пачке векторизации и записи в Qdrant
+    @Value("${indexing.batch-chunks:256}")
+    private int indexingBatchChunks;
+
+    // Лимиты одного запроса upsert: пачка векторизации делится на запросы по числу точек и размеру JSON
+    @Value("${qdrant.upsert.batch-points:128}")
+    private int upsertBatchPoints;
+
+    @Value("${qdrant.upsert.batch-bytes:4194304}")
+    private long upsertBatchBytes;
+
+    // false - Qdrant подтверждает прием без ожидания применения, применение проверяется в конце книги
+    @Value("${qdrant.upsert.wait:true}")
+    private boolean upsertWait;
 
-    public IndexingService(EmbeddingService embeddingService) {
+    @Value("${qdrant.upsert.retries:3}")
+    private int upsertRetries;
+
+    @Value("${qdrant.upsert.confirm-timeout-ms:60000}")
+    private long upsertConfirmTimeoutMs;
+
+    // Повторная индексация векторизует только новые и измененные чанки (по хэшу текста)
+    @Value("${indexing.incremental.enabled:true}")
+    private boolean incrementalIndexing;
+
+    // Точек в одном запросе при чтении сохраненных чанков книги
+    @Value("${indexing.incremental.scroll-points:1000}")
+    private int incrementalScrollPoints;
+
+    // Почти одинаковые чанки книги (колонтитулы, копирайт, оглавление на каждой странице)
+    // не векторизуются; порог - число различающихся бит SimHash из 64
+    @Value("${indexing.dedup.enabled:true}")
+    private boolean dedupEnabled;
+
+    @Value("${indexing.dedup.max-hamming-distance:3}")
+    private int dedupMaxDistance;
+
+    private final Counter duplicateChunksCounter;
+
+    public IndexingService(EmbeddingService embeddingService, QdrantCollectionLayout collectionLayout,
+                           EmbeddingReducer embeddingReducer, PdfTextExtractor pdfTextExtractor,
+                           DocxTextExtractor docxTextExtractor, IndexingPipeline indexingPipeline,
+                           BookMetadataRepository bookMetadataRepository,
+                           IndexingProgressService progressService, MeterRegistry meterRegistry) {
         this.embeddingService = embeddingService;
+        this.collectionLayout = collectionLayout;
+        this.embeddingReducer = embeddingReducer;
+        this.pdfTextExtractor = pdfTextExtractor;
+        this.docxTextExtractor = docxTextExtractor;
+        this.indexingPipeline = indexingPipeline;
+        this.bookMetadataRepository = bookMetadataRepository;
+        this.progressService = progressService;
+        this.duplicateChunksCounter = Counter.builder("indexing.chunks.deduplicated")
+                .description("Чанки, не векторизованные как почти-дубликаты других чанков книги")
+                .register(meterRegistry);
     }
 
     @PostConstruct
@@ -63,8 +142,8 @@ public class IndexingService {
                     .build();
             logger.info("WebClient создан для Qdrant: http://{}:{}", qdrantHost, qdrantPort);
 
-            // проверяем реальную размерность векторов от EmbeddingService
-            int embeddingDimensions = embeddingService.getVectorDimensions();
+            // проверяем реальную размерность векторов от EmbeddingService с учетом понижения размерности
+            int embeddingDimensions = embeddingReducer.getOutputDimensions(embeddingService.getVectorDimensions());
             if (vectorSize != embeddingDimensions) {
                 logger.warn("ВНИМАНИЕ: Настроенная размерность векторов ({}) не соответствует размерности провайдера embedding ({}). " +
                         "Обновляем размерность до {}.", vectorSize, embeddingDimensions, embeddingDimensions);
@@ -80,6 +159,7 @@ public class IndexingService {
                 logger.info("Коллекция {} успешно создана", collectionName);
             } else {
                 logger.info("Коллекция {} уже существует", collectionName);
+                migrateCollectionLayout();
             }
 
         } catch (Exception e) {
@@ -106,12 +186,7 @@ public class IndexingService {
      * Создание коллекции через REST API
      */
     private CompletableFuture<Void> createCollection() {
-        Map<String, Object> createRequest = Map.of(
-                "vectors", Map.of(
-                        "size", vectorSize,
-                        "distance", "Cosine"
-                )
-        );
+        Map<String, Object> createRequest = collectionLayout.createRequest(vectorSize);
 
         return webClient.put()
                 .uri("/collections/{collection_name}", collectionName)
@@ -123,69 +198,586 @@ public class IndexingService {
                 .toFuture();
     }
 
-    @Async
-    public void processAndIndexBook(BookMetadata metadata, InputStream bookStream) {
-        if (webClient == null) {
-            logger.error("WebClient не инициализирован. Индексация книги ID: {} пропущена", metadata.getId());
+    /**
+     * Сравнение раскладки существующей коллекции с настройками. Отличия применяются
+     * через PATCH, если разрешена миграция: Qdrant перестраивает сегменты в фоне,
+     * коллекция остается доступной для поиска и записи, повторная индексация книг не нужна
+     */
+    private void migrateCollectionLayout() throws Exception {
+        JsonNode info = webClient.get()
+                .uri("/collections/{collection_name}", collectionName)
+                .headers(this::addApiKeyHeader)
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .toFuture()
+                .get();
+
+        JsonNode config = info != null ? info.path("result").path("config") : null;
+        if (config == null || config.isMissingNode()) {
+            logger.warn("Не удалось получить конфигурацию коллекции {}", collectionName);
+            return;
+        }
+
+        int existingSize = config.path("params").path("vectors").path("size").asInt(vectorSize);
+        if (existingSize != vectorSize) {
+            logger.warn("Размерность векторов коллекции {} ({}) отличается от текущей ({}). " +
+                    "Размерность меняется только пересозданием коллекции", collectionName, existingSize, vectorSize);
+        }
+
+        List<String> differences = new ArrayList<>();
+        Map<String, Object> patch = collectionLayout.migrationPatch(config, differences);
+        if (patch.isEmpty()) {
             return;
         }
 
+        if (!migrateLayout) {
+            logger.warn("Раскладка коллекции {} отличается от настроенной: {}. " +
+                    "Для миграции включите qdrant.collection.migrate-layout", collectionName, differences);
+            return;
+        }
+
+        logger.info("Миграция раскладки коллекции {}: {}", collectionName, differences);
+        webClient.patch()
+                .uri("/collections/{collection_name}", collectionName)
+                .headers(this::addApiKeyHeader)
+                .bodyValue(patch)
+                .retrieve()
+                .toBodilessEntity()
+                .toFuture()
+                .get();
+        logger.info("Коллекция {} обновлена, оптимизатор Qdrant перестроит сегменты в фоне", collectionName);
+    }
+
+    /**
+     * Индексация книги в текущем потоке. Если у книги есть контрольная точка той же
+     * модели, уже записанные чанки не векторизуются повторно. Идентификаторы точек
+     * детерминированы, поэтому повторная индексация перезаписывает точки на месте, а после
+     * записи всех пачек удаляются лишние: хвост за последним чанком и векторы прежних
+     * моделей. Книга отмечается проиндексированной только после этого; ошибка
+     * пробрасывается вызывающему (очереди заданий) для повтора
+     */
+    public void indexBook(BookMetadata metadata, InputStream bookStream) throws Exception {
+        if (webClient == null) {
+            closeQuietly(bookStream);
+            throw new IllegalStateException("WebClient Qdrant не инициализирован");
+        }
+
         long startTime = System.currentTimeMillis();
         logger.info("Начало индексации книги ID: {} типа: {}", metadata.getId(), metadata.getFileType());
 
-        try {
-            String text = extractTextFromFile(bookStream, metadata.getFileType());
-            if (text == null || text.trim().isEmpty()) {
+        // Поток закрывается в любом случае - при загрузке большого файла за ним стоит временный файл
+        try (bookStream) {
+            long fileSize = metadata.getFileSize() != null ? metadata.getFileSize() : -1;
+            int resumeFrom = prepareResume(metadata);
+            long existingPoints = resumeFrom > 0
+                    ? countPoints(currentPointsFilter(metadata.getId(), resumeFrom, indexingModelId())) : 0;
+            progressService.extracting(metadata, resumeFrom);
+
+            Map<String, StoredChunk> storedChunks = incrementalIndexing
+                    ? loadStoredChunks(metadata.getId(), indexingModelId()) : Map.of();
+            BookIndexer indexer = new BookIndexer(metadata, resumeFrom, storedChunks);
+            // Извлечение, векторизация и запись пачек идут одновременно
+            indexingPipeline.run("книга " + metadata.getId(),
+                    emitter -> indexer.produce(bookStream, fileSize, emitter),
+                    indexer::embed, indexer::upsert);
+            if (!indexer.supported) {
+                deleteStalePoints(metadata.getId(), 0);
+                bookMetadataRepository.setIndexingComplete(metadata.getId(), true);
+                progressService.indexed(metadata, 0);
+                return;
+            }
+
+            if (indexer.chunkCount == 0) {
                 logger.warn("Не удалось извлечь текст из книги ID: {}", metadata.getId());
+                deleteStalePoints(metadata.getId(), 0);
+                bookMetadataRepository.setIndexingComplete(metadata.getId(), true);
+                progressService.indexed(metadata, 0);
                 return;
             }
 
-            logger.info("Извлечено {} символов из книги ID: {}", text.length(), metadata.getId());
+            logger.info("Книга ID: {} разбита на {} чанков", metadata.getId(), indexer.chunkCount);
+            if (resumeFrom > 0) {
+                logger.info("Книга ID: {}: продолжена с чанка {}, {} чанков не векторизовались повторно",
+                        metadata.getId(), resumeFrom, Math.min(resumeFrom, indexer.chunkCount));
+            }
+            if (indexer.unchangedChunks > 0 || indexer.reusedChunks > 0) {
+                logger.info("Книга ID: {}: {} чанков не изменились, {} перемещенных чанков взяли сохраненный вектор",
+                        metadata.getId(), indexer.unchangedChunks, indexer.reusedChunks);
+            }
+            if (!indexer.duplicateIndices.isEmpty()) {
+                int duplicates = indexer.duplicateIndices.size();
+                logger.info("Книга ID: {}: пропущено {} почти-дубликатов из {} чанков - " +
+                                "сэкономлено {} векторизаций и {} точек",
+                        metadata.getId(), duplicates, indexer.chunkCount, indexer.duplicatesSkipped, duplicates);
+            }
+            // Перемещенные чанки с сохраненным вектором входят в storedChunks
+            long coveredChunks = Math.min(resumeFrom, indexer.chunkCount) + indexer.unchangedChunks
+                    + indexer.duplicatesSkipped + indexer.storedChunks;
+            if (coveredChunks < indexer.chunkCount) {
+                // Контрольная точка стоит на первом невекторизованном чанке - повтор задания
+                // продолжит с него, записанные после него чанки найдутся как неизмененные
+                throw new IllegalStateException("Не удалось создать векторы для "
+                        + (indexer.chunkCount - coveredChunks) + " из " + indexer.chunkCount
+                        + " чанков книги ID: " + metadata.getId());
+            }
+            deleteStalePoints(metadata.getId(), indexer.chunkCount);
+            deleteChunkPoints(metadata.getId(), indexer.duplicateIndices);
+            if (indexer.storedChunks > 0) {
+                if (!upsertWait) {
+                    confirmStored(metadata.getId(), existingPoints + indexer.unchangedChunks + indexer.storedChunks);
+                }
+                logger.info("Успешно сохранено {} из {} векторов для книги ID: {}",
+                        indexer.storedChunks, indexer.chunkCount - resumeFrom, metadata.getId());
+            }
+            bookMetadataRepository.setIndexingComplete(metadata.getId(), true);
+            progressService.indexed(metadata, indexer.chunkCount);
 
-            List<String> chunks = splitTextIntoChunks(text);
-            logger.info("Книга ID: {} разбита на {} чанков", metadata.getId(), chunks.size());
+        } finally {
+            long duration = System.currentTimeMillis() - startTime;
+            logger.info("Индексация книги ID: {} завершена за {} мс", metadata.getId(), duration);
+        }
+    }
 
-            List<Map<String, Object>> points = new ArrayList<>();
-            int successfulChunks = 0;
+    /**
+     * Номер чанка, с которого продолжается индексация. Точки с этого номера, записанные
+     * после последней контрольной точки, перезаписываются по тем же идентификаторам.
+     * Если векторы записаны другой моделью или проекцией, книга индексируется заново,
+     * прежние векторы остаются в поиске до замены
+     */
+    private int prepareResume(BookMetadata metadata) throws Exception {
+        int resumeFrom = 0;
+        Integer indexed = metadata.getIndexedChunks();
+        if (indexed != null && indexed > 0) {
+            if (indexingModelId().equals(metadata.getIndexingModel())) {
+                resumeFrom = indexed;
+            } else {
+                logger.info("Книга ID: {}: векторы записаны моделью {}, текущая {} - индексация заново",
+                        metadata.getId(), metadata.getIndexingModel(), indexingModelId());
+            }
+        }
+        return resumeFrom;
+    }
+
+    /**
+     * Модель и проекция векторов для контрольной точки
+     */
+    private String indexingModelId() {
+        String projectionId = embeddingReducer.getProjectionId();
+        return embeddingService.getModelId() + (projectionId != null ? "/" + projectionId : "");
+    }
+
+    /**
+     * Стадии конвейера для одной книги: разбиение текста на пачки чанков, векторизация
+     * пачки и запись ее в Qdrant. Первая пачка книги, пока проекция PCA не обучена,
+     * собирается размером с выборку для обучения.
+     *
+     * При повторной индексации чанк, который с тем же текстом и страницами уже записан
+     * под своим номером, пропускается. Чанк, текст которого записан под другим номером
+     * (до него вставили или удалили текст), получает сохраненный вектор без обращения
+     * к провайдеру. Векторизуются только новые и измененные чанки.
+     * Почти-дубликаты ранее встреченных чанков книги (NearDuplicateFilter) не записываются
+     */
+    private final class BookIndexer {
+        private final BookMetadata metadata;
+        private List<TextChunker.TextChunk> pending = new ArrayList<>();
+        private IndexingPipeline.Emitter<List<TextChunker.TextChunk>> emitter;
+        private int emittedBatches;
+
+        private final int resumeFrom;
+        private final Map<String, StoredChunk> previous;
+        private final NearDuplicateFilter duplicates;
+
+        private boolean supported = true;
+        private int chunkCount;
+        private int storedChunks;
+        private int unchangedChunks;
+        private int reusedChunks;
+        // Номера пропущенных почти-дубликатов; duplicatesSkipped - из них после контрольной точки
+        private final List<Integer> duplicateIndices = new ArrayList<>();
+        private int duplicatesSkipped;
+        // После первого невекторизованного чанка контрольная точка больше не сдвигается
+        private boolean embeddingFailed;
+
+        BookIndexer(BookMetadata metadata, int resumeFrom, Map<String, StoredChunk> previous) {
+            this.metadata = metadata;
+            this.resumeFrom = resumeFrom;
+            this.previous = previous;
+            this.duplicates = dedupEnabled ? new NearDuplicateFilter(dedupMaxDistance) : null;
+        }
+
+        void produce(InputStream bookStream, long fileSize,
+                     IndexingPipeline.Emitter<List<TextChunker.TextChunk>> emitter) throws Exception {
+            this.emitter = emitter;
+            TextChunker chunker = new TextChunker(this::accept, embeddingService.getTokenEstimator(),
+                    Math.min(chunkMaxTokens, embeddingService.getMaxInputTokens()), chunkOverlapTokens);
+            supported = extractText(bookStream, metadata.getFileType(), fileSize, chunker);
+            if (!supported) {
+                return;
+            }
+            chunker.finish();
+            emitPending();
+            chunkCount = chunker.getChunkCount();
+            progressService.embedding(metadata, chunkCount);
+        }
+
+        private void accept(TextChunker.TextChunk chunk) throws Exception {
+            progressService.chunksExtracted(metadata.getId(), chunk.getIndex() + 1);
+            // Проверяются все чанки с начала книги, чтобы после продолжения набор
+            // пропущенных совпадал с первым проходом
+            if (duplicates != null && duplicates.isDuplicate(chunk.getText())) {
+                duplicateIndices.add(chunk.getIndex());
+                if (chunk.getIndex() >= resumeFrom) {
+                    duplicatesSkipped++;
+                    duplicateChunksCounter.increment();
+                }
+                return;
+            }
+            // Чанки до контрольной точки уже записаны. Разбиение детерминировано, поэтому
+            // текст извлекается с начала, а пропускается только векторизация
+            if (chunk.getIndex() < resumeFrom) {
+                Integer cursorPage = metadata.getIndexingCursorPage();
+                if (chunk.getIndex() == resumeFrom - 1 && cursorPage != null && cursorPage != chunk.getEndPage()) {
+                    logger.warn("Книга ID: {}: чанк {} заканчивается на странице {}, в контрольной точке {}. " +
+                                    "Разбиение изменилось, на стыке возможны повторы текста",
+                            metadata.getId(), chunk.getIndex(), chunk.getEndPage(), cursorPage);
+                }
+                return;
+            }
+            if (!previous.isEmpty()) {
+                StoredChunk stored = previous.get(chunk.getContentHash());
+                if (stored != null && stored.index == chunk.getIndex()
+                        && stored.startPage == chunk.getStartPage() && stored.endPage == chunk.getEndPage()) {
+                    unchangedChunks++;
+                    return;
+                }
+            }
+            pending.add(chunk);
+            int batchSize = emittedBatches == 0
+                    ? Math.max(indexingBatchChunks, embeddingReducer.getTrainingSampleSize())
+                    : indexingBatchChunks;
+            if (pending.size() >= batchSize) {
+                emitPending();
+            }
+        }
+
+        private void emitPending() throws Exception {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<TextChunker.TextChunk> batch = pending;
+            pending = new ArrayList<>();
+            emittedBatches++;
+            emitter.emit(batch, batch.size());
+        }
+
+        EmbeddedBatch embed(List<TextChunker.TextChunk> chunks) throws Exception {
+            float[][] storedVectors = previous.isEmpty() ? new float[chunks.size()][] : storedVectors(chunks);
 
+            List<String> texts = new ArrayList<>(chunks.size());
+            List<Integer> positions = new ArrayList<>(chunks.size());
             for (int i = 0; i < chunks.size(); i++) {
-                String chunk = chunks.get(i);
-                try {
-                    float[] vector = embeddingService.getEmbedding(chunk);
-
-                    // проверяем размерность от реального вектора
-                    if (vector.length != vectorSize) {
-                        logger.warn("Размерность полученного вектора {} не соответствует ожидаемой {}. " +
-                                "Обновляем конфигурацию размерности.", vector.length, vectorSize);
-                        // Обновляем vectorSize для следующих операций
-                        vectorSize = vector.length;
+                if (storedVectors[i] == null) {
+                    texts.add(chunks.get(i).getText());
+                    positions.add(i);
+                }
+            }
+            if (positions.size() == chunks.size()) {
+                return new EmbeddedBatch(chunks, embedChunks(texts, metadata.getId()), storedVectors);
+            }
+
+            EmbeddingService.BatchEmbeddingResult result = new EmbeddingService.BatchEmbeddingResult(chunks.size());
+            if (!texts.isEmpty()) {
+                EmbeddingService.BatchEmbeddingResult embedded = embedChunks(texts, metadata.getId());
+                for (int i = 0; i < positions.size(); i++) {
+                    if (embedded.isSuccessful(i)) {
+                        result.setVector(positions.get(i), embedded.getVector(i));
+                    } else {
+                        result.setError(positions.get(i), embedded.getError(i));
+                    }
+                }
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                if (storedVectors[i] != null) {
+                    result.setVector(i, storedVectors[i]);
+                }
+            }
+            return new EmbeddedBatch(chunks, result, storedVectors);
+        }
+
+        /**
+         * Сохраненные векторы чанков пачки, текст которых уже записан в книге. Вектор
+         * берется, только если точка все еще хранит тот же текст - ее могла перезаписать
+         * предыдущая пачка этой же индексации
+         */
+        private float[][] storedVectors(List<TextChunker.TextChunk> chunks) throws Exception {
+            float[][] vectors = new float[chunks.size()][];
+            Map<String, List<Integer>> wanted = new LinkedHashMap<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                StoredChunk stored = previous.get(chunks.get(i).getContentHash());
+                if (stored != null) {
+                    wanted.computeIfAbsent(stored.pointId, id -> new ArrayList<>()).add(i);
+                }
+            }
+            if (wanted.isEmpty()) {
+                return vectors;
+            }
+
+            for (JsonNode point : retrievePoints(wanted.keySet())) {
+                List<Integer> positions = wanted.get(point.path("id").asText());
+                JsonNode vector = point.path("vector");
+                if (positions == null || !vector.isArray() || vector.size() != vectorSize) {
+                    continue;
+                }
+                String hash = point.path("payload").path("content_hash").asText();
+                float[] values = null;
+                for (int position : positions) {
+                    if (!hash.equals(chunks.get(position).getContentHash())) {
+                        continue;
                     }
+                    if (values == null) {
+                        values = new float[vector.size()];
+                        for (int d = 0; d < values.length; d++) {
+                            values[d] = (float) vector.get(d).asDouble();
+                        }
+                    }
+                    vectors[position] = values;
+                }
+            }
+            return vectors;
+        }
 
-                    points.add(createPoint(vector, metadata, chunk, i));
-                    successfulChunks++;
+        int upsert(EmbeddedBatch batch) throws Exception {
+            List<TextChunker.TextChunk> chunks = batch.chunks;
+            EmbeddingService.BatchEmbeddingResult embeddings = batch.embeddings;
+
+            if (embeddingReducer.isEnabled()) {
+                List<float[]> sample = new ArrayList<>(embeddings.getSuccessCount());
+                for (int i = 0; i < chunks.size(); i++) {
+                    if (embeddings.isSuccessful(i) && batch.storedVectors[i] == null) {
+                        sample.add(embeddings.getVector(i));
+                    }
+                }
+                embeddingReducer.fitIfNeeded(metadata.getId(), sample);
+            }
+            String projectionId = embeddingReducer.getProjectionId();
+            String modelId = indexingModelId();
 
-                } catch (Exception e) {
+            // Точки отправляются запросами ограниченного размера по мере набора
+            List<Map<String, Object>> points = new ArrayList<>();
+            long pointsBytes = 0;
+            int stored = 0;
+            int firstFailed = -1;
+            for (int i = 0; i < chunks.size(); i++) {
+                TextChunker.TextChunk chunk = chunks.get(i);
+                if (!embeddings.isSuccessful(i)) {
+                    Exception error = embeddings.getError(i);
                     logger.warn("Не удалось получить вектор для чанка {} книги ID: {}. Ошибка: {}",
-                            i, metadata.getId(), e.getMessage());
+                            chunk.getIndex(), metadata.getId(), error != null ? error.getMessage() : "нет данных");
+                    if (firstFailed < 0) {
+                        firstFailed = i;
+                    }
+                    continue;
+                }
+
+                // Сохраненный вектор уже записан в текущей проекции
+                float[] vector;
+                if (batch.storedVectors[i] != null) {
+                    vector = batch.storedVectors[i];
+                    reusedChunks++;
+                } else {
+                    vector = embeddingReducer.reduce(embeddings.getVector(i));
+                }
+
+                // проверяем размерность от реального вектора
+                if (vector.length != vectorSize) {
+                    logger.warn("Размерность полученного вектора {} не соответствует ожидаемой {}. " +
+                            "Обновляем конфигурацию размерности.", vector.length, vectorSize);
+                    // Обновляем vectorSize для следующих операций
+                    vectorSize = vector.length;
+                }
+
+                long pointBytes = estimatePointBytes(vector, chunk, metadata);
+                if (!points.isEmpty() && (points.size() >= upsertBatchPoints
+                        || pointsBytes + pointBytes > upsertBatchBytes)) {
+                    stored += storePoints(points);
+                    points = new ArrayList<>();
+                    pointsBytes = 0;
                 }
+                points.add(createPoint(vector, metadata, chunk, projectionId, modelId));
+                pointsBytes += pointBytes;
             }
+            stored += storePoints(points);
 
-            if (!points.isEmpty()) {
-                upsertPoints(points).get();
-                logger.info("Успешно сохранено {} из {} векторов для книги ID: {}",
-                        successfulChunks, chunks.size(), metadata.getId());
-            } else {
-                logger.error("Не удалось создать ни одного вектора для книги ID: {}", metadata.getId());
+            // Пачки записываются по порядку - все чанки до последнего в пачке уже в Qdrant,
+            // если ни один не остался без вектора. Иначе точка ставится перед первым таким чанком
+            TextChunker.TextChunk last = chunks.get(chunks.size() - 1);
+            if (!embeddingFailed) {
+                TextChunker.TextChunk checkpoint = firstFailed < 0 ? last
+                        : firstFailed > 0 ? chunks.get(firstFailed - 1) : null;
+                if (checkpoint != null) {
+                    bookMetadataRepository.saveIndexingCheckpoint(metadata.getId(), checkpoint.getIndex() + 1,
+                            checkpoint.getEndPage(), modelId);
+                }
+                embeddingFailed = firstFailed >= 0;
             }
+            progressService.chunksStored(metadata.getId(), last.getIndex() + 1);
+            return stored;
+        }
 
-        } catch (Exception e) {
-            logger.error("Ошибка при индексации книги ID: {}: {}", metadata.getId(), e.getMessage(), e);
-        } finally {
-            long duration = System.currentTimeMillis() - startTime;
-            logger.info("Индексация книги ID: {} завершена за {} мс", metadata.getId(), duration);
+        private int storePoints(List<Map<String, Object>> points) throws Exception {
+            if (points.isEmpty()) {
+                return 0;
+            }
+            upsertWithRetry(points, metadata.getId());
+            storedChunks += points.size();
+            logger.debug("Книга ID: {}: сохранено {} векторов", metadata.getId(), storedChunks);
+            return points.size();
         }
     }
 
+    /**
+     * Пачка чанков с результатом векторизации. storedVectors - векторы, взятые из
+     * сохраненных точек книги (null для векторизованных заново)
+     */
+    private static final class EmbeddedBatch {
+        private final List<TextChunker.TextChunk> chunks;
+        private final EmbeddingService.BatchEmbeddingResult embeddings;
+        private final float[][] storedVectors;
+
+        EmbeddedBatch(List<TextChunker.TextChunk> chunks, EmbeddingService.BatchEmbeddingResult embeddings,
+                      float[][] storedVectors) {
+            this.chunks = chunks;
+            this.embeddings = embeddings;
+            this.storedVectors = storedVectors;
+        }
+    }
+
+    /**
+     * Чанк, записанный в коллекции при прошлой индексации
+     */
+    private static final class StoredChunk {
+        private final String pointId;
+        private final int index;
+        private final int startPage;
+        private final int endPage;
+
+        StoredChunk(String pointId, int index, int startPage, int endPage) {
+            this.pointId = pointId;
+            this.index = index;
+            this.startPage = startPage;
+            this.endPage = endPage;
+        }
+    }
+
+    /**
+     * Хэши чанков книги, записанных моделью modelId. Читаются только поля payload без
+     * векторов; точки без хэша (записанные до его появления) не учитываются
+     */
+    private Map<String, StoredChunk> loadStoredChunks(Long bookId, String modelId) throws Exception {
+        Map<String, StoredChunk> stored = new HashMap<>();
+        Object offset = null;
+        do {
+            Map<String, Object> scrollRequest = new HashMap<>();
+            scrollRequest.put("filter", currentPointsFilter(bookId, Integer.MAX_VALUE, modelId));
+            scrollRequest.put("limit", incrementalScrollPoints);
+            scrollRequest.put("with_payload", List.of("chunk_index", "content_hash", "page_start", "page_end"));
+            scrollRequest.put("with_vector", false);
+            if (offset != null) {
+                scrollRequest.put("offset", offset);
+            }
+
+            JsonNode result = webClient.post()
+                    .uri("/collections/{collection_name}/points/scroll", collectionName)
+                    .headers(this::addApiKeyHeader)
+                    .bodyValue(scrollRequest)
+                    .retrieve()
+                    .bodyToMono(JsonNode.class)
+                    .toFuture()
+                    .get()
+                    .path("result");
+
+            for (JsonNode point : result.path("points")) {
+                JsonNode payload = point.path("payload");
+                String hash = payload.path("content_hash").asText(null);
+                if (hash != null) {
+                    stored.putIfAbsent(hash, new StoredChunk(point.path("id").asText(),
+                            payload.path("chunk_index").asInt(), payload.path("page_start").asInt(0),
+                            payload.path("page_end").asInt(0)));
+                }
+            }
+
+            JsonNode next = result.path("next_page_offset");
+            offset = next.isNumber() ? (Object) next.asLong() : next.isTextual() ? next.asText() : null;
+        } while (offset != null);
+
+        if (!stored.isEmpty()) {
+            logger.info("Книга ID: {}: найдено {} сохраненных чанков, векторизуются только новые и измененные",
+                    bookId, stored.size());
+        }
+        return stored;
+    }
+
+    /**
+     * Точки по идентификаторам вместе с векторами и хэшем текста
+     */
+    private JsonNode retrievePoints(Collection<String> ids) throws Exception {
+        Map<String, Object> retrieveRequest = Map.of(
+                "ids", new ArrayList<>(ids),
+                "with_payload", List.of("content_hash"),
+                "with_vector", true
+        );
+        return webClient.post()
+                .uri("/collections/{collection_name}/points", collectionName)
+                .headers(this::addApiKeyHeader)
+                .bodyValue(retrieveRequest)
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .toFuture()
+                .get()
+                .path("result");
+    }
+
+    /**
+     * Векторизация чанков с повторными проходами по временным ошибкам (429, 5xx, сеть),
+     * чтобы перегрузка провайдера не приводила к потере чанков
+     */
+    private EmbeddingService.BatchEmbeddingResult embedChunks(List<String> chunks, Long bookId)
+            throws InterruptedException {
+        EmbeddingService.BatchEmbeddingResult result = embeddingService.getEmbeddings(chunks);
+
+        for (int pass = 1; pass <= embeddingRetryPasses; pass++) {
+            List<Integer> retryIndexes = new ArrayList<>();
+            for (Map.Entry<Integer, Exception> error : result.getErrors().entrySet()) {
+                if (EmbeddingRateLimiter.isRetryable(error.getValue())) {
+                    retryIndexes.add(error.getKey());
+                }
+            }
+            if (retryIndexes.isEmpty()) {
+                break;
+            }
+
+            logger.info("Книга ID: {}: повторный проход {} для {} чанков после временных ошибок провайдера",
+                    bookId, pass, retryIndexes.size());
+            Thread.sleep(embeddingRetryDelayMs * pass);
+
+            List<String> retryChunks = new ArrayList<>(retryIndexes.size());
+            for (Integer index : retryIndexes) {
+                retryChunks.add(chunks.get(index));
+            }
+
+            EmbeddingService.BatchEmbeddingResult retried = embeddingService.getEmbeddings(retryChunks);
+            for (int i = 0; i < retryIndexes.size(); i++) {
+                if (retried.isSuccessful(i)) {
+                    result.setVector(retryIndexes.get(i), retried.getVector(i));
+                } else {
+                    result.setError(retryIndexes.get(i), retried.getError(i));
+                }
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Добавление точек в коллекцию через REST API
      */
@@ -193,7 +785,10 @@ public class IndexingService {
         Map<String, Object> upsertRequest = Map.of("points", points);
 
         return webClient.put()
-                .uri("/collections/{collection_name}/points", collectionName)
+                .uri(uriBuilder -> uriBuilder
+                        .path("/collections/{collection_name}/points")
+                        .queryParam("wait", upsertWait)
+                        .build(collectionName))
                 .headers(this::addApiKeyHeader)
                 .bodyValue(upsertRequest)
                 .retrieve()
@@ -203,135 +798,214 @@ public class IndexingService {
     }
 
     /**
-     * Извлечение текста из файла в зависимости от его типа
+     * Запись точек с повторами при временных ошибках Qdrant, чтобы сбой одного запроса
+     * не терял уже полученные векторы
      */
-    private String extractTextFromFile(InputStream fileStream, String contentType) throws Exception {
-        switch (contentType) {
-            case "application/pdf":
-                return extractTextFromPdf(fileStream);
-            case "application/vnd.openxmlformats-officedocument.wordprocessingml.document":
-                return extractTextFromDocx(fileStream);
-            case "text/plain":
-                return extractTextFromTxt(fileStream);
-            default:
-                logger.warn("Неподдерживаемый тип файла: {}", contentType);
-                return null;
+    private void upsertWithRetry(List<Map<String, Object>> points, Long bookId) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                upsertPoints(points).get();
+                return;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (attempt >= upsertRetries || !EmbeddingRateLimiter.isRetryable(cause)) {
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+                long delay = 500L << attempt;
+                logger.warn("Книга ID: {}: ошибка записи {} точек в Qdrant ({}), повтор через {} мс",
+                        bookId, points.size(), cause.getMessage(), delay);
+                Thread.sleep(delay);
+            }
         }
     }
 
-    private String extractTextFromPdf(InputStream pdfStream) throws Exception {
-        try (PDDocument document = PDDocument.load(pdfStream)) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            return stripper.getText(document);
+    /**
+     * Подтверждение записи при wait=false: ожидание, пока все точки книги станут видны в коллекции
+     */
+    private void confirmStored(Long bookId, long expected) throws Exception {
+        long deadline = System.currentTimeMillis() + upsertConfirmTimeoutMs;
+        long count;
+        while (true) {
+            count = countPoints(bookFilter(bookId));
+            if (count >= expected) {
+                logger.debug("Книга ID: {}: Qdrant применил все {} точек", bookId, count);
+                return;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                break;
+            }
+            Thread.sleep(500);
         }
+        logger.warn("Книга ID: {}: за {} мс применено {} из {} точек, остальные появятся в поиске позже",
+                bookId, upsertConfirmTimeoutMs, count, expected);
     }
 
-    private String extractTextFromDocx(InputStream docxStream) throws Exception {
-        try (XWPFDocument document = new XWPFDocument(docxStream);
-             XWPFWordExtractor extractor = new XWPFWordExtractor(document)) {
-            return extractor.getText();
-        }
+    /**
+     * Точное число точек в коллекции по фильтру
+     */
+    private long countPoints(Map<String, Object> filter) throws Exception {
+        Map<String, Object> countRequest = Map.of("filter", filter, "exact", true);
+        JsonNode response = webClient.post()
+                .uri("/collections/{collection_name}/points/count", collectionName)
+                .headers(this::addApiKeyHeader)
+                .bodyValue(countRequest)
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .toFuture()
+                .get();
+        return response.path("result").path("count").asLong();
     }
 
-    private String extractTextFromTxt(InputStream txtStream) throws IOException {
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(txtStream, StandardCharsets.UTF_8))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
-            }
+    /**
+     * Замена точек книги: после записи chunkCount чанков текущей моделью удаляются точки
+     * с номерами от chunkCount (книга стала короче) и точки других моделей, включая
+     * записанные до детерминированных идентификаторов. chunkCount = 0 - удаление всех точек книги
+     */
+    public void deleteStalePoints(Long bookId, int chunkCount) throws Exception {
+        Map<String, Object> filter;
+        if (chunkCount <= 0) {
+            filter = bookFilter(bookId);
+        } else {
+            filter = Map.of(
+                    "must", List.of(bookCondition(bookId)),
+                    "should", List.of(
+                            Map.of("key", "chunk_index", "range", Map.of("gte", chunkCount)),
+                            Map.of("must_not", List.of(modelCondition(indexingModelId())))
+                    )
+            );
         }
-        return content.toString();
+        webClient.post()
+                .uri("/collections/{collection_name}/points/delete?wait=true", collectionName)
+                .headers(this::addApiKeyHeader)
+                .bodyValue(Map.of("filter", filter))
+                .retrieve()
+                .toBodilessEntity()
+                .toFuture()
+                .get();
     }
 
     /**
-     * Улучшенное разделение текста на чанки
+     * Удаление точек чанков книги по номерам - чанков, которые при прошлой индексации
+     * были записаны, а теперь пропущены как почти-дубликаты
      */
-    private List<String> splitTextIntoChunks(String text) {
-        List<String> chunks = new ArrayList<>();
-
-        // Сначала разбиваем по предложениям
-        String[] sentences = text.split("(?<=[.!?])\\s+");
-        StringBuilder currentChunk = new StringBuilder();
-        int currentLength = 0;
-
-        for (String sentence : sentences) {
-            // Если добавление предложения превысит лимит, сохраняем текущий чанк
-            if (currentLength + sentence.length() > MAX_CHUNK_LENGTH && currentChunk.length() > 0) {
-                chunks.add(currentChunk.toString().trim());
-
-                // Начинаем новый чанк с перекрытием (последние несколько предложений)
-                String overlap = getLastSentences(currentChunk.toString(), CHUNK_OVERLAP);
-                currentChunk = new StringBuilder(overlap);
-                currentLength = overlap.length();
+    private void deleteChunkPoints(Long bookId, List<Integer> chunkIndices) throws Exception {
+        String modelId = indexingModelId();
+        for (int from = 0; from < chunkIndices.size(); from += DELETE_BATCH_POINTS) {
+            List<String> ids = new ArrayList<>();
+            for (int index : chunkIndices.subList(from, Math.min(chunkIndices.size(), from + DELETE_BATCH_POINTS))) {
+                ids.add(PointIds.chunkPointId(bookId, index, modelId));
             }
-
-            currentChunk.append(sentence).append(" ");
-            currentLength += sentence.length() + 1;
+            webClient.post()
+                    .uri("/collections/{collection_name}/points/delete?wait=true", collectionName)
+                    .headers(this::addApiKeyHeader)
+                    .bodyValue(Map.of("points", ids))
+                    .retrieve()
+                    .toBodilessEntity()
+                    .toFuture()
+                    .get();
         }
+    }
 
-        // Добавляем последний чанк если он не пустой
-        if (currentChunk.length() > 0) {
-            chunks.add(currentChunk.toString().trim());
-        }
+    private static Map<String, Object> bookFilter(Long bookId) {
+        return Map.of("must", List.of(bookCondition(bookId)));
+    }
 
-        // Если чанков слишком мало, используем старый метод разделения по словам
-        if (chunks.size() < 2 && text.length() > MAX_CHUNK_LENGTH) {
-            return splitTextByWords(text);
-        }
+    /**
+     * Точки книги, записанные моделью modelId, с номерами чанков меньше belowChunk
+     */
+    private static Map<String, Object> currentPointsFilter(Long bookId, int belowChunk, String modelId) {
+        return Map.of("must", List.of(
+                bookCondition(bookId),
+                modelCondition(modelId),
+                Map.of("key", "chunk_index", "range", Map.of("lt", belowChunk))
+        ));
+    }
 
-        return chunks;
+    private static Map<String, Object> bookCondition(Long bookId) {
+        return Map.of("key", "book_id", "match", Map.of("value", bookId.intValue()));
     }
 
-    private String getLastSentences(String text, int overlapLength) {
-        if (text.length() <= overlapLength) return text;
+    private static Map<String, Object> modelCondition(String modelId) {
+        return Map.of("key", "indexing_model", "match", Map.of("value", modelId));
+    }
 
-        String overlap = text.substring(Math.max(0, text.length() - overlapLength));
-        int lastSentence = Math.max(
-                Math.max(overlap.lastIndexOf('.'), overlap.lastIndexOf('!')),
-                overlap.lastIndexOf('?')
-        );
+    /**
+     * Оценка размера точки в JSON запроса: числа вектора и текст (кириллица - 2 байта на символ)
+     */
+    private static long estimatePointBytes(float[] vector, TextChunker.TextChunk chunk, BookMetadata metadata) {
+        String title = metadata.getTitle();
+        return 256L + vector.length * 12L + chunk.getText().length() * 2L
+                + (title != null ? title.length() * 2L : 0);
+    }
 
-        if (lastSentence > 0) {
-            return overlap.substring(lastSentence + 1).trim();
+    /**
+     * Извлечение текста из файла в зависимости от его типа. Текст передается в chunker
+     * частями по мере чтения. false - тип файла не поддерживается
+     */
+    private boolean extractText(InputStream fileStream, String contentType, long fileSize,
+                                TextChunker chunker) throws Exception {
+        switch (contentType) {
+            case "application/pdf":
+                // PDF читается окнами страниц, номера страниц попадают в чанки
+                pdfTextExtractor.extract(fileStream, fileSize, chunker::append);
+                return true;
+            case "application/vnd.openxmlformats-officedocument.wordprocessingml.document":
+                // DOCX читается потоково по абзацам, картинки пропускаются
+                docxTextExtractor.extract(fileStream, paragraph -> chunker.append(paragraph, 0));
+                return true;
+            case "text/plain":
+                extractTextFromTxt(fileStream, chunker);
+                return true;
+            default:
+                logger.warn("Неподдерживаемый тип файла: {}", contentType);
+                return false;
         }
-
-        return overlap;
     }
 
-    private List<String> splitTextByWords(String text) {
-        List<String> chunks = new ArrayList<>();
-        String[] words = text.split("\\s+");
-        int start = 0;
-
-        while (start < words.length) {
-            int end = Math.min(start + CHUNK_SIZE, words.length);
-            List<String> chunkWords = new ArrayList<>();
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            logger.debug("Ошибка закрытия потока: {}", e.getMessage());
+        }
+    }
 
-            for (int i = start; i < end; i++) {
-                chunkWords.add(words[i]);
+    private void extractTextFromTxt(InputStream txtStream, TextChunker chunker) throws Exception {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(txtStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunker.append(line + "\n", 0);
             }
-
-            chunks.add(String.join(" ", chunkWords));
-            start += (CHUNK_SIZE - CHUNK_OVERLAP);
         }
-
-        return chunks;
     }
 
-    private Map<String, Object> createPoint(float[] vector, BookMetadata metadata, String chunkText, int chunkIndex) {
+    private Map<String, Object> createPoint(float[] vector, BookMetadata metadata, TextChunker.TextChunk chunk,
+                                            String projectionId, String modelId) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("user_id", metadata.getUploadedBy().intValue());
+        payload.put("book_id", metadata.getId().intValue());
+        payload.put("book_title", metadata.getTitle());
+        payload.put("text", chunk.getText());
+        payload.put("chunk_index", chunk.getIndex());
+        payload.put("chunk_length", chunk.getText().length());
+        payload.put("content_hash", chunk.getContentHash());
+        // Страницы известны только для PDF
+        if (chunk.getStartPage() > 0) {
+            payload.put("page_start", chunk.getStartPage());
+            payload.put("page_end", chunk.getEndPage());
+        }
+        // Проекция, в которой записан вектор - поиск идет только по векторам текущей проекции
+        if (projectionId != null) {
+            payload.put("projection", projectionId);
+        }
+        // Модель, которой записан вектор - по ней при замене книги удаляются устаревшие точки
+        payload.put("indexing_model", modelId);
+
         return Map.of(
-                "id", UUID.randomUUID().toString(),
+                "id", PointIds.chunkPointId(metadata.getId(), chunk.getIndex(), modelId),
                 "vector", vector,
-                "payload", Map.of(
-                        "user_id", metadata.getUploadedBy().intValue(),
-                        "book_id", metadata.getId().intValue(),
-                        "book_title", metadata.getTitle(),
-                        "text", chunkText,
-                        "chunk_index", chunkIndex,
-                        "chunk_length", chunkText.length()
-                )
+                "payload", payload
         );
     }
 
@@ -0,0 +1,187 @@
+package com.example.studentbot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Локальная модель векторизации без обращения к сети.
+ *
+ * Feature hashing по словам и символьным n-граммам слов (с маркерами границ, как в fastText),
+ * взвешивание по сублинейной частоте и априорному IDF (служебные слова получают малый вес),
+ * L2-нормализация. Результат детерминирован и зависит только от текста и настроек.
+ * Текст обходится посимвольно, без построения подстрок - единственная аллокация на вызов
+ * это сам результирующий вектор.
+ */
+@Component
+public class LocalEmbeddingModel {
+    private static final Logger logger = LoggerFactory.getLogger(LocalEmbeddingModel.class);
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Соль отделяет хэши n-грамм от хэшей целых слов
+    private static final long NGRAM_SEED = 0x9E3779B97F4A7C15L;
+
+    private static final float WORD_WEIGHT = 1.0f;
+    private static final float NGRAM_WEIGHT = 0.5f;
+    private static final float STOPWORD_WEIGHT = 0.1f;
+
+    private static final int MAX_WORD_LENGTH = 64;
+
+    private static final List<String> STOPWORDS = List.of(
+            "и", "в", "во", "не", "что", "он", "на", "я", "с", "со", "как", "а", "то", "все", "она", "так",
+            "его", "но", "да", "ты", "к", "у", "же", "вы", "за", "бы", "по", "только", "ее", "мне", "было",
+            "вот", "от", "меня", "еще", "нет", "о", "из", "ему", "теперь", "когда", "даже", "ну", "ли",
+            "если", "уже", "или", "ни", "быть", "был", "него", "до", "вас", "нибудь", "уж", "вам", "ведь",
+            "там", "потом", "себя", "ничего", "ей", "может", "они", "тут", "где", "есть", "надо", "ней",
+            "для", "мы", "тебя", "их", "чем", "была", "сам", "чтоб", "без", "будто", "чего", "раз", "тоже",
+            "себе", "под", "будет", "ж", "тогда", "кто", "этот", "того", "потому", "этого", "какой",
+            "это", "эти", "при", "также", "между", "the", "a", "an", "and", "or", "of", "to", "in", "on",
+            "for", "is", "are", "was", "were", "be", "by", "with", "as", "at", "it", "this", "that",
+            "from", "not", "but", "which", "these", "those");
+
+    @Value("${embedding.local.dimensions:384}")
+    private int dimensions;
+
+    @Value("${embedding.local.char-ngram-min:3}")
+    private int ngramMin;
+
+    @Value("${embedding.local.char-ngram-max:5}")
+    private int ngramMax;
+
+    private long[] stopwordHashes;
+
+    private final ThreadLocal<char[]> wordBuffer = ThreadLocal.withInitial(() -> new char[MAX_WORD_LENGTH + 2]);
+
+    @PostConstruct
+    public void init() {
+        if (dimensions <= 0) {
+            throw new IllegalStateException("embedding.local.dimensions должно быть положительным");
+        }
+        ngramMin = Math.max(1, ngramMin);
+        ngramMax = Math.max(ngramMin, ngramMax);
+
+        stopwordHashes = new long[STOPWORDS.size()];
+        for (int i = 0; i < STOPWORDS.size(); i++) {
+            String word = STOPWORDS.get(i);
+            long hash = FNV_OFFSET;
+            for (int j = 0; j < word.length(); j++) {
+                hash = (hash ^ word.charAt(j)) * FNV_PRIME;
+            }
+            stopwordHashes[i] = hash;
+        }
+        Arrays.sort(stopwordHashes);
+
+        logger.info("Локальная модель векторизации: размерность {}, n-граммы {}-{}", dimensions, ngramMin, ngramMax);
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public String getModelName() {
+        return String.format("hash-%d-ng%d%d", dimensions, ngramMin, ngramMax);
+    }
+
+    /**
+     * Векторизация текста
+     */
+    public float[] embed(CharSequence text) {
+        float[] vector = new float[dimensions];
+        char[] word = wordBuffer.get();
+        int wordLength = 0;
+        long wordHash = FNV_OFFSET;
+
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                c = Character.toLowerCase(c);
+                // Ё и Е в учебных текстах взаимозаменяемы
+                if (c == 'ё') {
+                    c = 'е';
+                }
+                if (wordLength < MAX_WORD_LENGTH) {
+                    word[++wordLength] = c;
+                    wordHash = (wordHash ^ c) * FNV_PRIME;
+                }
+            } else if (wordLength > 0) {
+                addWord(vector, word, wordLength, wordHash);
+                wordLength = 0;
+                wordHash = FNV_OFFSET;
+            }
+        }
+
+        // Сублинейное TF: log(1 + tf) с сохранением знака хэш-проекции
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            float value = vector[i];
+            float damped = (float) Math.log1p(Math.abs(value));
+            vector[i] = value < 0 ? -damped : damped;
+            norm += vector[i] * vector[i];
+        }
+
+        if (norm > 0) {
+            float inverse = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] *= inverse;
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * Добавление слова и его символьных n-грамм. Слово лежит в word[1..length],
+     * в word[0] и word[length + 1] ставятся маркеры границ.
+     */
+    private void addWord(float[] vector, char[] word, int length, long wordHash) {
+        boolean stopword = Arrays.binarySearch(stopwordHashes, wordHash) >= 0;
+        float idf = stopword ? STOPWORD_WEIGHT : 1.0f;
+
+        addFeature(vector, wordHash, WORD_WEIGHT * idf);
+
+        if (stopword) {
+            return;
+        }
+
+        word[0] = '<';
+        word[length + 1] = '>';
+        int bounded = length + 2;
+        for (int start = 0; start < bounded; start++) {
+            long hash = FNV_OFFSET ^ NGRAM_SEED;
+            int maxEnd = Math.min(bounded, start + ngramMax);
+            for (int end = start; end < maxEnd; end++) {
+                hash = (hash ^ word[end]) * FNV_PRIME;
+                int n = end - start + 1;
+                // n-грамма, совпадающая со всем словом, уже учтена как униграмма
+                if (n >= ngramMin && n < bounded) {
+                    addFeature(vector, hash, NGRAM_WEIGHT);
+                }
+            }
+        }
+    }
+
+    private void addFeature(float[] vector, long hash, float weight) {
+        long mixed = mix(hash);
+        int bucket = (int) Long.remainderUnsigned(mixed >>> 1, dimensions);
+        vector[bucket] += (mixed & 1L) == 0 ? weight : -weight;
+    }
+
+    /**
+     * Финализатор MurmurHash3 для равномерного распределения по корзинам
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
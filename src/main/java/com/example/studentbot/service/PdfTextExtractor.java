@@ -0,0 +1,393 @@
+package com.example.studentbot.service;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Извлечение текста из PDF по страницам.
+ *
+ * Последовательный режим проходит документ окнами страниц в одном потоке. Окно
+ * извлекается одним проходом PDFTextStripper, текст каждой страницы передается
+ * получателю по окончании страницы.
+ * Параллельный режим для больших документов: файл сохраняется во временный файл,
+ * каждый поток открывает собственный PDDocument (PDFBox не потокобезопасен) и забирает
+ * следующие окна страниц из общего счетчика. Текст окон передается получателю строго
+ * в порядке страниц; потоки опережают получателя не более чем на два окна каждый,
+ * поэтому память ограничена окнами, а не книгой. Число потоков ограничено на книгу
+ * и общим пулом на все книги.
+ *
+ * Документы больше порога загружаются с буферами PDFBox в смешанном режиме: в куче
+ * не более heap-budget на документ (и на каждый поток в параллельном режиме),
+ * остальное - во временных scratch-файлах.
+ */
+@Component
+public class PdfTextExtractor {
+    private static final Logger logger = LoggerFactory.getLogger(PdfTextExtractor.class);
+
+    // Сколько окон каждый поток может извлечь впрок
+    private static final int WINDOWS_AHEAD_PER_WORKER = 2;
+
+    // Документы меньше порога целиком в памяти - так быстрее
+    @Value("${indexing.pdf.memory.scratch-threshold-mb:32}")
+    private long scratchThresholdMb = 32;
+
+    @Value("${indexing.pdf.memory.heap-budget-mb:16}")
+    private long heapBudgetMb = 16;
+
+    // Лимит scratch-файлов на документ, -1 - без ограничения
+    @Value("${indexing.pdf.memory.max-scratch-mb:-1}")
+    private long maxScratchMb = -1;
+
+    @Value("${indexing.pdf.memory.temp-dir:}")
+    private String tempDir = "";
+
+    // Меньшие документы из потока извлекаются в одном потоке без временного файла
+    @Value("${indexing.pdf.parallel.min-size-mb:2}")
+    private long minParallelSizeMb = 2;
+
+    private final boolean parallelEnabled;
+    private final int minParallelPages;
+    private final int workersPerBook;
+    private final int pageWindow;
+    private final ExecutorService workers;
+
+    public PdfTextExtractor(@Value("${indexing.pdf.parallel.enabled:false}") boolean parallelEnabled,
+                            @Value("${indexing.pdf.parallel.min-pages:64}") int minParallelPages,
+                            @Value("${indexing.pdf.parallel.workers-per-book:4}") int workersPerBook,
+                            @Value("${indexing.pdf.parallel.max-workers:0}") int maxWorkers,
+                            @Value("${indexing.pdf.page-window:8}") int pageWindow) {
+        this.parallelEnabled = parallelEnabled;
+        this.minParallelPages = Math.max(1, minParallelPages);
+        this.workersPerBook = Math.max(1, workersPerBook);
+        this.pageWindow = Math.max(1, pageWindow);
+
+        int poolSize = maxWorkers > 0 ? maxWorkers : Runtime.getRuntime().availableProcessors();
+        this.workers = parallelEnabled ? Executors.newFixedThreadPool(poolSize, threadFactory()) : null;
+        if (parallelEnabled) {
+            logger.info("Параллельное извлечение PDF: до {} потоков на книгу, {} всего, от {} страниц",
+                    this.workersPerBook, poolSize, this.minParallelPages);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Извлечение текста из потока. Режим выбирается по размеру до чтения потока: маленький
+     * документ загружается сразу, для параллельного режима поток сохраняется во временный файл
+     *
+     * @param sizeBytes размер документа для выбора режима, -1 - неизвестен
+     */
+    public void extract(InputStream pdfStream, long sizeBytes, PageSink sink) throws Exception {
+        if (!parallelEnabled || workersPerBook == 1
+                || (sizeBytes >= 0 && sizeBytes < minParallelSizeMb * 1024L * 1024L)) {
+            try (PDDocument document = PDDocument.load(pdfStream, memoryUsage(sizeBytes))) {
+                extractSequential(document, sink);
+            }
+            return;
+        }
+
+        Path temp = Files.createTempFile(tempDirectory(), "pdf-extract-", ".pdf");
+        try {
+            Files.copy(pdfStream, temp, StandardCopyOption.REPLACE_EXISTING);
+            extract(temp.toFile(), sink);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Извлечение текста из файла. Документ, загруженный для подсчета страниц, в параллельном
+     * режиме передается первому потоку, остальные открывают свои
+     */
+    public void extract(File pdfFile, PageSink sink) throws Exception {
+        PDDocument document = PDDocument.load(pdfFile, memoryUsage(pdfFile.length()));
+        int pageCount = document.getNumberOfPages();
+        if (!parallelEnabled || pageCount < minParallelPages || workersPerBook == 1) {
+            try (document) {
+                extractSequential(document, sink);
+            }
+            return;
+        }
+        extractParallel(pdfFile, document, pageCount, sink);
+    }
+
+    private void extractSequential(PDDocument document, PageSink sink) throws Exception {
+        PageTextStripper stripper = new PageTextStripper();
+        int pageCount = document.getNumberOfPages();
+        long[] characters = new long[1];
+
+        for (int first = 1; first <= pageCount; first += pageWindow) {
+            int last = Math.min(pageCount, first + pageWindow - 1);
+            stripper.extract(document, first, last, (text, page) -> {
+                characters[0] += text.length();
+                sink.accept(text, page);
+            });
+        }
+        logger.info("Извлечено {} символов с {} страниц PDF", characters[0], pageCount);
+    }
+
+    private void extractParallel(File pdfFile, PDDocument loaded, int pageCount, PageSink sink) throws Exception {
+        int windowCount = (pageCount + pageWindow - 1) / pageWindow;
+        int workerCount = Math.min(workersPerBook, windowCount);
+        ParallelExtraction extraction = new ParallelExtraction(pdfFile, pageCount, windowCount, workerCount);
+
+        long start = System.currentTimeMillis();
+        List<Future<?>> futures = new ArrayList<>(workerCount);
+        try {
+            try {
+                futures.add(workers.submit(() -> extraction.work(loaded)));
+            } catch (RuntimeException e) {
+                loaded.close();
+                throw e;
+            }
+            for (int i = 1; i < workerCount; i++) {
+                futures.add(workers.submit(() -> extraction.work(null)));
+            }
+
+            long characters = 0;
+            for (int window = 0; window < windowCount; window++) {
+                String[] pages = extraction.take(window);
+                int firstPage = window * pageWindow + 1;
+                for (int i = 0; i < pages.length; i++) {
+                    characters += pages[i].length();
+                    sink.accept(pages[i], firstPage + i);
+                }
+            }
+
+            long duration = Math.max(1, System.currentTimeMillis() - start);
+            logger.info("Извлечено {} символов с {} страниц PDF в {} потоков за {} мс ({} стр/с)",
+                    characters, pageCount, workerCount, duration, pageCount * 1000L / duration);
+        } finally {
+            extraction.cancel();
+            // Временный файл удаляется только после закрытия документов всеми потоками
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception ignored) {
+                    // ошибка потока уже передана получателю через take
+                }
+            }
+        }
+    }
+
+    /**
+     * Режим буферов PDFBox: маленькие документы в памяти, большие - в памяти до бюджета
+     * документа, дальше во временных файлах
+     */
+    private MemoryUsageSetting memoryUsage(long sizeBytes) {
+        long mb = 1024L * 1024L;
+        if (sizeBytes >= 0 && sizeBytes < scratchThresholdMb * mb) {
+            return MemoryUsageSetting.setupMainMemoryOnly();
+        }
+        MemoryUsageSetting setting = MemoryUsageSetting.setupMixed(
+                Math.max(0, heapBudgetMb) * mb, maxScratchMb < 0 ? -1 : maxScratchMb * mb);
+        Path directory = tempDirectory();
+        if (directory != null) {
+            setting.setTempDir(directory.toFile());
+        }
+        return setting;
+    }
+
+    private Path tempDirectory() {
+        return tempDir == null || tempDir.isBlank() ? null : Path.of(tempDir);
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "pdf-extract-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Получатель текста страниц
+     */
+    @FunctionalInterface
+    public interface PageSink {
+        void accept(String text, int page) throws Exception;
+    }
+
+    /**
+     * Извлечение диапазона страниц одним проходом. Повторный getText на каждую страницу
+     * заново обходит дерево страниц документа, поэтому текст забирается из буфера
+     * в конце каждой страницы. Страницы без содержимого PDFBox пропускает - для них
+     * получатель получает пустой текст, как и раньше
+     */
+    private static final class PageTextStripper extends PDFTextStripper {
+        private final StringWriter buffer = new StringWriter();
+        private PageSink pageSink;
+        private int nextPage;
+
+        PageTextStripper() throws IOException {
+            super();
+        }
+
+        void extract(PDDocument document, int firstPage, int lastPage, PageSink sink) throws Exception {
+            setStartPage(firstPage);
+            setEndPage(lastPage);
+            pageSink = sink;
+            nextPage = firstPage;
+            buffer.getBuffer().setLength(0);
+            try {
+                writeText(document, buffer);
+                emitEmptyPages(lastPage + 1);
+            } catch (SinkException e) {
+                throw (Exception) e.getCause();
+            } finally {
+                pageSink = null;
+                buffer.getBuffer().setLength(0);
+            }
+        }
+
+        @Override
+        protected void startPage(PDPage page) throws IOException {
+            super.startPage(page);
+            emitEmptyPages(getCurrentPageNo());
+            buffer.getBuffer().setLength(0);
+        }
+
+        @Override
+        protected void endPage(PDPage page) throws IOException {
+            super.endPage(page);
+            String text = buffer.toString();
+            buffer.getBuffer().setLength(0);
+            emit(text, getCurrentPageNo());
+        }
+
+        private void emitEmptyPages(int untilPage) throws IOException {
+            while (nextPage < untilPage) {
+                emit("", nextPage);
+            }
+        }
+
+        private void emit(String text, int page) throws IOException {
+            nextPage = page + 1;
+            try {
+                pageSink.accept(text, page);
+            } catch (Exception e) {
+                throw new SinkException(e);
+            }
+        }
+    }
+
+    /**
+     * Ошибка получателя, проброшенная через PDFTextStripper
+     */
+    private static final class SinkException extends IOException {
+        SinkException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Состояние параллельного извлечения одной книги
+     */
+    private final class ParallelExtraction {
+        private final File pdfFile;
+        private final int pageCount;
+        private final int windowCount;
+        private final AtomicInteger nextWindow = new AtomicInteger();
+        private final Semaphore ahead;
+        private final Map<Integer, String[]> completed = new HashMap<>();
+
+        private volatile boolean cancelled;
+        private Throwable failure;
+
+        ParallelExtraction(File pdfFile, int pageCount, int windowCount, int workerCount) {
+            this.pdfFile = pdfFile;
+            this.pageCount = pageCount;
+            this.windowCount = windowCount;
+            this.ahead = new Semaphore(workerCount * WINDOWS_AHEAD_PER_WORKER);
+        }
+
+        /**
+         * @param loaded уже загруженный документ, null - поток открывает свой
+         */
+        void work(PDDocument loaded) {
+            try (PDDocument document = loaded != null ? loaded : PDDocument.load(pdfFile, memoryUsage(pdfFile.length()))) {
+                PageTextStripper stripper = new PageTextStripper();
+                while (!cancelled) {
+                    ahead.acquire();
+                    int window = nextWindow.getAndIncrement();
+                    if (cancelled || window >= windowCount) {
+                        ahead.release();
+                        return;
+                    }
+
+                    int firstPage = window * pageWindow + 1;
+                    int lastPage = Math.min(pageCount, firstPage + pageWindow - 1);
+                    String[] pages = new String[lastPage - firstPage + 1];
+                    stripper.extract(document, firstPage, lastPage, (text, page) -> pages[page - firstPage] = text);
+
+                    synchronized (this) {
+                        completed.put(window, pages);
+                        notifyAll();
+                    }
+                }
+            } catch (Throwable e) {
+                if (e instanceof InterruptedException) {
+                    // Прерванный поток не отдаст свое окно - получатель не должен ждать его вечно
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Ожидание окна с заданным номером
+         */
+        synchronized String[] take(int window) throws Exception {
+            while (!completed.containsKey(window)) {
+                if (failure != null) {
+                    throw new IOException("Ошибка извлечения текста PDF: " + failure.getMessage(), failure);
+                }
+                wait();
+            }
+            ahead.release();
+            return completed.remove(window);
+        }
+
+        void cancel() {
+            cancelled = true;
+            // Будим потоки, ожидающие места для следующего окна
+            ahead.release(windowCount);
+        }
+    }
+}
@@ -0,0 +1,578 @@
+package com.example.studentbot.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Персистентный контентно-адресуемый кэш векторов.
+ *
+ * Ключ - SHA-256 от (провайдер, модель, нормализованный текст). Векторы хранятся упакованными
+ * float32-записями в append-only файлах, отображенных в память (mmap), индекс - открытая
+ * адресация в off-heap буфере. Кэш состоит из двух сегментов: при заполнении текущего
+ * старый сегмент удаляется целиком, а записи, к которым обращались, переносятся в новый.
+ * После рестарта индекс восстанавливается сканированием файлов.
+ */
+@Component
+public class PersistentEmbeddingCache {
+    private static final Logger logger = LoggerFactory.getLogger(PersistentEmbeddingCache.class);
+
+    private static final int FILE_MAGIC = 0x45424331; // "EBC1"
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    private static final int RECORD_MAGIC = 0x52454331;
+    private static final int DIGEST_SIZE = 32;
+    // magic + digest + размерность
+    private static final int RECORD_HEADER_SIZE = 4 + DIGEST_SIZE + 4;
+
+    private static final String SEGMENT_PREFIX = "embeddings-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    });
+
+    @Value("${embedding.cache.persistent.enabled:true}")
+    private boolean enabled;
+
+    @Value("${embedding.cache.persistent.directory:data/embedding-cache}")
+    private String directory;
+
+    @Value("${embedding.cache.persistent.max-size-mb:512}")
+    private long maxSizeMb;
+
+    private final MeterRegistry meterRegistry;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private Path cacheDirectory;
+    private int segmentCapacity;
+    private Segment current;
+    private Segment previous;
+
+    public PersistentEmbeddingCache(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void open() {
+        if (!enabled) {
+            logger.info("Персистентный кэш векторов отключен");
+            return;
+        }
+
+        try {
+            cacheDirectory = Paths.get(directory);
+            Files.createDirectories(cacheDirectory);
+
+            // Два сегмента делят общий лимит пополам; mmap ограничен 2 ГБ на буфер
+            long segmentBytes = Math.max(1L, maxSizeMb) * 1024 * 1024 / 2;
+            segmentCapacity = (int) Math.min(segmentBytes, Integer.MAX_VALUE - 8);
+
+            List<Path> segmentFiles = listSegmentFiles();
+            // Старше двух последних поколений сегменты не нужны
+            for (int i = 0; i < segmentFiles.size() - 2; i++) {
+                Files.deleteIfExists(segmentFiles.get(i));
+            }
+            segmentFiles = listSegmentFiles();
+
+            if (segmentFiles.isEmpty()) {
+                current = Segment.create(segmentPath(1), 1, segmentCapacity);
+            } else {
+                Path last = segmentFiles.get(segmentFiles.size() - 1);
+                current = Segment.open(last, generationOf(last), segmentCapacity);
+                if (segmentFiles.size() > 1) {
+                    Path prev = segmentFiles.get(0);
+                    previous = Segment.open(prev, generationOf(prev), segmentCapacity);
+                }
+            }
+
+            registerMetrics();
+            logger.info("Персистентный кэш векторов открыт: {} записей в {}, лимит {} МБ",
+                    getEntryCount(), cacheDirectory.toAbsolutePath(), maxSizeMb);
+
+        } catch (Exception e) {
+            logger.error("Не удалось открыть персистентный кэш векторов: {}. Кэш отключен", e.getMessage(), e);
+            closeQuietly();
+            enabled = false;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            logger.info("Закрытие кэша векторов: попаданий {}, промахов {}, записей {}, вытеснено {}",
+                    hits.get(), misses.get(), writes.get(), evictions.get());
+            closeQuietly();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Поиск вектора в кэше. Возвращает null при промахе или если кэш отключен.
+     */
+    public float[] get(String provider, String model, String text) {
+        if (!enabled) {
+            return null;
+        }
+
+        byte[] digest = digest(provider, model, text);
+        float[] vector = null;
+        boolean fromPrevious = false;
+
+        lock.readLock().lock();
+        try {
+            if (current != null) {
+                vector = current.read(digest);
+                if (vector == null && previous != null) {
+                    vector = previous.read(digest);
+                    fromPrevious = vector != null;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (vector == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        if (fromPrevious) {
+            // Запись востребована - переносим в актуальный сегмент, чтобы она пережила ротацию
+            append(digest, vector);
+        }
+        return vector;
+    }
+
+    /**
+     * Сохранение вектора в кэш
+     */
+    public void put(String provider, String model, String text, float[] vector) {
+        if (!enabled || vector == null || vector.length == 0) {
+            return;
+        }
+        append(digest(provider, model, text), vector);
+    }
+
+    private void append(byte[] digest, float[] vector) {
+        int recordSize = RECORD_HEADER_SIZE + vector.length * Float.BYTES;
+        if (FILE_HEADER_SIZE + recordSize > segmentCapacity) {
+            logger.warn("Вектор размерности {} не помещается в сегмент кэша", vector.length);
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (current == null || current.contains(digest)) {
+                return;
+            }
+            if (!current.hasRoomFor(recordSize)) {
+                rotate();
+            }
+            current.append(digest, vector);
+            writes.incrementAndGet();
+        } catch (IOException e) {
+            logger.warn("Не удалось записать вектор в кэш: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ротация сегментов: предыдущий удаляется, текущий становится предыдущим
+     */
+    private void rotate() throws IOException {
+        if (previous != null) {
+            evictions.addAndGet(previous.getEntryCount());
+            previous.delete();
+        }
+        previous = current;
+        previous.force();
+        long generation = previous.generation + 1;
+        current = Segment.create(segmentPath(generation), generation, segmentCapacity);
+        logger.info("Ротация кэша векторов: новый сегмент {}", current.path.getFileName());
+    }
+
+    /**
+     * Нормализация текста для ключа: Unicode NFC, схлопывание пробельных символов
+     */
+    static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFC);
+        StringBuilder sb = new StringBuilder(normalized.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    sb.append(' ');
+                    pendingSpace = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] digest(String provider, String model, String text) {
+        MessageDigest sha = SHA256.get();
+        sha.reset();
+        sha.update(provider.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(model.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(normalize(text).getBytes(StandardCharsets.UTF_8));
+        return sha.digest();
+    }
+
+    private void registerMetrics() {
+        FunctionCounter.builder("embedding.cache.persistent.hits", hits, AtomicLong::get)
+                .description("Попадания в персистентный кэш векторов").register(meterRegistry);
+        FunctionCounter.builder("embedding.cache.persistent.misses", misses, AtomicLong::get)
+                .description("Промахи персистентного кэша векторов").register(meterRegistry);
+        FunctionCounter.builder("embedding.cache.persistent.writes", writes, AtomicLong::get)
+                .register(meterRegistry);
+        FunctionCounter.builder("embedding.cache.persistent.evictions", evictions, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("embedding.cache.persistent.entries", this, PersistentEmbeddingCache::getEntryCount)
+                .register(meterRegistry);
+    }
+
+    public long getEntryCount() {
+        lock.readLock().lock();
+        try {
+            long count = 0;
+            if (current != null) count += current.getEntryCount();
+            if (previous != null) count += previous.getEntryCount();
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Path> listSegmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(cacheDirectory)) {
+            List<Path> result = new ArrayList<>();
+            files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX) && generationOf(p) > 0;
+            }).forEach(result::add);
+            result.sort(Comparator.comparingLong(PersistentEmbeddingCache::generationOf));
+            return result;
+        }
+    }
+
+    private Path segmentPath(long generation) {
+        return cacheDirectory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, generation, SEGMENT_SUFFIX));
+    }
+
+    private static long generationOf(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private void closeQuietly() {
+        for (Segment segment : new Segment[]{current, previous}) {
+            if (segment != null) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    logger.warn("Ошибка закрытия сегмента кэша {}: {}", segment.path, e.getMessage());
+                }
+            }
+        }
+        current = null;
+        previous = null;
+    }
+
+    /**
+     * Сегмент кэша: файл, отображенный в память, и off-heap индекс его записей
+     */
+    private static final class Segment {
+        private final Path path;
+        private final long generation;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final OffHeapIndex index = new OffHeapIndex(1 << 14);
+        private int writePosition;
+
+        private Segment(Path path, long generation, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.generation = generation;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path path, long generation, int capacity) throws IOException {
+            Segment segment = map(path, generation, capacity);
+            segment.buffer.putInt(0, FILE_MAGIC);
+            segment.buffer.putInt(4, FILE_VERSION);
+            segment.writePosition = FILE_HEADER_SIZE;
+            return segment;
+        }
+
+        static Segment open(Path path, long generation, int capacity) throws IOException {
+            Segment segment = map(path, generation, capacity);
+            if (segment.buffer.getInt(0) != FILE_MAGIC || segment.buffer.getInt(4) != FILE_VERSION) {
+                // Чужой или поврежденный файл - начинаем сегмент заново
+                segment.buffer.putInt(0, FILE_MAGIC);
+                segment.buffer.putInt(4, FILE_VERSION);
+                segment.buffer.putInt(FILE_HEADER_SIZE, 0);
+            }
+            segment.scan();
+            return segment;
+        }
+
+        private static Segment map(Path path, long generation, int capacity) throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                if (file.length() < capacity) {
+                    file.setLength(capacity);
+                }
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                return new Segment(path, generation, channel, buffer);
+            }
+        }
+
+        /**
+         * Восстановление индекса после рестарта. Запись считается валидной только если
+         * ее magic записан - он пишется последним, поэтому оборванная запись игнорируется.
+         */
+        private void scan() {
+            int position = FILE_HEADER_SIZE;
+            int capacity = buffer.capacity();
+            while (position + RECORD_HEADER_SIZE <= capacity) {
+                if (buffer.getInt(position) != RECORD_MAGIC) {
+                    break;
+                }
+                int dimensions = buffer.getInt(position + 4 + DIGEST_SIZE);
+                int recordSize = RECORD_HEADER_SIZE + dimensions * Float.BYTES;
+                if (dimensions <= 0 || position + recordSize > capacity) {
+                    break;
+                }
+                index.put(buffer.getLong(position + 4), position);
+                position += recordSize;
+            }
+            writePosition = position;
+        }
+
+        boolean hasRoomFor(int recordSize) {
+            return writePosition + recordSize <= buffer.capacity();
+        }
+
+        boolean contains(byte[] digest) {
+            return findRecord(digest) >= 0;
+        }
+
+        float[] read(byte[] digest) {
+            int position = findRecord(digest);
+            if (position < 0) {
+                return null;
+            }
+            int dimensions = buffer.getInt(position + 4 + DIGEST_SIZE);
+            float[] vector = new float[dimensions];
+            int offset = position + RECORD_HEADER_SIZE;
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = buffer.getFloat(offset + i * Float.BYTES);
+            }
+            return vector;
+        }
+
+        void append(byte[] digest, float[] vector) {
+            int position = writePosition;
+            for (int i = 0; i < DIGEST_SIZE; i++) {
+                buffer.put(position + 4 + i, digest[i]);
+            }
+            buffer.putInt(position + 4 + DIGEST_SIZE, vector.length);
+            int offset = position + RECORD_HEADER_SIZE;
+            for (int i = 0; i < vector.length; i++) {
+                buffer.putFloat(offset + i * Float.BYTES, vector[i]);
+            }
+            int next = offset + vector.length * Float.BYTES;
+            // Обнуляем место под следующий magic, чтобы сканирование остановилось на конце данных
+            if (next + 4 <= buffer.capacity()) {
+                buffer.putInt(next, 0);
+            }
+            buffer.putInt(position, RECORD_MAGIC);
+            index.put(ByteBuffer.wrap(digest).getLong(), position);
+            writePosition = next;
+        }
+
+        private int findRecord(byte[] digest) {
+            long position = index.get(ByteBuffer.wrap(digest).getLong());
+            if (position < 0) {
+                return -1;
+            }
+            int recordPosition = (int) position;
+            // Индекс хранит только 64 бита хэша - сверяем полный дайджест
+            for (int i = 0; i < DIGEST_SIZE; i++) {
+                if (buffer.get(recordPosition + 4 + i) != digest[i]) {
+                    return -1;
+                }
+            }
+            return recordPosition;
+        }
+
+        long getEntryCount() {
+            return index.size();
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() throws IOException {
+            force();
+            index.release();
+            channel.close();
+        }
+
+        void delete() throws IOException {
+            index.release();
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Хэш-таблица long -> long с открытой адресацией в direct-буфере (вне кучи).
+     * Ячейка: 8 байт ключа и 8 байт значения + 1 (0 означает пустую ячейку).
+     */
+    private static final class OffHeapIndex {
+        private static final int SLOT_SIZE = 16;
+        private static final double MAX_LOAD = 0.7;
+
+        private ByteBuffer table;
+        private int slots;
+        private int size;
+
+        OffHeapIndex(int initialSlots) {
+            allocate(Integer.highestOneBit(Math.max(16, initialSlots)));
+        }
+
+        private void allocate(int slotCount) {
+            this.slots = slotCount;
+            this.table = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE);
+            this.size = 0;
+        }
+
+        long get(long key) {
+            int mask = slots - 1;
+            int slot = mix(key) & mask;
+            for (int probe = 0; probe < slots; probe++) {
+                int base = slot * SLOT_SIZE;
+                long value = table.getLong(base + 8);
+                if (value == 0) {
+                    return -1;
+                }
+                if (table.getLong(base) == key) {
+                    return value - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        void put(long key, long value) {
+            if (size + 1 > slots * MAX_LOAD) {
+                grow();
+            }
+            int mask = slots - 1;
+            int slot = mix(key) & mask;
+            while (true) {
+                int base = slot * SLOT_SIZE;
+                long existing = table.getLong(base + 8);
+                if (existing == 0) {
+                    table.putLong(base, key);
+                    table.putLong(base + 8, value + 1);
+                    size++;
+                    return;
+                }
+                if (table.getLong(base) == key) {
+                    table.putLong(base + 8, value + 1);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void grow() {
+            ByteBuffer old = table;
+            int oldSlots = slots;
+            allocate(oldSlots * 2);
+            for (int slot = 0; slot < oldSlots; slot++) {
+                int base = slot * SLOT_SIZE;
+                long value = old.getLong(base + 8);
+                if (value != 0) {
+                    put(old.getLong(base), value - 1);
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        void release() {
+            table = ByteBuffer.allocateDirect(0);
+            slots = 0;
+            size = 0;
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.studentbot.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Раскладка коллекции Qdrant: квантование, хранение на диске, параметры HNSW.
+ *
+ * Квантованные векторы (int8 или бинарные) держатся в RAM и используются для обхода графа,
+ * исходные float32 лежат на диске и читаются только для уточнения оценок (rescore).
+ * Так память узла растет в 4 (scalar) или 32 (binary) раза медленнее числа векторов.
+ * Для существующей коллекции вычисляется PATCH с отличиями - Qdrant применяет его
+ * без переиндексации, перестраивая сегменты оптимизатором в фоне.
+ */
+@Component
+public class QdrantCollectionLayout {
+    private static final Logger logger = LoggerFactory.getLogger(QdrantCollectionLayout.class);
+
+    // Бинарное квантование теряет слишком много точности на векторах малой размерности
+    private static final int MIN_BINARY_DIMENSIONS = 512;
+
+    @Value("${qdrant.collection.on-disk:true}")
+    private boolean vectorsOnDisk;
+
+    @Value("${qdrant.collection.on-disk-payload:true}")
+    private boolean onDiskPayload;
+
+    // none, scalar (int8) или binary
+    @Value("${qdrant.collection.quantization.type:scalar}")
+    private String quantizationType;
+
+    @Value("${qdrant.collection.quantization.always-ram:true}")
+    private boolean quantizationAlwaysRam;
+
+    @Value("${qdrant.collection.quantization.quantile:0.99}")
+    private double quantizationQuantile;
+
+    @Value("${qdrant.collection.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${qdrant.collection.hnsw.ef-construct:100}")
+    private int hnswEfConstruct;
+
+    @Value("${qdrant.collection.hnsw.full-scan-threshold:10000}")
+    private int hnswFullScanThreshold;
+
+    @Value("${qdrant.collection.hnsw.on-disk:false}")
+    private boolean hnswOnDisk;
+
+    @PostConstruct
+    public void init() {
+        quantizationType = quantizationType.trim().toLowerCase();
+        if (!List.of("none", "scalar", "binary").contains(quantizationType)) {
+            logger.warn("Неизвестный тип квантования {}, используется scalar", quantizationType);
+            quantizationType = "scalar";
+        }
+        logger.info("Раскладка коллекции Qdrant: квантование {} (always_ram {}), векторы на диске {}, " +
+                        "payload на диске {}, HNSW m={} ef_construct={}",
+                quantizationType, quantizationAlwaysRam, vectorsOnDisk, onDiskPayload, hnswM, hnswEfConstruct);
+    }
+
+    public boolean isQuantized() {
+        return !"none".equals(quantizationType);
+    }
+
+    /**
+     * Тело запроса создания коллекции
+     */
+    public Map<String, Object> createRequest(int vectorSize) {
+        if ("binary".equals(quantizationType) && vectorSize < MIN_BINARY_DIMENSIONS) {
+            logger.warn("Бинарное квантование для размерности {} заметно снижает точность поиска, " +
+                    "рекомендуется scalar", vectorSize);
+        }
+
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("vectors", Map.of(
+                "size", vectorSize,
+                "distance", "Cosine",
+                "on_disk", vectorsOnDisk
+        ));
+        request.put("on_disk_payload", onDiskPayload);
+        request.put("hnsw_config", hnswConfig());
+        if (isQuantized()) {
+            request.put("quantization_config", quantizationConfig());
+        }
+        return request;
+    }
+
+    /**
+     * Тело PATCH для приведения существующей коллекции к настроенной раскладке.
+     * Пустой результат - коллекция уже соответствует настройкам
+     *
+     * @param config узел result.config ответа GET /collections/{name}
+     */
+    public Map<String, Object> migrationPatch(JsonNode config, List<String> differences) {
+        Map<String, Object> patch = new LinkedHashMap<>();
+        JsonNode params = config.path("params");
+
+        JsonNode vectors = params.path("vectors");
+        if (vectors.path("on_disk").asBoolean(false) != vectorsOnDisk) {
+            differences.add("vectors.on_disk=" + vectorsOnDisk);
+            // Безымянный вектор коллекции в PATCH адресуется пустым именем
+            patch.put("vectors", Map.of("", Map.of("on_disk", vectorsOnDisk)));
+        }
+
+        if (params.path("on_disk_payload").asBoolean(false) != onDiskPayload) {
+            differences.add("on_disk_payload=" + onDiskPayload);
+            patch.put("params", Map.of("on_disk_payload", onDiskPayload));
+        }
+
+        JsonNode hnsw = config.path("hnsw_config");
+        if (hnsw.path("m").asInt() != hnswM
+                || hnsw.path("ef_construct").asInt() != hnswEfConstruct
+                || hnsw.path("full_scan_threshold").asInt() != hnswFullScanThreshold
+                || hnsw.path("on_disk").asBoolean(false) != hnswOnDisk) {
+            differences.add("hnsw_config=" + hnswConfig());
+            patch.put("hnsw_config", hnswConfig());
+        }
+
+        // Квантование может быть задано на уровне коллекции или вектора
+        JsonNode quantization = vectors.hasNonNull("quantization_config")
+                ? vectors.path("quantization_config") : config.path("quantization_config");
+        if (!quantizationMatches(quantization)) {
+            differences.add("quantization=" + quantizationType);
+            patch.put("quantization_config", isQuantized() ? quantizationConfig() : "Disabled");
+        }
+        return patch;
+    }
+
+    private boolean quantizationMatches(JsonNode current) {
+        if (!isQuantized()) {
+            return current.isMissingNode() || current.isNull();
+        }
+        JsonNode settings = current.path(quantizationType);
+        if (settings.isMissingNode()) {
+            return false;
+        }
+        if (settings.path("always_ram").asBoolean(false) != quantizationAlwaysRam) {
+            return false;
+        }
+        return !"scalar".equals(quantizationType)
+                || Math.abs(settings.path("quantile").asDouble(1.0) - quantizationQuantile) < 1e-6;
+    }
+
+    private Map<String, Object> hnswConfig() {
+        Map<String, Object> hnsw = new LinkedHashMap<>();
+        hnsw.put("m", hnswM);
+        hnsw.put("ef_construct", hnswEfConstruct);
+        hnsw.put("full_scan_threshold", hnswFullScanThreshold);
+        hnsw.put("on_disk", hnswOnDisk);
+        return hnsw;
+    }
+
+    private Map<String, Object> quantizationConfig() {
+        if ("binary".equals(quantizationType)) {
+            return Map.of("binary", Map.of("always_ram", quantizationAlwaysRam));
+        }
+        return Map.of("scalar", Map.of(
+                "type", "int8",
+                "quantile", quantizationQuantile,
+                "always_ram", quantizationAlwaysRam
+        ));
+    }
+}
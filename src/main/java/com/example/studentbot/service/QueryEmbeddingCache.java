@@ -0,0 +1,219 @@
+package com.example.studentbot.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory LRU-кэш векторов пользовательских запросов для RAG.
+ *
+ * Ограничен по количеству записей и по времени жизни. Ключ - пространство имен
+ * (провайдер и модель) плюс нормализованный текст запроса. Кэш разбит на сегменты
+ * со своими блокировками, чтобы параллельные запросы не упирались в одну блокировку.
+ */
+@Component
+public class QueryEmbeddingCache {
+    private static final Logger logger = LoggerFactory.getLogger(QueryEmbeddingCache.class);
+
+    @Value("${embedding.cache.query.enabled:true}")
+    private boolean enabled;
+
+    @Value("${embedding.cache.query.max-size:10000}")
+    private int maxSize;
+
+    @Value("${embedding.cache.query.ttl-minutes:60}")
+    private long ttlMinutes;
+
+    @Value("${embedding.cache.query.stripes:16}")
+    private int stripeCount;
+
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private Stripe[] stripes;
+    private long ttlNanos;
+
+    public QueryEmbeddingCache(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        // Количество сегментов округляем до степени двойки для выбора сегмента по маске
+        int count = Integer.highestOneBit(Math.max(1, stripeCount));
+        int perStripe = Math.max(1, maxSize / count);
+
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+        ttlNanos = TimeUnit.MINUTES.toNanos(Math.max(1, ttlMinutes));
+
+        FunctionCounter.builder("embedding.cache.query.hits", hits, AtomicLong::get)
+                .description("Попадания в кэш векторов запросов").register(meterRegistry);
+        FunctionCounter.builder("embedding.cache.query.misses", misses, AtomicLong::get)
+                .description("Промахи кэша векторов запросов").register(meterRegistry);
+        Gauge.builder("embedding.cache.query.size", this, QueryEmbeddingCache::size).register(meterRegistry);
+
+        logger.info("Кэш векторов запросов: {} сегментов по {} записей, TTL {} мин, включен: {}",
+                count, perStripe, ttlMinutes, enabled);
+    }
+
+    /**
+     * Вектор из кэша или null. Промах учитывается в метриках - за ним должен последовать put
+     */
+    public float[] getIfPresent(String namespace, String query) {
+        if (!enabled) {
+            return null;
+        }
+
+        String key = key(namespace, query);
+        float[] cached = stripeFor(key).get(key, System.nanoTime());
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.clone();
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String namespace, String query, float[] vector) {
+        if (!enabled || vector == null || vector.length == 0) {
+            return;
+        }
+
+        String key = key(namespace, query);
+        stripeFor(key).put(key, vector.clone(), System.nanoTime() + ttlNanos);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * Нормализация запроса: регистр и пробельные символы не влияют на смысл вопроса
+     */
+    static String normalize(String query) {
+        StringBuilder sb = new StringBuilder(query.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    sb.append(' ');
+                    pendingSpace = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static String key(String namespace, String query) {
+        return namespace + '\u0000' + normalize(query);
+    }
+
+    private Stripe stripeFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    /**
+     * Сегмент кэша: LinkedHashMap в порядке доступа под собственной блокировкой
+     */
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<String, CachedVector> entries;
+
+        Stripe(int capacity) {
+            this.entries = new LinkedHashMap<>(Math.min(capacity, 1024), 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedVector> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        float[] get(String key, long now) {
+            lock.lock();
+            try {
+                CachedVector entry = entries.get(key);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.expiresAt - now <= 0) {
+                    entries.remove(key);
+                    return null;
+                }
+                return entry.vector;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(String key, float[] vector, long expiresAt) {
+            lock.lock();
+            try {
+                entries.put(key, new CachedVector(vector, expiresAt));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                entries.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class CachedVector {
+        private final float[] vector;
+        private final long expiresAt;
+
+        CachedVector(float[] vector, long expiresAt) {
+            this.vector = vector;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.studentbot.service;
 
+import com.example.studentbot.model.BookMetadata;
+import com.example.studentbot.repository.BookMetadataRepository;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
@@ -24,6 +26,9 @@ public class VectorSearchService {
 
     private WebClient webClient;
     private final ObjectMapper objectMapper;
+    private final QdrantCollectionLayout collectionLayout;
+    private final EmbeddingReducer embeddingReducer;
+    private final BookMetadataRepository bookMetadataRepository;
 
     @Value("${qdrant.host:localhost}")
     private String qdrantHost;
@@ -40,11 +45,27 @@ public class VectorSearchService {
     @Value("${qdrant.search.score_threshold:0.75}")
     private double scoreThreshold;
 
+    // 0 - значение ef из настроек коллекции
+    @Value("${qdrant.search.hnsw-ef:0}")
+    private int hnswEf;
+
+    // Уточнение оценок кандидатов по исходным векторам с диска
+    @Value("${qdrant.search.quantization.rescore:true}")
+    private boolean quantizationRescore;
+
+    // Во сколько раз больше кандидатов отбирается по квантованным векторам перед rescore
+    @Value("${qdrant.search.quantization.oversampling:2.0}")
+    private double quantizationOversampling;
+
     @Value("${qdrant.api-key:}")
     private String apiKey;
 
-    public VectorSearchService(ObjectMapper objectMapper) {
+    public VectorSearchService(ObjectMapper objectMapper, QdrantCollectionLayout collectionLayout,
+                               EmbeddingReducer embeddingReducer, BookMetadataRepository bookMetadataRepository) {
         this.objectMapper = objectMapper;
+        this.collectionLayout = collectionLayout;
+        this.embeddingReducer = embeddingReducer;
+        this.bookMetadataRepository = bookMetadataRepository;
     }
 
     @PostConstruct
@@ -73,7 +94,13 @@ public class VectorSearchService {
             logger.debug("Поиск релевантных фрагментов для пользователя {} с вектором размерности {}",
                     userId, queryVector.length);
 
-            Map<String, Object> searchRequest = createSearchRequest(queryVector, createUserFilter(userId));
+            List<Integer> bookIds = vectorBookIds(userId);
+            if (bookIds.isEmpty()) {
+                logger.debug("У пользователя {} нет книг для поиска", userId);
+                return Collections.emptyList();
+            }
+
+            Map<String, Object> searchRequest = createSearchRequest(queryVector, createUserFilter(bookIds));
 
             logger.debug("Запрос к Qdrant: {}", objectMapper.writeValueAsString(searchRequest));
 
@@ -113,7 +140,14 @@ public class VectorSearchService {
         try {
             logger.debug("Поиск в книге {} для пользователя {}", bookId, userId);
 
-            Map<String, Object> searchRequest = createSearchRequest(queryVector, createBookFilter(userId, bookId));
+            Optional<BookMetadata> book = bookMetadataRepository.findById(bookId)
+                    .filter(b -> userId.equals(b.getUploadedBy()) && b.getStatus() != BookMetadata.BookStatus.DELETED);
+            if (book.isEmpty()) {
+                logger.warn("Книга {} не найдена у пользователя {}", bookId, userId);
+                return Collections.emptyList();
+            }
+
+            Map<String, Object> searchRequest = createSearchRequest(queryVector, createBookFilter(book.get()));
             logger.debug("Запрос поиска в книге: {}", objectMapper.writeValueAsString(searchRequest));
 
             CompletableFuture<List<String>> searchFuture = performSearch(searchRequest);
@@ -164,6 +198,11 @@ public class VectorSearchService {
         request.put("score_threshold", scoreThreshold);
         request.put("with_payload", true);
 
+        Map<String, Object> params = createSearchParams();
+        if (!params.isEmpty()) {
+            request.put("params", params);
+        }
+
         if (filter != null && !filter.isEmpty()) {
             request.put("filter", filter);
         }
@@ -172,35 +211,74 @@ public class VectorSearchService {
     }
 
     /**
-     * Создание фильтра по пользователю
+     * Параметры поиска: ef для HNSW и уточнение по исходным векторам. Без rescore
+     * оценки int8/бинарных векторов приблизительны и порог score_threshold отсекает
+     * релевантные фрагменты, поэтому кандидатов отбирается с запасом (oversampling)
      */
-    private Map<String, Object> createUserFilter(Long userId) {
-        return Map.of(
-                "must", List.of(
-                        Map.of(
-                                "key", "user_id",
-                                "match", Map.of("value", userId.intValue())
-                        )
-                )
-        );
+    private Map<String, Object> createSearchParams() {
+        Map<String, Object> params = new HashMap<>();
+        if (hnswEf > 0) {
+            params.put("hnsw_ef", hnswEf);
+        }
+        if (collectionLayout.isQuantized()) {
+            params.put("quantization", Map.of(
+                    "ignore", false,
+                    "rescore", quantizationRescore,
+                    "oversampling", Math.max(1.0, quantizationOversampling)
+            ));
+        }
+        return params;
     }
 
     /**
-     * Создание фильтра по пользователю и книге
+     * ID книг, под которыми записаны векторы книг пользователя. Векторы одинаковых файлов
+     * общие и записаны под книгой первого загрузившего, поэтому доступ проверяется
+     * по книгам пользователя в базе, а не по user_id в payload
      */
-    private Map<String, Object> createBookFilter(Long userId, Long bookId) {
-        return Map.of(
-                "must", List.of(
-                        Map.of(
-                                "key", "user_id",
-                                "match", Map.of("value", userId.intValue())
-                        ),
-                        Map.of(
-                                "key", "book_id",
-                                "match", Map.of("value", bookId.intValue())
-                        )
-                )
-        );
+    private List<Integer> vectorBookIds(Long userId) {
+        return bookMetadataRepository.findByUploadedByAndStatusNot(userId, BookMetadata.BookStatus.DELETED).stream()
+                .map(book -> book.getVectorBookId().intValue())
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * Создание фильтра по книгам пользователя
+     */
+    private Map<String, Object> createUserFilter(List<Integer> bookIds) {
+        List<Object> must = new ArrayList<>();
+        must.add(Map.of(
+                "key", "book_id",
+                "match", Map.of("any", bookIds)
+        ));
+        addProjectionCondition(must);
+        return Map.of("must", must);
+    }
+
+    /**
+     * Создание фильтра по книге пользователя
+     */
+    private Map<String, Object> createBookFilter(BookMetadata book) {
+        List<Object> must = new ArrayList<>();
+        must.add(Map.of(
+                "key", "book_id",
+                "match", Map.of("value", book.getVectorBookId().intValue())
+        ));
+        addProjectionCondition(must);
+        return Map.of("must", must);
+    }
+
+    /**
+     * При понижении размерности ищем только среди векторов текущей проекции
+     */
+    private void addProjectionCondition(List<Object> must) {
+        String projectionId = embeddingReducer.getProjectionId();
+        if (projectionId != null) {
+            must.add(Map.of(
+                    "key", "projection",
+                    "match", Map.of("value", projectionId)
+            ));
+        }
     }
 
     /**
@@ -249,9 +327,14 @@ public class VectorSearchService {
      */
     public VectorStats getUserVectorStats(Long userId) {
         try {
+            List<Integer> bookIds = vectorBookIds(userId);
+            if (bookIds.isEmpty()) {
+                return new VectorStats(0, 0);
+            }
+
             // Используем scroll API для получения всех записей пользователя
             Map<String, Object> scrollRequest = Map.of(
-                    "filter", createUserFilter(userId),
+                    "filter", createUserFilter(bookIds),
                     "limit", 10000,
                     "with_payload", true
             );
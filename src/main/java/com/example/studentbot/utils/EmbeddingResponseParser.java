@@ -0,0 +1,308 @@
+package com.example.studentbot.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Потоковый разбор ответов провайдеров embedding.
+ *
+ * Читает тело ответа как байты через JsonParser и заполняет float[] напрямую,
+ * без промежуточной строки и дерева JsonNode. На каждый вектор приходится одна
+ * аллокация массива точного размера - числа сначала складываются в переиспользуемый буфер потока.
+ */
+public class EmbeddingResponseParser {
+
+    private static final int INITIAL_BUFFER_SIZE = 2048;
+
+    // Степени десяти, точно представимые в double (быстрый путь Клингера)
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private final JsonFactory jsonFactory;
+    private final ThreadLocal<float[]> buffer = ThreadLocal.withInitial(() -> new float[INITIAL_BUFFER_SIZE]);
+
+    public EmbeddingResponseParser(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Gemini embedContent: {"embedding": {"values": [...]}}
+     */
+    public float[] parseGeminiEmbedding(byte[] body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            if (!seekField(parser, "embedding") || parser.currentToken() != JsonToken.START_OBJECT
+                    || !seekField(parser, "values")) {
+                throw new IOException("Неожиданный формат ответа от Gemini API");
+            }
+            return readVector(parser);
+        }
+    }
+
+    /**
+     * Gemini batchEmbedContents: {"embeddings": [{"values": [...]}, ...]}
+     */
+    public float[][] parseGeminiBatch(byte[] body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            if (!seekField(parser, "embeddings")) {
+                throw new IOException("Неожиданный формат пакетного ответа от Gemini API");
+            }
+            expect(parser.currentToken(), JsonToken.START_ARRAY);
+
+            List<float[]> vectors = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                if (!seekField(parser, "values")) {
+                    throw new IOException("Элемент пакетного ответа Gemini без values");
+                }
+                vectors.add(readVector(parser));
+                skipRestOfObject(parser);
+            }
+            return vectors.toArray(new float[0][]);
+        }
+    }
+
+    /**
+     * OpenAI: {"data": [{"index": 0, "embedding": [...]}, ...]}. Порядок элементов
+     * восстанавливается по полю index.
+     */
+    public float[][] parseOpenAI(byte[] body, int expectedCount) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            if (!seekField(parser, "data")) {
+                throw new IOException("Неожиданный формат ответа от OpenAI API");
+            }
+            expect(parser.currentToken(), JsonToken.START_ARRAY);
+
+            float[][] vectors = new float[expectedCount][];
+            int position = 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                int index = -1;
+                float[] vector = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    parser.nextToken();
+                    if ("index".equals(field)) {
+                        index = parser.getIntValue();
+                    } else if ("embedding".equals(field)) {
+                        vector = readVector(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (vector == null) {
+                    throw new IOException("Элемент ответа OpenAI без embedding");
+                }
+                int target = index >= 0 ? index : position;
+                if (target >= expectedCount) {
+                    throw new IOException("OpenAI вернул больше векторов, чем запрошено");
+                }
+                vectors[target] = vector;
+                position++;
+            }
+
+            if (position != expectedCount) {
+                throw new IOException("OpenAI вернул " + position + " векторов вместо " + expectedCount);
+            }
+            for (float[] vector : vectors) {
+                if (vector == null) {
+                    throw new IOException("OpenAI вернул повторяющиеся индексы векторов");
+                }
+            }
+            return vectors;
+        }
+    }
+
+    /**
+     * HuggingFace feature-extraction: плоский вектор [...], список векторов [[...], ...]
+     * или векторы по токенам [[[...], ...], ...] - в последнем случае берется первый вектор
+     */
+    public float[][] parseHuggingFace(byte[] body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+
+            JsonToken first = parser.nextToken();
+            if (first == JsonToken.VALUE_NUMBER_FLOAT || first == JsonToken.VALUE_NUMBER_INT) {
+                // Одиночный плоский вектор - первое число уже прочитано
+                return new float[][]{readVectorFromCurrentNumber(parser)};
+            }
+
+            List<float[]> vectors = new ArrayList<>();
+            for (JsonToken token = first; token == JsonToken.START_ARRAY; token = parser.nextToken()) {
+                vectors.add(readFirstVector(parser));
+            }
+            return vectors.toArray(new float[0][]);
+        }
+    }
+
+    /**
+     * Yandex textEmbedding: {"embedding": [...], "numTokens": "..."}
+     */
+    public float[] parseYandex(byte[] body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            if (!seekField(parser, "embedding")) {
+                throw new IOException("Неожиданный формат ответа от Yandex API");
+            }
+            return readVector(parser);
+        }
+    }
+
+    /**
+     * Перемещение к значению поля текущего объекта. Остальные поля пропускаются целиком.
+     */
+    private static boolean seekField(JsonParser parser, String name) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (name.equals(field)) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    private static void skipRestOfObject(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    /**
+     * Массив, элементами которого могут быть числа или вложенные массивы - возвращается
+     * первый числовой вектор, остальное пропускается
+     */
+    private float[] readFirstVector(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT) {
+            return readVectorFromCurrentNumber(parser);
+        }
+        expect(token, JsonToken.START_ARRAY);
+        float[] vector = readFirstVector(parser);
+        // Пропускаем оставшиеся векторы токенов
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+        }
+        return vector;
+    }
+
+    /**
+     * Чтение числового массива; парсер стоит на START_ARRAY
+     */
+    private float[] readVector(JsonParser parser) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            throw new IOException("Пустой вектор в ответе провайдера");
+        }
+        return readVectorFromCurrentNumber(parser);
+    }
+
+    /**
+     * Чтение числового массива, когда парсер уже стоит на первом числе
+     */
+    private float[] readVectorFromCurrentNumber(JsonParser parser) throws IOException {
+        float[] values = buffer.get();
+        int size = 0;
+        for (JsonToken token = parser.currentToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                throw new IOException("Ожидалось число в векторе, получено: " + token);
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+                buffer.set(values);
+            }
+            values[size++] = parseFloat(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        }
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Разбор числа прямо из символьного буфера парсера. getFloatValue() у Jackson создает
+     * строку на каждое число, что для 1536-мерных векторов дает основную часть аллокаций.
+     * Мантисса до 18 цифр и порядок в пределах 10^22 считаются в double с погрешностью
+     * не более пары ulp double - это далеко за пределами точности float. Остальное
+     * разбирается стандартным способом.
+     */
+    static float parseFloat(char[] chars, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    if (mantissa != 0 || c != '0') {
+                        digits++;
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (fraction) {
+                        scale--;
+                    }
+                } else if (!fraction) {
+                    // Лишние цифры целой части увеличивают порядок, дробной - отбрасываются
+                    scale++;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (i < end) {
+            char c = chars[i];
+            if (c != 'e' && c != 'E') {
+                return Float.parseFloat(new String(chars, offset, length));
+            }
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                i++;
+            }
+            int exponent = 0;
+            for (; i < end; i++) {
+                char e = chars[i];
+                if (e < '0' || e > '9' || exponent > 1000) {
+                    return Float.parseFloat(new String(chars, offset, length));
+                }
+                exponent = exponent * 10 + (e - '0');
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+
+        if (scale < -22 || scale > 22) {
+            return Float.parseFloat(new String(chars, offset, length));
+        }
+
+        double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+        return (float) (negative ? -value : value);
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Некорректный JSON ответа: ожидалось " + expected + ", получено " + actual);
+        }
+    }
+}
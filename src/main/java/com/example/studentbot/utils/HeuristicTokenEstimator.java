@@ -0,0 +1,65 @@
+package com.example.studentbot.utils;
+
+/**
+ * Оценка токенов BPE/WordPiece-токенизаторов без словаря.
+ *
+ * Слово (буквы и цифры подряд) дает ceil(длина / символов на токен) токенов, где
+ * число символов на токен зависит от алфавита первой буквы: кириллица делится на
+ * токены мельче латиницы. Каждый знак препинания и прочий символ - отдельный токен,
+ * пробелы не считаются. Текст обходится один раз без аллокаций.
+ */
+public class HeuristicTokenEstimator implements TokenEstimator {
+
+    private final double latinCharsPerToken;
+    private final double cyrillicCharsPerToken;
+    private final double otherCharsPerToken;
+
+    public HeuristicTokenEstimator(double latinCharsPerToken, double cyrillicCharsPerToken,
+                                   double otherCharsPerToken) {
+        this.latinCharsPerToken = latinCharsPerToken;
+        this.cyrillicCharsPerToken = cyrillicCharsPerToken;
+        this.otherCharsPerToken = otherCharsPerToken;
+    }
+
+    @Override
+    public int estimate(CharSequence text, int start, int end) {
+        int tokens = 0;
+        int wordLength = 0;
+        double charsPerToken = latinCharsPerToken;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (wordLength == 0) {
+                    charsPerToken = charsPerToken(c);
+                }
+                wordLength++;
+                continue;
+            }
+            if (wordLength > 0) {
+                tokens += wordTokens(wordLength, charsPerToken);
+                wordLength = 0;
+            }
+            if (!Character.isWhitespace(c)) {
+                tokens++;
+            }
+        }
+        if (wordLength > 0) {
+            tokens += wordTokens(wordLength, charsPerToken);
+        }
+        return tokens;
+    }
+
+    private double charsPerToken(char c) {
+        if (c < 0x80) {
+            return latinCharsPerToken;
+        }
+        if (c >= '\u0400' && c <= '\u04ff') {
+            return cyrillicCharsPerToken;
+        }
+        return otherCharsPerToken;
+    }
+
+    private static int wordTokens(int length, double charsPerToken) {
+        return (int) Math.ceil(length / charsPerToken);
+    }
+}
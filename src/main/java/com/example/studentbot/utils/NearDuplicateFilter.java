@@ -0,0 +1,128 @@
+package com.example.studentbot.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Поиск почти-дубликатов текстов по SimHash.
+ *
+ * Подпись - 64-битный SimHash по словам и парам соседних слов (регистр и знаки
+ * препинания не учитываются). Тексты считаются почти одинаковыми, если подписи
+ * отличаются не более чем в maxDistance битах. Для поиска подпись делится на
+ * maxDistance + 1 полос: у близких подписей хотя бы одна полоса совпадает целиком,
+ * поэтому сравниваются только подписи с общей полосой.
+ * Короткие тексты (меньше MIN_WORDS слов) считаются дубликатами только при совпадении подписи.
+ */
+public class NearDuplicateFilter {
+
+    public static final int MIN_WORDS = 8;
+    public static final int MAX_DISTANCE = 7;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int maxDistance;
+    private final int bands;
+    private final Map<Long, List<Long>> bandIndex = new HashMap<>();
+
+    public NearDuplicateFilter(int maxDistance) {
+        this.maxDistance = Math.max(0, Math.min(maxDistance, MAX_DISTANCE));
+        this.bands = this.maxDistance + 1;
+    }
+
+    /**
+     * true - текст почти совпадает с одним из ранее добавленных. Иначе текст запоминается
+     */
+    public boolean isDuplicate(CharSequence text) {
+        int[] words = new int[1];
+        long signature = signature(text, words);
+        int allowed = words[0] < MIN_WORDS ? 0 : maxDistance;
+
+        for (int band = 0; band < bands; band++) {
+            List<Long> candidates = bandIndex.get(bandKey(signature, band));
+            if (candidates == null) {
+                continue;
+            }
+            for (long candidate : candidates) {
+                if (Long.bitCount(candidate ^ signature) <= allowed) {
+                    return true;
+                }
+            }
+        }
+
+        for (int band = 0; band < bands; band++) {
+            bandIndex.computeIfAbsent(bandKey(signature, band), key -> new ArrayList<>(1)).add(signature);
+        }
+        return false;
+    }
+
+    /**
+     * Номер полосы в старших битах ключа, значение полосы - в младших
+     */
+    private long bandKey(long signature, int band) {
+        int from = band * 64 / bands;
+        int to = (band + 1) * 64 / bands;
+        long mask = to - from == 64 ? -1L : (1L << (to - from)) - 1;
+        return ((long) band << 56) ^ ((signature >>> from) & mask);
+    }
+
+    public static long signature(CharSequence text) {
+        return signature(text, new int[1]);
+    }
+
+    private static long signature(CharSequence text, int[] wordCount) {
+        int[] weights = new int[64];
+        long word = FNV_OFFSET;
+        long previous = 0;
+        boolean inWord = false;
+        int words = 0;
+
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word = (word ^ Character.toLowerCase(c)) * FNV_PRIME;
+                inWord = true;
+                continue;
+            }
+            if (!inWord) {
+                continue;
+            }
+            long hash = mix(word);
+            addFeature(weights, hash);
+            if (words > 0) {
+                addFeature(weights, mix(previous * 31 + hash));
+            }
+            previous = hash;
+            words++;
+            word = FNV_OFFSET;
+            inWord = false;
+        }
+
+        long signature = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                signature |= 1L << bit;
+            }
+        }
+        wordCount[0] = words;
+        return signature;
+    }
+
+    private static void addFeature(int[] weights, long hash) {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+        }
+    }
+
+    /**
+     * Финальное перемешивание splitmix64 - биты хэша слова независимы
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.studentbot.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Детерминированные идентификаторы точек Qdrant.
+ *
+ * Идентификатор чанка - UUID версии 5 (SHA-1 по пространству имен) от книги, номера
+ * чанка и модели векторов. Повторная индексация той же моделью перезаписывает точки
+ * на месте, а не добавляет дубли; векторы другой модели получают другие идентификаторы.
+ */
+public final class PointIds {
+
+    // Пространство имен точек чанков (произвольный фиксированный UUID)
+    private static final UUID CHUNK_NAMESPACE = UUID.fromString("6f1c2b7e-3d4a-5b8c-9e0f-a1b2c3d4e5f6");
+
+    private PointIds() {
+    }
+
+    /**
+     * Идентификатор точки чанка chunkIndex книги bookId, записанного моделью modelId
+     */
+    public static String chunkPointId(Long bookId, int chunkIndex, String modelId) {
+        return nameUuid(CHUNK_NAMESPACE, bookId + ":" + chunkIndex + ":" + modelId).toString();
+    }
+
+    /**
+     * UUID версии 5 по RFC 4122
+     */
+    static UUID nameUuid(UUID namespace, String name) {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 недоступен", e);
+        }
+        sha1.update(ByteBuffer.allocate(16)
+                .putLong(namespace.getMostSignificantBits())
+                .putLong(namespace.getLeastSignificantBits())
+                .array());
+        byte[] hash = sha1.digest(name.getBytes(StandardCharsets.UTF_8));
+
+        hash[6] = (byte) ((hash[6] & 0x0f) | 0x50);
+        hash[8] = (byte) ((hash[8] & 0x3f) | 0x80);
+        ByteBuffer bytes = ByteBuffer.wrap(hash, 0, 16);
+        return new UUID(bytes.getLong(), bytes.getLong());
+    }
+}
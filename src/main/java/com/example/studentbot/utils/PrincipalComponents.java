@@ -0,0 +1,327 @@
+package com.example.studentbot.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Метод главных компонент для понижения размерности векторов.
+ *
+ * Компоненты ищутся рандомизированным методом (Halko и др.): случайная проекция выборки
+ * с парой степенных итераций дает подпространство чуть больше целевого, в нем ковариация
+ * становится маленькой матрицей и раскладывается методом Якоби. Полная ковариационная
+ * матрица d x d не строится. Если выборка меньше целевой размерности, недостающие
+ * компоненты дополняются случайными ортонормированными направлениями.
+ */
+public class PrincipalComponents {
+
+    private static final int OVERSAMPLING = 10;
+    private static final int POWER_ITERATIONS = 2;
+    private static final int MAX_JACOBI_SWEEPS = 50;
+
+    private final float[] mean;
+    private final float[][] components;
+    // Скалярное произведение компоненты со средним - вычитается вместо центрирования входа
+    private final float[] offsets;
+    private final double explainedVariance;
+
+    public PrincipalComponents(float[] mean, float[][] components, double explainedVariance) {
+        this.mean = mean;
+        this.components = components;
+        this.explainedVariance = explainedVariance;
+        this.offsets = new float[components.length];
+        for (int i = 0; i < components.length; i++) {
+            offsets[i] = (float) dot(components[i], mean);
+        }
+    }
+
+    /**
+     * Обучение на выборке векторов одной размерности
+     */
+    public static PrincipalComponents fit(List<float[]> sample, int outputDimensions, long seed) {
+        if (sample.isEmpty()) {
+            throw new IllegalArgumentException("Пустая выборка для обучения PCA");
+        }
+        int n = sample.size();
+        int d = sample.get(0).length;
+        int k = Math.min(outputDimensions, d);
+        int l = Math.min(d, k + OVERSAMPLING);
+        Random random = new Random(seed);
+
+        double[] mean = new double[d];
+        for (float[] vector : sample) {
+            if (vector.length != d) {
+                throw new IllegalArgumentException("Векторы выборки разной размерности: " + vector.length + " и " + d);
+            }
+            for (int j = 0; j < d; j++) {
+                mean[j] += vector[j];
+            }
+        }
+        for (int j = 0; j < d; j++) {
+            mean[j] /= n;
+        }
+
+        double[][] centered = new double[n][d];
+        double totalVariance = 0;
+        for (int i = 0; i < n; i++) {
+            float[] vector = sample.get(i);
+            for (int j = 0; j < d; j++) {
+                double value = vector[j] - mean[j];
+                centered[i][j] = value;
+                totalVariance += value * value;
+            }
+        }
+        totalVariance /= n;
+
+        // Базис подпространства хранится по столбцам: basis[j] - вектор размерности d
+        double[][] basis = new double[l][d];
+        for (double[] column : basis) {
+            for (int j = 0; j < d; j++) {
+                column[j] = random.nextGaussian();
+            }
+        }
+        orthonormalize(basis, random);
+
+        for (int iteration = 0; iteration <= POWER_ITERATIONS; iteration++) {
+            basis = covarianceTimes(centered, basis);
+            orthonormalize(basis, random);
+        }
+
+        // Ковариация в подпространстве: B = (XQ)^T (XQ) / n
+        double[][] projected = multiply(centered, basis);
+        double[][] small = new double[l][l];
+        for (double[] row : projected) {
+            for (int a = 0; a < l; a++) {
+                double ra = row[a];
+                for (int b = a; b < l; b++) {
+                    small[a][b] += ra * row[b];
+                }
+            }
+        }
+        for (int a = 0; a < l; a++) {
+            for (int b = a; b < l; b++) {
+                small[a][b] /= n;
+                small[b][a] = small[a][b];
+            }
+        }
+
+        double[][] eigenvectors = new double[l][l];
+        double[] eigenvalues = jacobi(small, eigenvectors);
+
+        Integer[] order = new Integer[l];
+        for (int i = 0; i < l; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(eigenvalues[b], eigenvalues[a]));
+
+        float[][] components = new float[k][d];
+        double explained = 0;
+        for (int c = 0; c < k; c++) {
+            int e = order[c];
+            explained += Math.max(0, eigenvalues[e]);
+            float[] component = components[c];
+            for (int a = 0; a < l; a++) {
+                double weight = eigenvectors[a][e];
+                double[] column = basis[a];
+                for (int j = 0; j < d; j++) {
+                    component[j] += (float) (weight * column[j]);
+                }
+            }
+        }
+
+        float[] meanVector = new float[d];
+        for (int j = 0; j < d; j++) {
+            meanVector[j] = (float) mean[j];
+        }
+        return new PrincipalComponents(meanVector, components,
+                totalVariance > 0 ? Math.min(1.0, explained / totalVariance) : 1.0);
+    }
+
+    /**
+     * Проекция вектора на главные компоненты с L2-нормализацией результата
+     */
+    public float[] project(float[] vector) {
+        if (vector.length != mean.length) {
+            throw new IllegalArgumentException("Размерность вектора " + vector.length + " вместо " + mean.length);
+        }
+        float[] result = new float[components.length];
+        double norm = 0;
+        for (int i = 0; i < components.length; i++) {
+            float value = (float) dot(components[i], vector) - offsets[i];
+            result[i] = value;
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float inverse = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < result.length; i++) {
+                result[i] *= inverse;
+            }
+        }
+        return result;
+    }
+
+    public float[] getMean() { return mean; }
+    public float[][] getComponents() { return components; }
+    public int getInputDimensions() { return mean.length; }
+    public int getOutputDimensions() { return components.length; }
+    public double getExplainedVariance() { return explainedVariance; }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * X^T (X Q) - произведение ковариации (без деления на n) на базис
+     */
+    private static double[][] covarianceTimes(double[][] centered, double[][] basis) {
+        double[][] projected = multiply(centered, basis);
+        double[][] result = new double[basis.length][centered[0].length];
+        for (int i = 0; i < centered.length; i++) {
+            double[] row = centered[i];
+            for (int a = 0; a < basis.length; a++) {
+                double weight = projected[i][a];
+                double[] column = result[a];
+                for (int j = 0; j < row.length; j++) {
+                    column[j] += weight * row[j];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * X Q: строки выборки в координатах базиса
+     */
+    private static double[][] multiply(double[][] centered, double[][] basis) {
+        double[][] result = new double[centered.length][basis.length];
+        for (int i = 0; i < centered.length; i++) {
+            double[] row = centered[i];
+            for (int a = 0; a < basis.length; a++) {
+                double[] column = basis[a];
+                double sum = 0;
+                for (int j = 0; j < row.length; j++) {
+                    sum += row[j] * column[j];
+                }
+                result[i][a] = sum;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Модифицированный Грам-Шмидт с повторной ортогонализацией. Вырожденные столбцы
+     * (выборка меньше размерности подпространства) заменяются случайными направлениями
+     */
+    private static void orthonormalize(double[][] columns, Random random) {
+        for (int a = 0; a < columns.length; a++) {
+            double[] column = columns[a];
+            double initialNorm = norm(column);
+            for (int attempt = 0; ; attempt++) {
+                for (int pass = 0; pass < 2; pass++) {
+                    for (int b = 0; b < a; b++) {
+                        double[] previous = columns[b];
+                        double projection = 0;
+                        for (int j = 0; j < column.length; j++) {
+                            projection += column[j] * previous[j];
+                        }
+                        for (int j = 0; j < column.length; j++) {
+                            column[j] -= projection * previous[j];
+                        }
+                    }
+                }
+                double norm = norm(column);
+                if (norm > 1e-10 * Math.max(1.0, initialNorm) || attempt >= 10) {
+                    for (int j = 0; j < column.length; j++) {
+                        column[j] /= norm;
+                    }
+                    break;
+                }
+                for (int j = 0; j < column.length; j++) {
+                    column[j] = random.nextGaussian();
+                }
+                initialNorm = norm(column);
+            }
+        }
+    }
+
+    private static double norm(double[] vector) {
+        double sum = 0;
+        for (double value : vector) {
+            sum += value * value;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Циклический метод Якоби для симметричной матрицы. Матрица разрушается,
+     * собственные векторы записываются в столбцы vectors
+     */
+    private static double[] jacobi(double[][] matrix, double[][] vectors) {
+        int size = matrix.length;
+        for (int i = 0; i < size; i++) {
+            vectors[i][i] = 1.0;
+        }
+
+        double scale = 0;
+        for (int i = 0; i < size; i++) {
+            scale += matrix[i][i] * matrix[i][i];
+        }
+
+        for (int sweep = 0; sweep < MAX_JACOBI_SWEEPS; sweep++) {
+            double offDiagonal = 0;
+            for (int p = 0; p < size; p++) {
+                for (int q = p + 1; q < size; q++) {
+                    offDiagonal += matrix[p][q] * matrix[p][q];
+                }
+            }
+            if (offDiagonal <= 1e-24 * Math.max(scale, 1e-300)) {
+                break;
+            }
+
+            for (int p = 0; p < size; p++) {
+                for (int q = p + 1; q < size; q++) {
+                    double apq = matrix[p][q];
+                    if (Math.abs(apq) < 1e-300) {
+                        continue;
+                    }
+                    double theta = (matrix[q][q] - matrix[p][p]) / (2 * apq);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        t = 1;
+                    }
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+
+                    for (int i = 0; i < size; i++) {
+                        double aip = matrix[i][p];
+                        double aiq = matrix[i][q];
+                        matrix[i][p] = c * aip - s * aiq;
+                        matrix[i][q] = s * aip + c * aiq;
+                    }
+                    for (int i = 0; i < size; i++) {
+                        double api = matrix[p][i];
+                        double aqi = matrix[q][i];
+                        matrix[p][i] = c * api - s * aqi;
+                        matrix[q][i] = s * api + c * aqi;
+                    }
+                    for (int i = 0; i < size; i++) {
+                        double vip = vectors[i][p];
+                        double viq = vectors[i][q];
+                        vectors[i][p] = c * vip - s * viq;
+                        vectors[i][q] = s * vip + c * viq;
+                    }
+                }
+            }
+        }
+
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = matrix[i][i];
+        }
+        return values;
+    }
+}
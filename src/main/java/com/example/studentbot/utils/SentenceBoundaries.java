@@ -0,0 +1,132 @@
+package com.example.studentbot.utils;
+
+/**
+ * Поиск границ предложений в CharSequence без копирования текста.
+ *
+ * Граница - знак конца (. ! ? …), возможно повторенный и с закрывающими кавычками или
+ * скобками, за которым идут пробелы. Не считаются границей: точка после сокращения
+ * (т.е., и т.д., рис., e.g.) или одиночной буквы (инициалы А. С. Пушкин), а также знак,
+ * после которого предложение продолжается со строчной буквы или тире (прямая речь).
+ */
+public final class SentenceBoundaries {
+
+    /**
+     * Текст закончился раньше, чем стало ясно, граница ли это
+     */
+    public static final int NEED_MORE = -1;
+
+    /**
+     * Не граница предложения
+     */
+    public static final int NONE = -2;
+
+    private static final int MAX_ABBREVIATION_LENGTH = 6;
+
+    // Сокращения в нижнем регистре без последней точки; одиночные буквы проверяются отдельно
+    private static final char[][] ABBREVIATIONS = toChars(
+            "т.е", "т.д", "т.п", "т.к", "т.н", "т.о", "и.о", "н.э", "др", "пр", "гг", "вв", "стр", "см",
+            "рис", "табл", "им", "ул", "кв", "проф", "акад", "доц", "канд", "тыс", "млн", "млрд", "руб",
+            "коп", "ст", "гл", "пп", "напр", "англ", "лат", "греч", "мин", "сек", "макс", "ед", "изд",
+            "ред", "сб", "вып", "прим", "обл", "ок", "сокр", "зам",
+            "mr", "mrs", "ms", "dr", "prof", "st", "vs", "e.g", "i.e", "fig", "no", "vol", "pp", "ed",
+            "eds", "al", "jr", "sr", "inc", "ltd", "co", "approx", "cf", "ch", "sec", "eq");
+
+    private SentenceBoundaries() {
+    }
+
+    public static boolean isTerminator(char c) {
+        return c == '.' || c == '!' || c == '?' || c == '…';
+    }
+
+    /**
+     * Проверка границы на знаке конца в позиции pos. Возвращает начало следующего
+     * предложения, NONE или NEED_MORE. При end = true text[0, length) - весь текст,
+     * и его конец считается границей
+     */
+    public static int boundaryAt(CharSequence text, int pos, int length, boolean end) {
+        int runEnd = pos + 1;
+        while (runEnd < length && (isTerminator(text.charAt(runEnd)) || isClosing(text.charAt(runEnd)))) {
+            runEnd++;
+        }
+        if (runEnd == length) {
+            return end ? length : NEED_MORE;
+        }
+        // 3.14, т.е, example.com - знак внутри слова
+        if (!Character.isWhitespace(text.charAt(runEnd))) {
+            return NONE;
+        }
+
+        int next = runEnd;
+        while (next < length && Character.isWhitespace(text.charAt(next))) {
+            next++;
+        }
+        if (next == length) {
+            return end ? length : NEED_MORE;
+        }
+
+        char following = text.charAt(next);
+        if (Character.isLowerCase(following) || following == '—' || following == '–') {
+            return NONE;
+        }
+        if (text.charAt(pos) == '.' && runEnd == pos + 1 && isAbbreviation(text, pos)) {
+            return NONE;
+        }
+        return next;
+    }
+
+    private static boolean isClosing(char c) {
+        return c == '"' || c == '\'' || c == '»' || c == '”' || c == '’' || c == ')' || c == ']';
+    }
+
+    private static boolean isOpening(char c) {
+        return c == '"' || c == '\'' || c == '«' || c == '“' || c == '‘' || c == '(' || c == '[';
+    }
+
+    /**
+     * Слово перед точкой в позиции dot - одиночная буква или известное сокращение
+     */
+    private static boolean isAbbreviation(CharSequence text, int dot) {
+        int start = dot;
+        while (start > 0) {
+            char c = text.charAt(start - 1);
+            if (Character.isWhitespace(c) || isOpening(c)) {
+                break;
+            }
+            if (dot - start >= MAX_ABBREVIATION_LENGTH) {
+                return false;
+            }
+            start--;
+        }
+
+        int length = dot - start;
+        if (length == 0) {
+            return false;
+        }
+        if (length == 1) {
+            return Character.isLetter(text.charAt(start));
+        }
+        for (char[] abbreviation : ABBREVIATIONS) {
+            if (abbreviation.length == length && matchesIgnoreCase(text, start, abbreviation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesIgnoreCase(CharSequence text, int start, char[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            if (Character.toLowerCase(text.charAt(start + i)) != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char[][] toChars(String... words) {
+        char[][] chars = new char[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            chars[i] = words[i].toCharArray();
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,403 @@
+package com.example.studentbot.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Инкрементальное разбиение текста на чанки.
+ *
+ * Текст подается частями (например, по страницам), готовые чанки сразу передаются
+ * получателю. Буфер держит текст от начала текущего чанка до конца поданного и
+ * просматривается один раз слева направо: границы предложений (SentenceBoundaries)
+ * и чанков запоминаются смещениями, текст копируется только при выдаче чанка.
+ *
+ * Размер чанка задается бюджетом токенов по оценке TokenEstimator (по умолчанию - один
+ * токен на символ, MAX_CHUNK_LENGTH символов). Чанк собирается из предложений до
+ * maxTokens, следующий начинается с перекрытия до overlapTokens: с последних целых
+ * предложений предыдущего, а если последнее предложение длиннее - с границы слова.
+ * Фрагмент длиннее бюджета без знаков конца предложения режется по пробелу.
+ * Для каждого чанка запоминаются страницы начала и конца (0 - страницы неизвестны).
+ */
+public class TextChunker {
+
+    public static final int CHUNK_OVERLAP = 50;
+    public static final int MAX_CHUNK_LENGTH = 600;
+
+    // Токены считаются на границах предложений и на пробелах не реже чем через столько
+    // символов; без пробелов - через ESTIMATE_GAP символов
+    private static final int ESTIMATE_STEP = 64;
+    private static final int ESTIMATE_GAP = 256;
+
+    // Выданный текст удаляется из начала буфера, когда его больше порога и половины буфера
+    private static final int COMPACT_THRESHOLD = 16 * 1024;
+
+    private final ChunkSink sink;
+    private final TokenEstimator estimator;
+    private final int maxTokens;
+    private final int overlapTokens;
+
+    private final StringBuilder buffer = new StringBuilder();
+    private int scanPos;
+    private int chunkStart;
+    // Конец перекрытия - с него начинается новый текст текущего чанка
+    private int contentStart;
+    private int lastBoundary;
+    // Токены текущего чанка посчитаны до этого смещения
+    private int estimatedPos;
+    private int chunkTokens;
+
+    // Начала предложений текущего чанка по возрастанию
+    private int[] boundaries = new int[32];
+    private int boundaryCount;
+
+    // Смещения в буфере, с которых начинаются страницы
+    private int[] pageOffsets = new int[8];
+    private int[] pageNumbers = new int[8];
+    private int pageCount;
+
+    private int chunkIndex;
+
+    public TextChunker(ChunkSink sink) {
+        this(sink, TokenEstimator.CHARACTERS, MAX_CHUNK_LENGTH, CHUNK_OVERLAP);
+    }
+
+    public TextChunker(ChunkSink sink, TokenEstimator estimator, int maxTokens, int overlapTokens) {
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("Бюджет чанка должен быть положительным: " + maxTokens);
+        }
+        this.sink = sink;
+        this.estimator = estimator;
+        this.maxTokens = maxTokens;
+        // Перекрытие меньше половины чанка, иначе новый текст чанка вытесняется повтором
+        this.overlapTokens = Math.max(0, Math.min(overlapTokens, maxTokens / 2));
+    }
+
+    /**
+     * Добавление очередной части текста со страницы page
+     */
+    public void append(CharSequence text, int page) throws Exception {
+        if (pageCount == 0 || pageNumbers[pageCount - 1] != page) {
+            addPage(buffer.length(), page);
+        }
+        buffer.append(text);
+        scan(false);
+    }
+
+    /**
+     * Завершение текста: остаток становится последним чанком
+     */
+    public void finish() throws Exception {
+        scan(true);
+        if (hasContent(contentStart, buffer.length())) {
+            emit(chunkStart, buffer.length());
+        }
+        buffer.setLength(0);
+        scanPos = 0;
+        chunkStart = 0;
+        contentStart = 0;
+        lastBoundary = 0;
+        estimatedPos = 0;
+        chunkTokens = 0;
+        boundaryCount = 0;
+        pageCount = 0;
+    }
+
+    /**
+     * Количество выданных чанков
+     */
+    public int getChunkCount() {
+        return chunkIndex;
+    }
+
+    private void scan(boolean end) throws Exception {
+        int length = buffer.length();
+        while (scanPos < length) {
+            char c = buffer.charAt(scanPos);
+            if (SentenceBoundaries.isTerminator(c)) {
+                int next = SentenceBoundaries.boundaryAt(buffer, scanPos, length, end);
+                if (next == SentenceBoundaries.NEED_MORE) {
+                    break;
+                }
+                if (next != SentenceBoundaries.NONE) {
+                    count(next);
+                    addBoundary(next);
+                    scanPos = next;
+                    continue;
+                }
+            } else {
+                int pending = scanPos - estimatedPos;
+                if (pending >= ESTIMATE_GAP || (pending >= ESTIMATE_STEP && Character.isWhitespace(c))) {
+                    count(scanPos);
+                }
+            }
+            scanPos++;
+        }
+        if (end) {
+            count(length);
+        }
+        if (chunkStart >= COMPACT_THRESHOLD && chunkStart >= buffer.length() / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Учет токенов текста до смещения pos и выдача чанков, вышедших за бюджет
+     */
+    private void count(int pos) throws Exception {
+        if (pos > estimatedPos) {
+            chunkTokens += estimator.estimate(buffer, estimatedPos, pos);
+            estimatedPos = pos;
+        }
+        while (chunkTokens > maxTokens) {
+            cutChunk();
+        }
+    }
+
+    /**
+     * Выдача чанка по последней границе предложения - до нее чанк укладывался в бюджет.
+     * Если в новом тексте чанка границы нет, чанк режется по пробелу
+     */
+    private void cutChunk() throws Exception {
+        int end = lastBoundary > contentStart ? lastBoundary : wordCut();
+        emit(chunkStart, end);
+        startNextChunk(end);
+    }
+
+    /**
+     * Самый длинный фрагмент чанка в пределах бюджета, укороченный до пробела
+     */
+    private int wordCut() {
+        int low = contentStart + 1;
+        int high = estimatedPos;
+        int fit = contentStart + 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (estimator.estimate(buffer, chunkStart, mid) <= maxTokens) {
+                fit = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = Math.min(fit, buffer.length() - 1); i > contentStart; i--) {
+            if (Character.isWhitespace(buffer.charAt(i))) {
+                return i;
+            }
+        }
+        return fit;
+    }
+
+    private void startNextChunk(int end) {
+        // Перекрытие начинается после начала нового текста чанка: иначе короткий чанк
+        // целиком повторится в начале следующего
+        int newText = contentStart;
+        while (newText < end && Character.isWhitespace(buffer.charAt(newText))) {
+            newText++;
+        }
+
+        // Целые предложения с конца, пока укладываются в перекрытие
+        int overlap = end;
+        int tokens = 0;
+        for (int i = boundaryCount - 1; i >= 0; i--) {
+            int boundary = boundaries[i];
+            if (boundary >= end) {
+                continue;
+            }
+            if (boundary <= newText) {
+                break;
+            }
+            int sentenceTokens = estimator.estimate(buffer, boundary, overlap);
+            if (tokens + sentenceTokens > overlapTokens) {
+                break;
+            }
+            tokens += sentenceTokens;
+            overlap = boundary;
+        }
+        if (overlap == end) {
+            // Последнее предложение длиннее перекрытия - перекрытие со слов в его конце
+            tokens = 0;
+            int pos = end;
+            while (pos > newText) {
+                int wordStart = pos;
+                while (wordStart > newText && Character.isWhitespace(buffer.charAt(wordStart - 1))) {
+                    wordStart--;
+                }
+                while (wordStart > newText && !Character.isWhitespace(buffer.charAt(wordStart - 1))) {
+                    wordStart--;
+                }
+                // Слово с начала нового текста - перекрытие покрыло бы его целиком
+                if (wordStart <= newText) {
+                    break;
+                }
+                int wordTokens = estimator.estimate(buffer, wordStart, pos);
+                if (tokens + wordTokens > overlapTokens) {
+                    break;
+                }
+                tokens += wordTokens;
+                pos = wordStart;
+            }
+            overlap = pos;
+        }
+
+        chunkStart = overlap;
+        contentStart = end;
+        chunkTokens = overlap < end ? tokens : 0;
+        if (end < estimatedPos) {
+            chunkTokens += estimator.estimate(buffer, end, estimatedPos);
+        } else {
+            estimatedPos = end;
+        }
+
+        int kept = 0;
+        for (int i = 0; i < boundaryCount; i++) {
+            if (boundaries[i] >= chunkStart) {
+                boundaries[kept++] = boundaries[i];
+            }
+        }
+        boundaryCount = kept;
+    }
+
+    /**
+     * Удаление выданного текста перед началом текущего чанка со сдвигом смещений
+     */
+    private void compact() {
+        int shift = chunkStart;
+        buffer.delete(0, shift);
+        scanPos -= shift;
+        chunkStart = 0;
+        contentStart -= shift;
+        estimatedPos -= shift;
+        lastBoundary = Math.max(0, lastBoundary - shift);
+        for (int i = 0; i < boundaryCount; i++) {
+            boundaries[i] -= shift;
+        }
+
+        // Страница, на которой начинается чанк, становится первой
+        int first = pageIndex(shift);
+        int kept = 0;
+        for (int i = Math.max(first, 0); i < pageCount; i++) {
+            pageOffsets[kept] = Math.max(0, pageOffsets[i] - shift);
+            pageNumbers[kept] = pageNumbers[i];
+            kept++;
+        }
+        pageCount = kept;
+    }
+
+    private void emit(int start, int end) throws Exception {
+        while (start < end && Character.isWhitespace(buffer.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(buffer.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        sink.accept(new TextChunk(chunkIndex++, buffer.substring(start, end), pageAt(start), pageAt(end - 1)));
+    }
+
+    private boolean hasContent(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(buffer.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addBoundary(int boundary) {
+        if (boundaryCount == boundaries.length) {
+            boundaries = Arrays.copyOf(boundaries, boundaryCount * 2);
+        }
+        boundaries[boundaryCount++] = boundary;
+        lastBoundary = boundary;
+    }
+
+    private void addPage(int offset, int page) {
+        if (pageCount == pageOffsets.length) {
+            pageOffsets = Arrays.copyOf(pageOffsets, pageCount * 2);
+            pageNumbers = Arrays.copyOf(pageNumbers, pageCount * 2);
+        }
+        pageOffsets[pageCount] = offset;
+        pageNumbers[pageCount] = page;
+        pageCount++;
+    }
+
+    private int pageAt(int offset) {
+        int index = pageIndex(offset);
+        return index >= 0 ? pageNumbers[index] : 0;
+    }
+
+    /**
+     * Индекс последней страницы, начинающейся не позже offset
+     */
+    private int pageIndex(int offset) {
+        int low = 0;
+        int high = pageCount - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (pageOffsets[mid] <= offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Получатель готовых чанков
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+        void accept(TextChunk chunk) throws Exception;
+    }
+
+    /**
+     * Чанк текста с номером и диапазоном страниц
+     */
+    public static class TextChunk {
+        private final int index;
+        private final String text;
+        private final int startPage;
+        private final int endPage;
+        private String contentHash;
+
+        public TextChunk(int index, String text, int startPage, int endPage) {
+            this.index = index;
+            this.text = text;
+            this.startPage = startPage;
+            this.endPage = endPage;
+        }
+
+        public int getIndex() { return index; }
+        public String getText() { return text; }
+        public int getStartPage() { return startPage; }
+        public int getEndPage() { return endPage; }
+
+        /**
+         * Хэш текста чанка (первые 128 бит SHA-256) - по нему при повторной индексации
+         * находятся чанки, не изменившиеся с прошлой версии файла
+         */
+        public String getContentHash() {
+            if (contentHash == null) {
+                contentHash = hashText(text);
+            }
+            return contentHash;
+        }
+    }
+
+    public static String hashText(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
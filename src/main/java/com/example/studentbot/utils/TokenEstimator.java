@@ -0,0 +1,27 @@
+package com.example.studentbot.utils;
+
+/**
+ * Оценка числа токенов текста для модели векторизации.
+ *
+ * Оценка должна быть монотонной (более длинный фрагмент - не меньше токенов), не больше
+ * одного токена на символ и скорее завышенной: по ней чанки подгоняются под лимит входа
+ * провайдера, и занижение приведет к обрезке текста. Сумма оценок частей, разрезанных
+ * по пробелам, равна оценке целого - разбиение считает токены по частям.
+ */
+@FunctionalInterface
+public interface TokenEstimator {
+
+    /**
+     * Один токен на символ - прежнее разбиение по длине в символах
+     */
+    TokenEstimator CHARACTERS = (text, start, end) -> end - start;
+
+    /**
+     * Оценка числа токенов фрагмента text[start, end)
+     */
+    int estimate(CharSequence text, int start, int end);
+
+    default int estimate(CharSequence text) {
+        return estimate(text, 0, text.length());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.studentbot.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SentenceBoundariesTest {
+
+    @Test
+    void sentenceEndFollowedByCapitalIsBoundary() {
+        String text = "Первое предложение. Второе предложение.";
+        int dot = text.indexOf('.');
+
+        assertEquals(text.indexOf("Второе"), boundary(text, dot, false));
+    }
+
+    @Test
+    void repeatedTerminatorsAndClosingQuotesBelongToSentence() {
+        String text = "Неужели?!» Да.";
+
+        assertEquals(text.indexOf("Да"), boundary(text, text.indexOf('?'), false));
+    }
+
+    @Test
+    void abbreviationsAreNotBoundaries() {
+        String text = "См. рис. 5 и т.д. Далее e.g. Smith et al. Works.";
+
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf("См.") + 2, false));
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf("рис.") + 3, false));
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf("т.д.") + 3, false));
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf("e.g.") + 3, false));
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf("al.") + 2, false));
+    }
+
+    @Test
+    void initialsAreNotBoundaries() {
+        String text = "Автор - А. С. Пушкин.";
+
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf("А.") + 1, false));
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf("С.") + 1, false));
+    }
+
+    @Test
+    void ellipsisEndsSentenceBeforeCapital() {
+        String text = "Он ушел… Она осталась... Потом вернулся.";
+
+        assertEquals(text.indexOf("Она"), boundary(text, text.indexOf('…'), false));
+        assertEquals(text.indexOf("Потом"), boundary(text, text.indexOf("..."), false));
+    }
+
+    @Test
+    void ellipsisBeforeLowercaseContinuesSentence() {
+        String text = "Он думал... и молчал… а потом ушел.";
+
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf("..."), false));
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf('…'), false));
+    }
+
+    @Test
+    void directSpeechContinuesAfterDash() {
+        String text = "«Иди!» — сказал он.";
+
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf('!'), false));
+    }
+
+    @Test
+    void terminatorInsideWordIsNotBoundary() {
+        String text = "Число 3.14 и сайт example.com рядом.";
+
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf("3.14") + 1, false));
+        assertEquals(SentenceBoundaries.NONE, boundary(text, text.indexOf(".com"), false));
+    }
+
+    @Test
+    void endOfTextNeedsMoreUntilFinished() {
+        String text = "Конец текста.  ";
+        int dot = text.indexOf('.');
+
+        assertEquals(SentenceBoundaries.NEED_MORE, boundary(text, dot, false));
+        assertEquals(text.length(), boundary(text, dot, true));
+    }
+
+    private static int boundary(String text, int pos, boolean end) {
+        return SentenceBoundaries.boundaryAt(text, pos, text.length(), end);
+    }
+}
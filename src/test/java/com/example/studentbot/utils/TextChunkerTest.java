@@ -0,0 +1,235 @@
+package com.example.studentbot.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextChunkerTest {
+
+    private static final Pattern PAGE_MARKER = Pattern.compile("Страница (\\d+),");
+
+    @Test
+    void chunksStayWithinCharacterBudget() throws Exception {
+        List<TextChunker.TextChunk> chunks = new ArrayList<>();
+        TextChunker chunker = new TextChunker(chunks::add);
+
+        chunker.append(randomText(42, 400), 1);
+        chunker.finish();
+
+        assertTrue(chunks.size() > 1);
+        for (TextChunker.TextChunk chunk : chunks) {
+            assertTrue(chunk.getText().length() <= TextChunker.MAX_CHUNK_LENGTH,
+                    "Чанк " + chunk.getIndex() + " длиной " + chunk.getText().length());
+        }
+    }
+
+    @Test
+    void chunksStayWithinTokenBudget() throws Exception {
+        TokenEstimator estimator = new HeuristicTokenEstimator(4.0, 2.5, 1.5);
+        List<TextChunker.TextChunk> chunks = new ArrayList<>();
+        TextChunker chunker = new TextChunker(chunks::add, estimator, 120, 30);
+
+        chunker.append(randomText(7, 400), 1);
+        chunker.finish();
+
+        assertTrue(chunks.size() > 1);
+        for (TextChunker.TextChunk chunk : chunks) {
+            int tokens = estimator.estimate(chunk.getText());
+            assertTrue(tokens <= 120, "Чанк " + chunk.getIndex() + ": " + tokens + " токенов");
+        }
+    }
+
+    @Test
+    void textWithoutSentenceEndsIsCutAtSpacesWithinBudget() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            text.append("слово").append(i).append(' ');
+        }
+        List<TextChunker.TextChunk> chunks = new ArrayList<>();
+        TextChunker chunker = new TextChunker(chunks::add, TokenEstimator.CHARACTERS, 100, 20);
+
+        chunker.append(text, 1);
+        chunker.finish();
+
+        assertTrue(chunks.size() > 1);
+        for (TextChunker.TextChunk chunk : chunks) {
+            assertTrue(chunk.getText().length() <= 100);
+            assertTrue(chunk.getText().matches("слово\\d+( слово\\d+)*"), chunk.getText());
+        }
+    }
+
+    @Test
+    void overlapConsistsOfWholeSentences() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            text.append("Предложение номер ").append(i).append(" здесь. ");
+        }
+        List<TextChunker.TextChunk> chunks = new ArrayList<>();
+        TextChunker chunker = new TextChunker(chunks::add, TokenEstimator.CHARACTERS, 120, 40);
+
+        chunker.append(text, 1);
+        chunker.finish();
+
+        assertTrue(chunks.size() > 1);
+        for (int i = 1; i < chunks.size(); i++) {
+            String previous = chunks.get(i - 1).getText();
+            String next = chunks.get(i).getText();
+            assertTrue(next.startsWith("Предложение номер "), next);
+
+            String firstSentence = next.substring(0, next.indexOf('.') + 1);
+            int overlapStart = previous.lastIndexOf(firstSentence);
+            assertTrue(overlapStart > 0, "Нет перекрытия между чанками " + (i - 1) + " и " + i);
+            assertTrue(next.startsWith(previous.substring(overlapStart)));
+            assertTrue(previous.substring(overlapStart).length() <= 40);
+        }
+    }
+
+    @Test
+    void longSentenceOverlapConsistsOfWholeWords() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("word").append(i).append(' ');
+        }
+        List<TextChunker.TextChunk> chunks = new ArrayList<>();
+        TextChunker chunker = new TextChunker(chunks::add, TokenEstimator.CHARACTERS, 100, 20);
+
+        chunker.append(text, 1);
+        chunker.finish();
+
+        assertTrue(chunks.size() > 1);
+        for (int i = 1; i < chunks.size(); i++) {
+            List<String> previous = Arrays.asList(chunks.get(i - 1).getText().split(" "));
+            List<String> next = Arrays.asList(chunks.get(i).getText().split(" "));
+
+            int overlapStart = previous.indexOf(next.get(0));
+            assertTrue(overlapStart > 0, "Чанк " + i + " начинается не с целого слова: " + next.get(0));
+            List<String> overlap = previous.subList(overlapStart, previous.size());
+            assertEquals(overlap, next.subList(0, overlap.size()));
+        }
+    }
+
+    @Test
+    void overlapNeverCoversWholePreviousChunk() throws Exception {
+        // Короткое предложение перед длинным словом без пробелов: предложение целиком
+        // укладывается в перекрытие, но повторять весь предыдущий чанк нельзя
+        String text = "Первое предложение, которое занимает почти весь бюджет. Короткое. "
+                + "ы".repeat(150) + " Конец текста.";
+        List<TextChunker.TextChunk> chunks = new ArrayList<>();
+        TextChunker chunker = new TextChunker(chunks::add, TokenEstimator.CHARACTERS, 68, 33);
+
+        chunker.append(text, 1);
+        chunker.finish();
+
+        assertTrue(chunks.size() > 1);
+        for (int i = 1; i < chunks.size(); i++) {
+            String previous = chunks.get(i - 1).getText();
+            String next = chunks.get(i).getText();
+            assertFalse(next.startsWith(previous), "Чанк " + (i - 1) + " повторяется в начале чанка " + i);
+            // Перекрытие - целые слова; с середины начинается только продолжение длинного
+            // слова, разрезанного без пробела
+            int start = text.indexOf(next);
+            assertTrue(next.startsWith("ы") || Character.isWhitespace(text.charAt(start - 1)),
+                    "Чанк " + i + " начинается с середины слова: " + next);
+        }
+    }
+
+    @Test
+    void overlapNeverCoversPreviousChunkOnRandomText() throws Exception {
+        Random random = new Random(11);
+        for (int run = 0; run < 200; run++) {
+            int maxTokens = 20 + random.nextInt(100);
+            List<TextChunker.TextChunk> chunks = new ArrayList<>();
+            TextChunker chunker = new TextChunker(chunks::add, TokenEstimator.CHARACTERS,
+                    maxTokens, random.nextInt(maxTokens));
+
+            chunker.append(randomText(random.nextLong(), 30), 1);
+            chunker.finish();
+
+            for (int i = 1; i < chunks.size(); i++) {
+                assertFalse(chunks.get(i).getText().startsWith(chunks.get(i - 1).getText()),
+                        "Запуск " + run + ": чанк " + (i - 1) + " повторяется в начале чанка " + i);
+            }
+        }
+    }
+
+    @Test
+    void pageNumbersSurviveCompaction() throws Exception {
+        List<TextChunker.TextChunk> chunks = new ArrayList<>();
+        TextChunker chunker = new TextChunker(chunks::add);
+
+        int pages = 200;
+        int totalLength = 0;
+        for (int page = 1; page <= pages; page++) {
+            StringBuilder text = new StringBuilder();
+            for (int sentence = 1; sentence <= 20; sentence++) {
+                text.append("Страница ").append(page).append(", предложение ").append(sentence).append(". ");
+            }
+            totalLength += text.length();
+            chunker.append(text, page);
+        }
+        chunker.finish();
+
+        // Буфер сжимается после 16 КБ выданного текста - текст должен быть заметно больше
+        assertTrue(totalLength > 64 * 1024);
+        assertEquals(chunks.size(), chunker.getChunkCount());
+        for (TextChunker.TextChunk chunk : chunks) {
+            Matcher matcher = PAGE_MARKER.matcher(chunk.getText());
+            assertTrue(matcher.find(), chunk.getText());
+            int first = Integer.parseInt(matcher.group(1));
+            int last = first;
+            while (matcher.find()) {
+                last = Integer.parseInt(matcher.group(1));
+            }
+            assertEquals(first, chunk.getStartPage(), "Начальная страница чанка " + chunk.getIndex());
+            assertEquals(last, chunk.getEndPage(), "Конечная страница чанка " + chunk.getIndex());
+        }
+        assertEquals(pages, chunks.get(chunks.size() - 1).getEndPage());
+    }
+
+    @Test
+    void abbreviationsAndEllipsisDoNotSplitSentences() throws Exception {
+        String text = "См. рис. 5 и т.д. в главе, написанной А. С. Пушкиным... и продолженной позже. "
+                + "Второе предложение.";
+        List<TextChunker.TextChunk> chunks = new ArrayList<>();
+        // Бюджет кончается на втором предложении - чанк режется по последней границе
+        TextChunker chunker = new TextChunker(chunks::add, TokenEstimator.CHARACTERS,
+                text.indexOf("Второе") + 5, 0);
+
+        chunker.append(text, 1);
+        chunker.finish();
+
+        assertEquals(2, chunks.size());
+        assertEquals(text.substring(0, text.indexOf(" Второе")), chunks.get(0).getText());
+        assertEquals("Второе предложение.", chunks.get(1).getText());
+    }
+
+    /**
+     * Предложения случайной длины из латинских и кириллических слов
+     */
+    private static String randomText(long seed, int sentences) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int s = 0; s < sentences; s++) {
+            int words = 3 + random.nextInt(random.nextInt(10) == 0 ? 80 : 15);
+            for (int w = 0; w < words; w++) {
+                boolean cyrillic = random.nextBoolean();
+                int length = 1 + random.nextInt(10);
+                for (int i = 0; i < length; i++) {
+                    char c = cyrillic ? (char) ('а' + random.nextInt(32)) : (char) ('a' + random.nextInt(26));
+                    text.append(w == 0 && i == 0 ? Character.toUpperCase(c) : c);
+                }
+                text.append(w == words - 1 ? ". " : random.nextInt(8) == 0 ? ", " : " ");
+            }
+        }
+        return text.toString();
+    }
+}